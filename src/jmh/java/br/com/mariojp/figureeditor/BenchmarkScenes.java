@@ -0,0 +1,60 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Cenas sintéticas compartilhadas pelos benchmarks
+public final class BenchmarkScenes {
+    public static final int VIEW_WIDTH = 1000;
+    public static final int VIEW_HEIGHT = 700;
+
+    // MIXED: círculos e retângulos; ALL_TYPES: todos os ShapeType, para comparar com
+    // MIXED e ver que hit-test e desenho não pioram quando os pontos de chamada veem mais tipos
+    public enum ShapeMix { CIRCLES, RECTANGLES, MIXED, ALL_TYPES }
+
+    private static final ShapeType[] TYPES = ShapeType.values();
+
+    private BenchmarkScenes() {}
+
+    // Lado do mundo quadrado que mantém a densidade de figuras constante
+    public static double worldSize(int figureCount) {
+        return Math.max(VIEW_WIDTH, Math.sqrt(figureCount) * 25);
+    }
+
+    static DrawingPanel populate(int figureCount, ShapeMix mix, long seed) {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+        for (FigureShape shape : randomFigures(panel.getStore(), figureCount, mix, seed)) {
+            panel.addShapeDirectly(shape);
+        }
+        return panel;
+    }
+
+    static List<FigureShape> randomFigures(FigureStore store, int figureCount, ShapeMix mix, long seed) {
+        Random random = new Random(seed);
+        double world = worldSize(figureCount);
+        List<FigureShape> figures = new ArrayList<>(figureCount);
+        for (int i = 0; i < figureCount; i++) {
+            figures.add(randomFigure(store, random, mix, world));
+        }
+        return figures;
+    }
+
+    static FigureShape randomFigure(FigureStore store, Random random, ShapeMix mix, double world) {
+        double x = random.nextDouble() * world;
+        double y = random.nextDouble() * world;
+        double w = 10 + random.nextInt(50);
+        double h = 10 + random.nextInt(50);
+        Color color = new Color(random.nextInt(0xFFFFFF));
+
+        ShapeType type = switch (mix) {
+            case CIRCLES -> ShapeType.CIRCLE;
+            case RECTANGLES -> ShapeType.RECTANGLE;
+            case MIXED -> random.nextBoolean() ? ShapeType.CIRCLE : ShapeType.RECTANGLE;
+            case ALL_TYPES -> TYPES[random.nextInt(TYPES.length)];
+        };
+        return new FigureShape(store, type, x, y, w, h, color);
+    }
+}
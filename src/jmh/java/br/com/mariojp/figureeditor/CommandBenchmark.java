@@ -0,0 +1,92 @@
+package br.com.mariojp.figureeditor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// CommandManager: execute, undo e redo dos comandos do editor
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CommandBenchmark {
+    private static final int HISTORY = 1024;
+    private static final int GROUP_SIZE = 1000;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int figureCount;
+
+    @Param({"CIRCLES", "RECTANGLES", "MIXED", "ALL_TYPES"})
+    public BenchmarkScenes.ShapeMix shapeMix;
+
+    private DrawingPanel panel;
+    private FigureShape[] figures;
+    private CommandManager manager;
+    private Random random;
+    private FigureShape extra;
+    private FigureShape[] group;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        panel = BenchmarkScenes.populate(figureCount, shapeMix, 42);
+        random = new Random(3);
+        extra = BenchmarkScenes.randomFigure(panel.getStore(), random, shapeMix, BenchmarkScenes.worldSize(figureCount));
+    }
+
+    // Histórico novo a cada iteração para que a pilha não cresça sem limite
+    @Setup(Level.Iteration)
+    public void resetHistory() {
+        List<FigureShape> shapes = panel.getShapes();
+        figures = shapes.toArray(new FigureShape[0]);
+        group = Arrays.copyOf(figures, Math.min(GROUP_SIZE, figures.length));
+        manager = new CommandManager();
+        for (int i = 0; i < HISTORY; i++) {
+            manager.executeCommand(new MoveShapeCommand(panel, randomFigure(), 1, 1));
+        }
+    }
+
+    @Benchmark
+    public void executeMove() {
+        manager.executeCommand(new MoveShapeCommand(panel, randomFigure(), 1, -1));
+    }
+
+    // Movimento seguido da publicação da versão imutável, como o painel faz a cada comando
+    @Benchmark
+    public SceneVersion executeMovePublished() {
+        manager.executeCommand(new MoveShapeCommand(panel, randomFigure(), 1, -1));
+        return panel.getStore().publish();
+    }
+
+    // Um passo de arraste de 1000 figuras selecionadas: movimento em bloco e uma repintura
+    @Benchmark
+    public void executeGroupMove() {
+        manager.executeCommand(new MoveShapesCommand(panel, group, 1, -1));
+    }
+
+    @Benchmark
+    public void undoRedo() {
+        manager.undo();
+        manager.redo();
+    }
+
+    @Benchmark
+    public void executeAddThenUndo() {
+        manager.executeCommand(new AddShapeCommand(panel, extra));
+        manager.undo();
+    }
+
+    @Benchmark
+    public void executeClearThenUndo() {
+        manager.executeCommand(new ClearCommand(panel));
+        manager.undo();
+    }
+
+    private FigureShape randomFigure() {
+        return figures[random.nextInt(figures.length)];
+    }
+}
@@ -0,0 +1,63 @@
+package br.com.mariojp.figureeditor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// FigureDocument: salvar, abrir (só mapear) e carregar a cena inteira
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DocumentBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int figureCount;
+
+    private SceneSnapshot scene;
+    private Path saved;
+    private Path target;
+    private DrawingPanel panel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        panel = BenchmarkScenes.populate(figureCount, BenchmarkScenes.ShapeMix.MIXED, 42);
+        scene = panel.getStore().snapshot();
+        saved = Files.createTempFile("figures", ".fged");
+        target = Files.createTempFile("figures", ".fged");
+        FigureDocument.save(scene, saved);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        FigureDocument.save(scene, target);
+    }
+
+    // Abertura preguiçosa: cabeçalho validado e arquivo mapeado, nenhum registro lido
+    @Benchmark
+    public FigureDocument open() throws IOException {
+        return FigureDocument.open(saved);
+    }
+
+    @Benchmark
+    public SceneSnapshot openAndRead() throws IOException {
+        return FigureDocument.open(saved).toSnapshot();
+    }
+
+    // Caminho completo do botão "Abrir": leitura e reconstrução do store e do índice
+    @Benchmark
+    public void openIntoPanel() throws IOException {
+        panel.loadSnapshot(FigureDocument.open(saved).toSnapshot());
+    }
+}
@@ -0,0 +1,54 @@
+package br.com.mariojp.figureeditor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// translate, copy e contains sobre figuras soltas (sem painel)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FigureShapeBenchmark {
+    private static final int FIGURES = 1024;
+
+    @Param({"CIRCLES", "RECTANGLES", "MIXED", "ALL_TYPES"})
+    public BenchmarkScenes.ShapeMix shapeMix;
+
+    private final FigureStore store = new FigureStore();
+    private FigureShape[] figures;
+    private int next;
+    private double step = 1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<FigureShape> list = BenchmarkScenes.randomFigures(store, FIGURES, shapeMix, 42);
+        figures = list.toArray(new FigureShape[0]);
+    }
+
+    @Benchmark
+    public FigureShape translate() {
+        FigureShape shape = figures[next++ & (FIGURES - 1)];
+        step = -step;
+        shape.translate(step, step);
+        return shape;
+    }
+
+    // Teste de ponto dentro da caixa: com ALL_TYPES o switch por tipo vê todos os ramos
+    @Benchmark
+    public boolean contains() {
+        FigureShape shape = figures[next++ & (FIGURES - 1)];
+        return shape.contains(shape.getX() + shape.getWidth() * 0.3, shape.getY() + shape.getHeight() * 0.6);
+    }
+
+    // A cópia ganha uma linha no store; liberar para o store não crescer sem limite
+    @Benchmark
+    public FigureShape copy() {
+        FigureShape copy = figures[next++ & (FIGURES - 1)].copy();
+        store.release(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,59 @@
+package br.com.mariojp.figureeditor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// selectShapeAt, applySnap e snapMove em pontos aleatórios do mundo
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HitTestBenchmark {
+    private static final int POINTS = 1024;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int figureCount;
+
+    @Param({"CIRCLES", "RECTANGLES", "MIXED", "ALL_TYPES"})
+    public BenchmarkScenes.ShapeMix shapeMix;
+
+    private DrawingPanel panel;
+    private final Point[] points = new Point[POINTS];
+    private final Rectangle2D.Double dragged = new Rectangle2D.Double(0, 0, 40, 40);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        panel = BenchmarkScenes.populate(figureCount, shapeMix, 42);
+        Random random = new Random(7);
+        int world = (int) BenchmarkScenes.worldSize(figureCount);
+        for (int i = 0; i < POINTS; i++) {
+            points[i] = new Point(random.nextInt(world), random.nextInt(world));
+        }
+    }
+
+    @Benchmark
+    public void selectShapeAt() {
+        panel.selectShapeAt(points[next++ & (POINTS - 1)]);
+    }
+
+    @Benchmark
+    public Point2D applySnap() {
+        Point p = points[next++ & (POINTS - 1)];
+        return panel.applySnap(p.x, p.y);
+    }
+
+    // Um evento de arraste: as três bordas de cada eixo contra os vetores ordenados
+    @Benchmark
+    public Point2D snapMove() {
+        Point p = points[next++ & (POINTS - 1)];
+        return panel.snapMove(dragged, p.x, p.y);
+    }
+}
@@ -0,0 +1,97 @@
+package br.com.mariojp.figureeditor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+// paintComponent contra um Graphics2D de BufferedImage fora da tela
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int figureCount;
+
+    @Param({"CIRCLES", "RECTANGLES", "MIXED", "ALL_TYPES"})
+    public BenchmarkScenes.ShapeMix shapeMix;
+
+    private DrawingPanel panel;
+    private BufferedImage image;
+    private Graphics2D fullFrame;
+    private Graphics2D damagedRegion;
+    // Mesmo quadro pelo rasterizador direto, a partir de uma cópia da cena
+    private SceneSnapshot scene;
+    private final SpanRasterizer rasterizer = new SpanRasterizer();
+    private BufferedImage rasterImage;
+    private int[] rasterPixels;
+    private final Rectangle rasterArea = new Rectangle(0, 0, BenchmarkScenes.VIEW_WIDTH, BenchmarkScenes.VIEW_HEIGHT);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        panel = BenchmarkScenes.populate(figureCount, shapeMix, 42);
+        image = new BufferedImage(BenchmarkScenes.VIEW_WIDTH, BenchmarkScenes.VIEW_HEIGHT,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        fullFrame = image.createGraphics();
+        damagedRegion = image.createGraphics();
+        damagedRegion.setClip(400, 300, 120, 120);
+        // Só as figuras visíveis, como a thread de desenho recebe do índice espacial
+        scene = panel.getStore().snapshot(panel.getShapes().stream()
+                .filter(f -> f.getBounds().intersects(rasterArea)).toList());
+        rasterImage = new BufferedImage(BenchmarkScenes.VIEW_WIDTH, BenchmarkScenes.VIEW_HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        rasterPixels = ((DataBufferInt) rasterImage.getRaster().getDataBuffer()).getData();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fullFrame.dispose();
+        damagedRegion.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paintFullFrame() {
+        panel.paintComponent(fullFrame);
+        return image;
+    }
+
+    // Quadro inteiro em qualidade reduzida (sem AA e sem contorno), como durante a interação
+    @Benchmark
+    public BufferedImage paintFullFrameInteractive() {
+        panel.beginInteraction();
+        panel.paintComponent(fullFrame);
+        return image;
+    }
+
+    // Quadro inteiro pelo SpanRasterizer, em faixas paralelas; comparar com paintFullFrame
+    @Benchmark
+    public BufferedImage rasterizeFullFrame() {
+        rasterizer.setQuality(SceneRenderer.Quality.FULL);
+        rasterizer.render(scene, null, rasterPixels, BenchmarkScenes.VIEW_WIDTH, rasterArea, 1, 0, 0,
+                Color.WHITE.getRGB(), true);
+        return rasterImage;
+    }
+
+    @Benchmark
+    public BufferedImage rasterizeFullFrameInteractive() {
+        rasterizer.setQuality(SceneRenderer.Quality.FAST);
+        rasterizer.render(scene, null, rasterPixels, BenchmarkScenes.VIEW_WIDTH, rasterArea, 1, 0, 0,
+                Color.WHITE.getRGB(), true);
+        return rasterImage;
+    }
+
+    // Custo de um quadro de arraste: só a região danificada
+    @Benchmark
+    public BufferedImage paintDamagedRegion() {
+        panel.paintComponent(damagedRegion);
+        return image;
+    }
+}
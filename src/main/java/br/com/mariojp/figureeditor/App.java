@@ -1,7 +1,14 @@
 package br.com.mariojp.figureeditor;
 
+import javax.management.JMException;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
 
 public class App {
     public static void main(String[] args) {
@@ -14,6 +21,8 @@ public class App {
             frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
 
             DrawingPanel drawingPanel = new DrawingPanel();
+            drawingPanel.setRenderThreadEnabled(Boolean.getBoolean("figureeditor.renderThread"));
+            drawingPanel.setDirectRasterEnabled(Boolean.getBoolean("figureeditor.directRaster"));
 
             // Criar toolbar
             JToolBar toolbar = createToolbar(drawingPanel);
@@ -23,16 +32,168 @@ public class App {
             frame.add(drawingPanel, BorderLayout.CENTER);
 
             // Status bar
-            JLabel statusBar = new JLabel("Clique para inserir figura | Arraste para definir tamanho | Shift+clique para selecionar");
+            JLabel statusBar = new JLabel("Clique para inserir figura | Arraste para definir tamanho | Shift+clique para selecionar | Shift+arraste no vazio: seleção por área | Roda: zoom | Botão do meio/direito: mover a vista");
             statusBar.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
             frame.add(statusBar, BorderLayout.SOUTH);
 
+            // Journal de recuperação: reconstrói o último desenho e grava cada operação
+            SceneJournal journal = openJournal(frame, drawingPanel);
+            if (journal != null) {
+                frame.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent e) {
+                        try {
+                            journal.close();
+                        } catch (IOException ex) {
+                            System.err.println("Erro ao fechar o journal: " + ex.getMessage());
+                        }
+                    }
+                });
+            }
+
+            // Minimapa no canto: criado depois do journal, já com a cena recuperada
+            MinimapPanel minimap = new MinimapPanel(drawingPanel);
+            JPanel sidePanel = new JPanel(new BorderLayout());
+            sidePanel.add(minimap, BorderLayout.NORTH);
+            frame.add(sidePanel, BorderLayout.EAST);
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    minimap.dispose();
+                }
+            });
+
+            // Colaboração ao vivo: -Dfigureeditor.collab=<host:porta> conecta a um relay e
+            // -Dfigureeditor.collab.server=<porta> roda um relay neste processo
+            CollabServer relay = startRelay();
+            openCollab(frame, drawingPanel, relay, journal);
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    try {
+                        CollabClient collab = drawingPanel.getCollab();
+                        if (collab != null) collab.close();
+                        if (relay != null) relay.close();
+                    } catch (IOException ex) {
+                        System.err.println("Erro ao encerrar a colaboração: " + ex.getMessage());
+                    }
+                }
+            });
+
+            // Métricas: MBean no JMX e, com -Dfigureeditor.metrics=<arquivo>, dump periódico
+            try {
+                drawingPanel.getMetrics().registerMBean();
+            } catch (JMException | RuntimeException e) {
+                System.err.println("Erro ao registrar o MBean de métricas: " + e.getMessage());
+            }
+            MetricsDump dump = startMetricsDump(drawingPanel);
+            if (dump != null) {
+                frame.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent e) {
+                        try {
+                            dump.close();
+                        } catch (IOException ex) {
+                            System.err.println("Erro ao fechar o dump de métricas: " + ex.getMessage());
+                        }
+                    }
+                });
+            }
+
             frame.setSize(1000, 700);
             frame.setLocationRelativeTo(null);
             frame.setVisible(true);
         });
     }
 
+    // Diretório configurável com -Dfigureeditor.journal=<dir>
+    private static SceneJournal openJournal(JFrame frame, DrawingPanel drawingPanel) {
+        String configured = System.getProperty("figureeditor.journal");
+        Path dir = configured != null
+                ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".figureeditor", "journal");
+        try {
+            return SceneJournal.open(dir, drawingPanel);
+        } catch (IOException | RuntimeException e) {
+            JOptionPane.showMessageDialog(frame, "Não foi possível abrir o journal de recuperação: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static CollabServer startRelay() {
+        String configured = System.getProperty("figureeditor.collab.server");
+        if (configured == null || configured.isBlank()) return null;
+        try {
+            return CollabServer.start("localhost", Integer.parseInt(configured.trim()));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Não foi possível iniciar o relay de colaboração: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Sem -Dfigureeditor.collab, conecta ao relay deste processo (se houver). Os ids das
+    // figuras na colaboração ficam junto do journal, para reconectar sem duplicá-las.
+    // A conexão (com timeout) roda num SwingWorker; a cena do relay é aplicada no EDT
+    private static void openCollab(JFrame frame, DrawingPanel drawingPanel, CollabServer relay,
+                                   SceneJournal journal) {
+        String configured = System.getProperty("figureeditor.collab");
+        if (configured == null || configured.isBlank()) {
+            if (relay == null) return;
+            configured = "localhost:" + relay.getPort();
+        }
+        String host;
+        int port;
+        try {
+            int colon = configured.lastIndexOf(':');
+            host = colon > 0 ? configured.substring(0, colon) : configured;
+            port = colon > 0 ? Integer.parseInt(configured.substring(colon + 1)) : CollabServer.DEFAULT_PORT;
+        } catch (RuntimeException e) {
+            JOptionPane.showMessageDialog(frame, "Não foi possível conectar à colaboração: " + e.getMessage());
+            return;
+        }
+        Path identity = journal != null ? journal.getDirectory().resolve("collab-ids") : null;
+        String title = frame.getTitle();
+        frame.setTitle(title + " — conectando à colaboração…");
+        new SwingWorker<CollabClient.Connection, Void>() {
+            @Override
+            protected CollabClient.Connection doInBackground() throws IOException {
+                return CollabClient.connect(host, port);
+            }
+
+            @Override
+            protected void done() {
+                frame.setTitle(title);
+                try {
+                    CollabClient.Connection connection = get();
+                    if (!frame.isDisplayable()) {
+                        connection.close();
+                        return;
+                    }
+                    CollabClient collab = CollabClient.open(connection, drawingPanel, identity);
+                    frame.setTitle(title + " — colaboração #" + collab.getClientId());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | IOException | RuntimeException e) {
+                    Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(frame, "Não foi possível conectar à colaboração: " + cause.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    // Período configurável com -Dfigureeditor.metrics.period=<segundos> (padrão 10)
+    private static MetricsDump startMetricsDump(DrawingPanel drawingPanel) {
+        String configured = System.getProperty("figureeditor.metrics");
+        if (configured == null || configured.isBlank()) return null;
+        try {
+            long period = Long.parseLong(System.getProperty("figureeditor.metrics.period", "10"));
+            return MetricsDump.start(drawingPanel.getMetrics(), Paths.get(configured), period * 1000);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Não foi possível iniciar o dump de métricas: " + e.getMessage());
+            return null;
+        }
+    }
+
     private static JToolBar createToolbar(DrawingPanel drawingPanel) {
         JToolBar toolbar = new JToolBar();
         toolbar.setFloatable(false);
@@ -49,6 +210,10 @@ public class App {
             }
         });
 
+        // Aplica a cor atual a todas as figuras selecionadas (um único undo)
+        JButton recolorButton = new JButton("Colorir Seleção");
+        recolorButton.addActionListener(e -> drawingPanel.recolorSelection(drawingPanel.getCurrentColor()));
+
         // Botão limpar
         JButton clearButton = new JButton("Limpar Tudo");
         clearButton.addActionListener(e -> drawingPanel.clear());
@@ -60,6 +225,15 @@ public class App {
         JButton rectangleButton = new JButton("Retângulo");
         rectangleButton.addActionListener(e -> drawingPanel.setShapeType(ShapeType.RECTANGLE));
 
+        JButton triangleButton = new JButton("Triângulo");
+        triangleButton.addActionListener(e -> drawingPanel.setShapeType(ShapeType.TRIANGLE));
+
+        JButton diamondButton = new JButton("Losango");
+        diamondButton.addActionListener(e -> drawingPanel.setShapeType(ShapeType.DIAMOND));
+
+        JButton hexagonButton = new JButton("Hexágono");
+        hexagonButton.addActionListener(e -> drawingPanel.setShapeType(ShapeType.HEXAGON));
+
         // Botões de undo/redo
         JButton undoButton = new JButton("Desfazer");
         undoButton.addActionListener(e -> drawingPanel.undo());
@@ -67,21 +241,63 @@ public class App {
         JButton redoButton = new JButton("Refazer");
         redoButton.addActionListener(e -> drawingPanel.redo());
 
+        // Botões de arquivo
+        JButton openButton = new JButton("Abrir");
+        openButton.addActionListener(e -> drawingPanel.openDocument());
+
+        JButton saveButton = new JButton("Salvar");
+        saveButton.addActionListener(e -> drawingPanel.saveDocument());
+
+        // Figuras em massa a partir de CSV ou JSON Lines
+        JButton importButton = new JButton("Importar");
+        importButton.addActionListener(e -> drawingPanel.importFigures());
+
         // Botão exportar
         JButton exportButton = new JButton("Exportar PNG");
         exportButton.addActionListener(e -> drawingPanel.exportToPNG());
 
+        JButton exportSvgButton = new JButton("Exportar SVG");
+        exportSvgButton.addActionListener(e -> drawingPanel.exportToSVG());
+
+        // Desenho em thread separada: o EDT só copia o último quadro pronto
+        JCheckBox renderThreadBox = new JCheckBox("Desenhar em segundo plano");
+        renderThreadBox.setSelected(drawingPanel.isRenderThreadEnabled());
+        renderThreadBox.addActionListener(e -> drawingPanel.setRenderThreadEnabled(renderThreadBox.isSelected()));
+
+        // Spans escritos direto nos pixels, sem o pipeline geral do Java2D
+        JCheckBox directRasterBox = new JCheckBox("Rasterizador direto");
+        directRasterBox.setSelected(drawingPanel.isDirectRasterEnabled());
+        directRasterBox.addActionListener(e -> drawingPanel.setDirectRasterEnabled(directRasterBox.isSelected()));
+
+        // Painel de métricas sobre o desenho (também com F3)
+        JCheckBox hudBox = new JCheckBox("Métricas (F3)");
+        hudBox.setSelected(drawingPanel.isHudVisible());
+        hudBox.addActionListener(e -> drawingPanel.setHudVisible(hudBox.isSelected()));
+        drawingPanel.addPropertyChangeListener("hudVisible", e -> hudBox.setSelected(drawingPanel.isHudVisible()));
+
         toolbar.add(colorButton);
+        toolbar.add(recolorButton);
         toolbar.addSeparator();
         toolbar.add(circleButton);
         toolbar.add(rectangleButton);
+        toolbar.add(triangleButton);
+        toolbar.add(diamondButton);
+        toolbar.add(hexagonButton);
         toolbar.addSeparator();
         toolbar.add(clearButton);
         toolbar.addSeparator();
         toolbar.add(undoButton);
         toolbar.add(redoButton);
         toolbar.addSeparator();
+        toolbar.add(openButton);
+        toolbar.add(saveButton);
+        toolbar.add(importButton);
         toolbar.add(exportButton);
+        toolbar.add(exportSvgButton);
+        toolbar.addSeparator();
+        toolbar.add(renderThreadBox);
+        toolbar.add(directRasterBox);
+        toolbar.add(hudBox);
 
         return toolbar;
     }
@@ -0,0 +1,161 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Modo batch sem interface: renderiza documentos .fged para PNG em paralelo.
+//
+//   mvn -q compile exec:java -Dexec.mainClass=br.com.mariojp.figureeditor.BatchRender \
+//       -Dexec.args="--out imagens --scale 2 desenhos/"
+//
+// Leitura, codificação e escrita rodam em virtual threads (uma por documento); o
+// desenho, que usa CPU, vai para um pool limitado. Cada documento sai pelo
+// TiledPngExporter, em faixas: a memória de um documento depende da largura da
+// imagem, não da altura. Um semáforo limita quantos documentos ficam carregados ao
+// mesmo tempo.
+public class BatchRender {
+    private static final String USAGE =
+            "Uso: BatchRender [--out <dir>] [--scale <s>] [--threads <n>] <arquivo.fged | dir>...";
+
+    private final Path outputDir;
+    private final double scale;
+    private final ExecutorService renderPool;
+    private final TiledPngExporter exporter;
+    private final Semaphore inFlight;
+
+    BatchRender(Path outputDir, double scale, int threads) {
+        this.outputDir = outputDir;
+        this.scale = scale;
+        this.renderPool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-render");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.exporter = new TiledPngExporter(TiledPngExporter.DEFAULT_TILE_SIZE, renderPool);
+        this.inFlight = new Semaphore(2 * threads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        Path outputDir = Paths.get(".");
+        double scale = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out" -> outputDir = Paths.get(value(args, ++i));
+                    case "--scale" -> scale = Double.parseDouble(value(args, ++i));
+                    case "--threads" -> threads = Integer.parseInt(value(args, ++i));
+                    default -> collect(Paths.get(args[i]), inputs);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Inclui NumberFormatException de --scale e --threads
+            System.err.println(e.getMessage());
+            inputs.clear();
+        }
+        if (inputs.isEmpty() || !(scale > 0) || threads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        Files.createDirectories(outputDir);
+
+        BatchRender batch = new BatchRender(outputDir, scale, threads);
+        int failures = batch.run(inputs);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Valor da opção em args[i] (a opção está em args[i - 1])
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta o valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    // Devolve o número de documentos que falharam
+    int run(List<Path> inputs) {
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.nanoTime();
+        System.out.printf("%-40s %9s %9s %9s %9s%n",
+                "documento", "figuras", "leitura", "png", "total");
+        try (ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path input : inputs) {
+                io.submit(() -> {
+                    if (!renderJob(input)) failures.incrementAndGet();
+                });
+            }
+        } finally {
+            renderPool.shutdown();
+        }
+        System.out.printf("%d documentos, %d falhas, %.1f ms%n",
+                inputs.size(), failures.get(), (System.nanoTime() - start) / 1e6);
+        return failures.get();
+    }
+
+    private boolean renderJob(Path input) {
+        String name = input.getFileName().toString();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            long t0 = System.nanoTime();
+            SceneSnapshot scene = FigureDocument.open(input).toSnapshot();
+            long t1 = System.nanoTime();
+            // Desenho (no pool) e escrita por faixas, sem a imagem inteira na memória
+            Path output = outputDir.resolve(name.replaceFirst("\\.fged$", "") + ".png");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+                exporter.export(scene, region(scene), scale, (int) Math.round(DrawingPanel.EXPORT_BASE_DPI * scale),
+                        Color.WHITE, out, null);
+            }
+            long t2 = System.nanoTime();
+            System.out.printf("%-40s %9d %7.1fms %7.1fms %7.1fms%n", name, scene.size(),
+                    (t1 - t0) / 1e6, (t2 - t1) / 1e6, (t2 - t0) / 1e6);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.printf("%-40s erro: %s%n", name, e.getMessage());
+            return false;
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    // Limites das figuras com folga para a borda; documento vazio vira 1x1
+    private static Rectangle2D region(SceneSnapshot scene) {
+        if (scene.size() == 0) {
+            return new Rectangle2D.Double(0, 0, 1, 1);
+        }
+        Rectangle2D bounds = scene.bounds();
+        double margin = DrawingPanel.PAINT_MARGIN;
+        return new Rectangle2D.Double(bounds.getX() - margin, bounds.getY() - margin,
+                bounds.getWidth() + 2 * margin, bounds.getHeight() + 2 * margin);
+    }
+
+    private static void collect(Path path, List<Path> inputs) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.fged")) {
+                for (Path file : files) inputs.add(file);
+            }
+        } else {
+            inputs.add(path);
+        }
+    }
+}
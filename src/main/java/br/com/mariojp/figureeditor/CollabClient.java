@@ -0,0 +1,665 @@
+package br.com.mariojp.figureeditor;
+
+import javax.swing.*;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Colaboração ao vivo: as operações do painel vão para o CollabServer e as dos outros
+// editores voltam e são aplicadas aqui.
+//
+// Como no SceneJournal, cada operação direta do painel vira um registro de efeito e os
+// efeitos de um comando (ou de um evento do EDT, como um passo do arraste) saem como um
+// quadro só. O quadro leva um carimbo de Lamport (relógio << 16 | id do cliente), único
+// e com ordem total entre clientes. As figuras são identificadas por um id global que
+// não muda numa reconexão (ver CollabIdentity).
+//
+// Ao conectar o relay manda a cena compactada, que é aplicada antes de qualquer envio;
+// só as figuras que o relay ainda não conhece são compartilhadas.
+//
+// Conflitos: presença, posição e cor de cada figura guardam o carimbo da última escrita
+// e um registro só vale se for mais novo (o último a escrever vence). Por isso o
+// movimento vai como posição absoluta, e não como deslocamento: dois arrastes
+// simultâneos da mesma figura terminam no mesmo lugar em todos os editores.
+//
+// Rede: um SocketChannel não bloqueante com Selector numa thread própria. Os quadros
+// recebidos são juntados e aplicados em uma única tarefa do EDT, com uma repintura e
+// uma versão publicada por lote.
+//
+// Quadro: tamanho (int), carimbo (long) e registros, em little-endian.
+class CollabClient implements CommandListener, Closeable {
+    // Os ids dos clientes ocupam os 16 bits baixos do carimbo
+    static final int MAX_CLIENT_ID = 0xFFFF;
+
+    private static final byte OP_HELLO = 0;
+    static final byte OP_ADD = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_MOVE = 3;
+    static final byte OP_COLOR = 4;
+    // Estado completo de uma figura, mandado pelo relay a quem conecta
+    private static final byte OP_STATE = 5;
+
+    private static final int FRAME_HEADER = 4 + 8;
+    // HELLO: id do cliente e tamanho da cena que vem logo depois; o carimbo é o maior
+    // que o relay já viu (o id pode ter sido de outro cliente, que já saiu)
+    private static final int HELLO_BYTES = FRAME_HEADER + 1 + 4 + 4;
+    private static final int ADD_BYTES = 1 + 8 + 1 + 4 * 8 + 4;
+    private static final int MOVE_BYTES = 1 + 8 + 2 * 8;
+    private static final int REMOVE_BYTES = 1 + 8;
+    private static final int COLOR_BYTES = 1 + 8 + 4;
+    static final int STATE_BYTES = ADD_BYTES + 1 + 3 * 8;
+    private static final int READ_BUFFER = 64 * 1024;
+    // Limite para conectar e para cada leitura do HELLO e da cena
+    static final int CONNECT_TIMEOUT_MS = 10_000;
+
+    private final DrawingPanel panel;
+    private final FigureStore store;
+    private final CommandManager manager;
+    private final int clientId;
+    private final CollabIdentity identity;
+
+    // Estado das figuras e efeitos locais ainda não enviados (só o EDT mexe)
+    private long clock;
+    private final Map<Long, Replica> replicas = new HashMap<>();
+    private final Map<FigureShape, Replica> byShape = new HashMap<>();
+    private ByteBuffer tx = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    // Carimbo do quadro em montagem; 0 = nenhum
+    private long pendingStamp;
+    // Posições são gravadas no envio, uma vez por figura, com o valor final
+    private final List<Replica> moved = new ArrayList<>();
+    private boolean flushScheduled;
+    private final Runnable flushTask = this::scheduledFlush;
+    // Aplicando quadros remotos: os efeitos não voltam para o relay
+    private boolean applying;
+
+    // Rede
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final Thread thread;
+    private ByteBuffer in;
+    private final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+    private final Runnable applyTask = this::applyRemote;
+    private volatile boolean closed;
+
+    // Figura compartilhada: a visão local e o carimbo da última escrita de cada campo
+    private static final class Replica {
+        final long id;
+        final FigureShape shape;
+        long present, position, color;
+        boolean moved;
+
+        Replica(long id, FigureShape shape) {
+            this.id = id;
+            this.shape = shape;
+        }
+    }
+
+    private CollabClient(DrawingPanel panel, SocketChannel channel, Selector selector, int clientId,
+                         CollabIdentity identity, ByteBuffer in) {
+        this.panel = panel;
+        this.store = panel.getStore();
+        this.manager = panel.getCommandManager();
+        this.channel = channel;
+        this.selector = selector;
+        this.clientId = clientId;
+        this.identity = identity;
+        this.in = in;
+        this.thread = new Thread(this::networkLoop, "collab-client");
+        this.thread.setDaemon(true);
+    }
+
+    // Conexão com o relay já com o HELLO e a cena dele lidos, ainda sem painel: a parte
+    // que espera pela rede, feita fora do EDT (ver connect e open)
+    static final class Connection implements Closeable {
+        private final SocketChannel channel;
+        private final int clientId;
+        private final long lastStamp;
+        private final ByteBuffer in;
+
+        private Connection(SocketChannel channel, int clientId, long lastStamp, ByteBuffer in) {
+            this.channel = channel;
+            this.clientId = clientId;
+            this.lastStamp = lastStamp;
+            this.in = in;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Conecta ao relay e lê o HELLO e a cena, com CONNECT_TIMEOUT_MS para conectar e para
+    // cada leitura. Bloqueia: chamar fora do EDT
+    public static Connection connect(String host, int port) throws IOException {
+        return connect(host, port, CONNECT_TIMEOUT_MS);
+    }
+
+    static Connection connect(String host, int port, int timeoutMs) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(host, port), timeoutMs);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.socket().setSoTimeout(timeoutMs);
+            // O HELLO e a cena são lidos ainda em modo bloqueante, pelo stream do socket
+            // (a leitura direta do canal não respeita o timeout)
+            InputStream stream = channel.socket().getInputStream();
+            ByteBuffer in = ByteBuffer.allocate(READ_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            readAtLeast(stream, in, HELLO_BYTES);
+            if (in.getInt(0) != HELLO_BYTES - 4 || in.get(FRAME_HEADER) != OP_HELLO) {
+                throw new IOException("Resposta inesperada do relay");
+            }
+            long lastStamp = in.getLong(4);
+            int clientId = in.getInt(FRAME_HEADER + 1);
+            int sceneBytes = in.getInt(FRAME_HEADER + 5);
+            if (sceneBytes < 0) throw new IOException("Resposta inesperada do relay");
+            if (in.capacity() < HELLO_BYTES + sceneBytes) {
+                ByteBuffer grown = ByteBuffer.allocate(HELLO_BYTES + sceneBytes).order(ByteOrder.LITTLE_ENDIAN);
+                in = grown.put(in.flip());
+            }
+            readAtLeast(stream, in, HELLO_BYTES + sceneBytes);
+            in.flip().position(HELLO_BYTES);
+            in.compact();
+            return new Connection(channel, clientId, lastStamp, in);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Conecta ao relay sem guardar identidade: as figuras desta cena viram figuras novas
+    // a cada conexão
+    public static CollabClient open(String host, int port, DrawingPanel panel) throws IOException {
+        return open(host, port, panel, null);
+    }
+
+    // connect e open numa chamada só; espera pela rede no EDT (testes e ferramentas)
+    public static CollabClient open(String host, int port, DrawingPanel panel, Path identityFile) throws IOException {
+        return open(connect(host, port), panel, identityFile);
+    }
+
+    // Aplica a cena do relay recebida em connect, envia as figuras que ele não conhece e
+    // passa a sincronizar. identityFile guarda os ids globais entre conexões (ver
+    // CollabIdentity). Chamar no EDT; fecha a conexão se falhar.
+    public static CollabClient open(Connection connection, DrawingPanel panel, Path identityFile) throws IOException {
+        SocketChannel channel = connection.channel;
+        Selector selector = null;
+        CollabIdentity identity = null;
+        CollabClient client = null;
+        try {
+            identity = CollabIdentity.open(identityFile, panel.getStore());
+            channel.configureBlocking(false);
+            selector = Selector.open();
+
+            client = new CollabClient(panel, channel, selector, connection.clientId, identity, connection.in);
+            client.clock = connection.lastStamp >>> 16;
+            panel.setCollab(client);
+            panel.getCommandManager().addListener(client);
+            // Figuras que já estavam na colaboração antes retomam o id global delas, e a
+            // cena do relay decide o estado de cada uma
+            for (FigureShape shape : panel.getStore().liveFigures()) {
+                client.local(shape);
+            }
+            client.receive();
+            client.applyRemote();
+            client.thread.start();
+            client.shareScene();
+            return client;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (selector != null) selector.close();
+            if (client != null) {
+                client.detach();
+            } else if (identity != null) {
+                identity.close();
+            }
+            throw e;
+        }
+    }
+
+    private static void readAtLeast(InputStream stream, ByteBuffer in, int bytes) throws IOException {
+        while (in.position() < bytes) {
+            int n = stream.read(in.array(), in.position(), in.capacity() - in.position());
+            if (n < 0) throw new EOFException("Relay fechou a conexão");
+            in.position(in.position() + n);
+        }
+    }
+
+    // Quadro HELLO que o relay manda a quem conecta, antes de sceneBytes bytes de cena
+    static ByteBuffer hello(int clientId, long lastStamp, int sceneBytes) {
+        ByteBuffer hello = ByteBuffer.allocate(HELLO_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        hello.putInt(HELLO_BYTES - 4).putLong(lastStamp).put(OP_HELLO).putInt(clientId).putInt(sceneBytes);
+        return hello.flip();
+    }
+
+    public int getClientId() { return clientId; }
+
+    // Registro STATE (usado pelo relay para mandar a cena compactada)
+    static void putState(ByteBuffer out, long id, int type, double x, double y, double w, double h, int argb,
+                         boolean present, long presentStamp, long positionStamp, long colorStamp) {
+        out.put(OP_STATE).putLong(id).put((byte) type).putDouble(x).putDouble(y).putDouble(w).putDouble(h)
+                .putInt(argb).put((byte) (present ? 1 : 0))
+                .putLong(presentStamp).putLong(positionStamp).putLong(colorStamp);
+    }
+
+    // Confere um quadro (carimbo e registros, sem o tamanho) em payload[from, to): registros
+    // conhecidos, completos, com tipo de figura válido e geometria finita dentro de
+    // FigureGeometry.MAX_COORDINATE; STATE só vale vindo do relay.
+    // Devolve null se estiver certo ou o motivo do erro
+    static String checkFrame(ByteBuffer payload, int from, int to, boolean fromRelay) {
+        if (to - from < 8) return "quadro sem carimbo";
+        if (payload.getLong(from) == 0) return "carimbo vazio";
+        int at = from + 8;
+        while (at < to) {
+            byte op = payload.get(at);
+            int bytes = switch (op) {
+                case OP_ADD -> ADD_BYTES;
+                case OP_REMOVE -> REMOVE_BYTES;
+                case OP_MOVE -> MOVE_BYTES;
+                case OP_COLOR -> COLOR_BYTES;
+                case OP_STATE -> fromRelay ? STATE_BYTES : -1;
+                default -> -1;
+            };
+            if (bytes < 0) return "registro desconhecido " + op;
+            if (to - at < bytes) return "registro incompleto " + op;
+            if (op == OP_ADD || op == OP_STATE) {
+                int type = payload.get(at + 9);
+                if (type < 0 || type >= ShapeType.COUNT) return "tipo de figura inválido " + type;
+                if (!FigureGeometry.isValidBox(payload.getDouble(at + 10), payload.getDouble(at + 18),
+                        payload.getDouble(at + 26), payload.getDouble(at + 34))) {
+                    return "geometria inválida " + op;
+                }
+            } else if (op == OP_MOVE
+                    && !FigureGeometry.isValidBox(payload.getDouble(at + 9), payload.getDouble(at + 17), 0, 0)) {
+                return "posição inválida";
+            }
+            at += bytes;
+        }
+        return null;
+    }
+
+    // Envia o que falta e desconecta
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        flush();
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        detach();
+    }
+
+    private void detach() {
+        manager.removeListener(this);
+        panel.setCollab(null);
+        try {
+            identity.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar a identidade de colaboração: " + e.getMessage());
+        }
+    }
+
+    // Efeitos registrados pelo DrawingPanel
+
+    void figureAdded(FigureShape shape) {
+        if (applying || closed) return;
+        Replica replica = local(shape);
+        long stamp = begin();
+        replica.present = replica.position = replica.color = stamp;
+        ensure(ADD_BYTES);
+        tx.put(OP_ADD).putLong(replica.id).put((byte) shape.getType().ordinal())
+                .putDouble(shape.getX()).putDouble(shape.getY())
+                .putDouble(shape.getWidth()).putDouble(shape.getHeight())
+                .putInt(shape.getArgb());
+    }
+
+    void figureRemoved(FigureShape shape) {
+        if (applying || closed) return;
+        Replica replica = local(shape);
+        replica.present = begin();
+        ensure(REMOVE_BYTES);
+        tx.put(OP_REMOVE).putLong(replica.id);
+    }
+
+    void figureMoved(FigureShape shape) {
+        if (applying || closed) return;
+        Replica replica = local(shape);
+        replica.position = begin();
+        if (!replica.moved) {
+            replica.moved = true;
+            moved.add(replica);
+        }
+    }
+
+    void figuresMoved(FigureShape[] shapes) {
+        for (FigureShape shape : shapes) {
+            figureMoved(shape);
+        }
+    }
+
+    void figureRecolored(FigureShape shape) {
+        if (applying || closed) return;
+        Replica replica = local(shape);
+        replica.color = begin();
+        ensure(COLOR_BYTES);
+        tx.put(OP_COLOR).putLong(replica.id).putInt(shape.getArgb());
+    }
+
+    // Chamado antes de a cena ser limpa: vira uma remoção por figura, para não apagar
+    // figuras que outro editor adicionou e este ainda não viu
+    void sceneClearing() {
+        if (applying || closed) return;
+        for (FigureShape shape : store.liveFigures()) {
+            figureRemoved(shape);
+        }
+    }
+
+    void figuresRestored(FigureShape[] shapes) {
+        for (FigureShape shape : shapes) {
+            figureAdded(shape);
+        }
+    }
+
+    // Fronteiras de comando vindas do CommandManager
+
+    @Override
+    public void commandExecuted(Command command) { flushOutsideBatch(); }
+
+    @Override
+    public void commandUndone(Command command) { flushOutsideBatch(); }
+
+    @Override
+    public void commandRedone(Command command) { flushOutsideBatch(); }
+
+    @Override
+    public void batchEnded() { flushOutsideBatch(); }
+
+    // Efeitos fora de comando (ex.: o arraste) saem ao fim do evento do EDT
+    private void scheduledFlush() {
+        flushScheduled = false;
+        flushOutsideBatch();
+    }
+
+    private void flushOutsideBatch() {
+        if (!manager.isInBatch()) flush();
+    }
+
+    // Figuras que já estavam na cena ao conectar
+    // Só o que o relay não conhece: as outras já vieram na cena dele
+    private void shareScene() {
+        for (FigureShape shape : store.liveFigures()) {
+            if (local(shape).present == 0) figureAdded(shape);
+        }
+        flush();
+    }
+
+    private Replica local(FigureShape shape) {
+        Replica replica = byShape.get(shape);
+        if (replica == null) {
+            replica = track(identity.idOf(shape), shape);
+        }
+        return replica;
+    }
+
+    // Figura criada a partir de outro editor: o id global fica guardado para a reconexão
+    private Replica remote(long id, ShapeType type, double x, double y, double w, double h, int argb) {
+        FigureShape shape = new FigureShape(store, type, x, y, w, h, argb);
+        identity.remember(shape, id);
+        return track(id, shape);
+    }
+
+    private Replica track(long id, FigureShape shape) {
+        Replica replica = new Replica(id, shape);
+        replicas.put(id, replica);
+        byShape.put(shape, replica);
+        return replica;
+    }
+
+    // Carimbo do quadro em montagem, aberto no primeiro efeito
+    private long begin() {
+        if (pendingStamp == 0) {
+            pendingStamp = (++clock << 16) | clientId;
+            tx.clear();
+            tx.putInt(0).putLong(pendingStamp);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                SwingUtilities.invokeLater(flushTask);
+            }
+        }
+        return pendingStamp;
+    }
+
+    private void flush() {
+        if (pendingStamp == 0 || closed) return;
+        for (int i = 0, n = moved.size(); i < n; i++) {
+            Replica replica = moved.get(i);
+            replica.moved = false;
+            if (replica.shape.slot < 0) continue;
+            ensure(MOVE_BYTES);
+            tx.put(OP_MOVE).putLong(replica.id)
+                    .putDouble(replica.shape.getX()).putDouble(replica.shape.getY());
+        }
+        moved.clear();
+        tx.putInt(0, tx.position() - 4);
+        outbox.add(ByteBuffer.wrap(Arrays.copyOf(tx.array(), tx.position())));
+        pendingStamp = 0;
+        selector.wakeup();
+    }
+
+    private void ensure(int bytes) {
+        if (tx.remaining() >= bytes) return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(tx.capacity() * 2, tx.position() + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        grown.put(tx.flip());
+        tx = grown;
+    }
+
+    // Quadros remotos, aplicados no EDT em lote
+
+    private void applyRemote() {
+        applyScheduled.set(false);
+        if (closed || inbox.isEmpty()) return;
+        applying = true;
+        panel.beginUpdate();
+        try {
+            ByteBuffer frame;
+            while ((frame = inbox.poll()) != null) {
+                // Quadro que esta versão não entende é ignorado inteiro, sem aplicar metade
+                String error = checkFrame(frame, 0, frame.limit(), true);
+                if (error != null) {
+                    System.err.println("Quadro de colaboração ignorado: " + error);
+                    continue;
+                }
+                apply(frame);
+            }
+        } finally {
+            panel.endUpdate();
+            applying = false;
+        }
+        // Ids das figuras novas gravados antes de o journal registrá-las
+        identity.sync();
+        panel.remoteApplied();
+    }
+
+    private void apply(ByteBuffer frame) {
+        long stamp = frame.getLong();
+        clock = Math.max(clock, stamp >>> 16);
+        while (frame.hasRemaining()) {
+            byte op = frame.get();
+            long id = frame.getLong();
+            Replica replica = replicas.get(id);
+            if (replica != null && replica.shape.slot < 0) {
+                // Linha reciclada (saiu do histórico ou outro desenho foi aberto)
+                replicas.remove(id);
+                byShape.remove(replica.shape);
+                identity.forget(replica.shape);
+                replica = null;
+            }
+            switch (op) {
+                case OP_ADD -> {
+                    ShapeType type = ShapeType.fromOrdinal(frame.get());
+                    double x = frame.getDouble(), y = frame.getDouble(), w = frame.getDouble(), h = frame.getDouble();
+                    int argb = frame.getInt();
+                    if (replica == null) replica = remote(id, type, x, y, w, h, argb);
+                    setPresent(replica, stamp, true);
+                    setPosition(replica, stamp, x, y);
+                    setColor(replica, stamp, argb);
+                }
+                case OP_REMOVE -> {
+                    if (replica != null) setPresent(replica, stamp, false);
+                }
+                case OP_MOVE -> {
+                    double x = frame.getDouble(), y = frame.getDouble();
+                    if (replica != null) setPosition(replica, stamp, x, y);
+                }
+                case OP_COLOR -> {
+                    int argb = frame.getInt();
+                    if (replica != null) setColor(replica, stamp, argb);
+                }
+                case OP_STATE -> {
+                    ShapeType type = ShapeType.fromOrdinal(frame.get());
+                    double x = frame.getDouble(), y = frame.getDouble(), w = frame.getDouble(), h = frame.getDouble();
+                    int argb = frame.getInt();
+                    boolean present = frame.get() != 0;
+                    long presentStamp = frame.getLong(), positionStamp = frame.getLong(), colorStamp = frame.getLong();
+                    if (replica == null) {
+                        // Figura removida que este editor nunca viu: nada a fazer
+                        if (!present) continue;
+                        replica = remote(id, type, x, y, w, h, argb);
+                    }
+                    setPresent(replica, presentStamp, present);
+                    setPosition(replica, positionStamp, x, y);
+                    setColor(replica, colorStamp, argb);
+                }
+                default -> {
+                    // checkFrame já recusa registros desconhecidos
+                    return;
+                }
+            }
+        }
+    }
+
+    // Cada campo só muda com um carimbo mais novo que o da última escrita
+
+    private void setPresent(Replica replica, long stamp, boolean present) {
+        if (stamp <= replica.present) return;
+        replica.present = stamp;
+        if (present) {
+            panel.addShapeDirectly(replica.shape);
+        } else {
+            panel.removeShapeDirectly(replica.shape);
+        }
+    }
+
+    private void setPosition(Replica replica, long stamp, double x, double y) {
+        if (stamp <= replica.position) return;
+        replica.position = stamp;
+        moveTo(replica.shape, x, y);
+    }
+
+    private void setColor(Replica replica, long stamp, int argb) {
+        if (stamp <= replica.color) return;
+        replica.color = stamp;
+        recolor(replica.shape, argb);
+    }
+
+    private void moveTo(FigureShape shape, double x, double y) {
+        double dx = x - shape.getX(), dy = y - shape.getY();
+        if (dx != 0 || dy != 0) panel.translateShapeDirectly(shape, dx, dy);
+    }
+
+    private void recolor(FigureShape shape, int argb) {
+        if (shape.getArgb() != argb) panel.recolorShapeDirectly(shape, RenderStyles.color(argb));
+    }
+
+    // Thread de rede: envia os quadros locais e separa os recebidos
+
+    private void networkLoop() {
+        ByteBuffer out = ByteBuffer.allocate(READ_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            while (true) {
+                selector.select();
+                boolean readable = selector.selectedKeys().remove(key) && key.isReadable();
+                ByteBuffer frame;
+                while ((frame = outbox.poll()) != null) {
+                    if (out.remaining() < frame.remaining()) {
+                        ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + frame.remaining()));
+                        out = grown.put(out.flip());
+                    }
+                    out.put(frame);
+                }
+                if (out.position() > 0) {
+                    channel.write(out.flip());
+                    out.compact();
+                }
+                if (closed) break;
+                key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                if (readable) {
+                    if (channel.read(in) < 0) throw new EOFException("Relay fechou a conexão");
+                    receive();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                closed = true;
+                System.err.println("Colaboração desconectada: " + e.getMessage());
+                SwingUtilities.invokeLater(this::detach);
+            }
+        } finally {
+            try {
+                channel.close();
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // Separa os quadros completos em 'in' e agenda uma aplicação no EDT
+    private void receive() throws IOException {
+        int at = 0;
+        boolean received = false;
+        while (in.position() - at >= 4) {
+            int length = in.getInt(at);
+            if (length < 8 || length > CollabServer.MAX_FRAME) {
+                throw new IOException("Quadro inválido do relay");
+            }
+            if (in.position() - at - 4 < length) break;
+            inbox.add(ByteBuffer.wrap(Arrays.copyOfRange(in.array(), at + 4, at + 4 + length))
+                    .order(ByteOrder.LITTLE_ENDIAN));
+            at += 4 + length;
+            received = true;
+        }
+        in.flip().position(at);
+        in.compact();
+        if (in.position() >= 4 && !in.hasRemaining()) {
+            int needed = 4 + in.getInt(0);
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, in.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+            in = grown.put(in.flip());
+        }
+        if (received && applyScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(applyTask);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package br.com.mariojp.figureeditor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Identidade das figuras na colaboração, guardada ao lado do journal para sobreviver a
+// uma reconexão ou a um reinício do editor.
+//
+// Cada editor tem um id de site aleatório de 32 bits e as figuras criadas aqui têm id
+// global site << 32 | id local. As que vieram de outro editor guardam o id global
+// original num registro (id local -> id global).
+//
+// Piso de ids: um id local só vira id global depois de ficar abaixo do piso gravado, e
+// ao abrir os ids novos começam no piso. Assim um id que já foi para o relay não é
+// reusado por outra figura mesmo que o journal tenha perdido o fim antes da queda.
+//
+// Arquivo: site (int), piso (int) e registros (id local int, id global long), em
+// little-endian. Ao abrir é reescrito só com as figuras vivas.
+final class CollabIdentity implements Closeable {
+    private static final int HEADER_BYTES = 4 + 4;
+    private static final int RECORD_BYTES = 4 + 8;
+    // O piso sobe em passos para não gravar o cabeçalho a cada figura
+    private static final int FLOOR_STEP = 4096;
+
+    private final int site;
+    private final FileChannel channel;
+    private int floor;
+    // Depois de um erro de escrita deixa de gravar, como o journal
+    private boolean disabled;
+    // Ids globais das figuras vivas que vieram de outro editor
+    private final Map<FigureShape, Long> known = new IdentityHashMap<>();
+    private ByteBuffer pending = ByteBuffer.allocate(16 * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    private CollabIdentity(int site, int floor, FileChannel channel) {
+        this.site = site;
+        this.floor = floor;
+        this.channel = channel;
+    }
+
+    // Sem arquivo o site é novo a cada conexão e nada é gravado
+    static CollabIdentity open(Path file, FigureStore store) throws IOException {
+        if (file == null) return new CollabIdentity(new SecureRandom().nextInt(), 0, null);
+        int site;
+        int floor = 0;
+        Map<Integer, Long> records = new HashMap<>();
+        if (Files.exists(file)) {
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+            if (bytes.remaining() < HEADER_BYTES) throw new IOException("Identidade de colaboração corrompida: " + file);
+            site = bytes.getInt();
+            floor = bytes.getInt();
+            // Um registro cortado no fim (queda no meio da gravação) é descartado
+            while (bytes.remaining() >= RECORD_BYTES) {
+                records.put(bytes.getInt(), bytes.getLong());
+            }
+        } else {
+            site = new SecureRandom().nextInt();
+        }
+        store.reserveIds(floor);
+
+        Map<Integer, FigureShape> live = new HashMap<>();
+        for (FigureShape shape : store.liveFigures()) {
+            live.put(shape.getId(), shape);
+        }
+        // Reescreve compactado ao lado e troca de uma vez
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + records.size() * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(site).putInt(floor);
+        Map<FigureShape, Long> known = new IdentityHashMap<>();
+        for (Map.Entry<Integer, Long> record : records.entrySet()) {
+            FigureShape shape = live.get(record.getKey());
+            if (shape == null) continue;
+            known.put(shape, record.getValue());
+            out.putInt(record.getKey()).putLong(record.getValue());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.flip();
+            while (out.hasRemaining()) tempChannel.write(out);
+            tempChannel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        CollabIdentity identity = null;
+        try {
+            channel.position(channel.size());
+            identity = new CollabIdentity(site, floor, channel);
+            identity.known.putAll(known);
+            return identity;
+        } finally {
+            if (identity == null) channel.close();
+        }
+    }
+
+    // Id global de uma figura que ainda não está na colaboração: o que ela tinha antes de
+    // reconectar ou um novo, deste site
+    long idOf(FigureShape shape) {
+        Long id = known.get(shape);
+        if (id != null) return id;
+        raiseFloor(shape.getId());
+        return ((long) site << 32) | (shape.getId() & 0xFFFFFFFFL);
+    }
+
+    // Figura criada a partir de outro editor; gravado no próximo sync
+    void remember(FigureShape shape, long id) {
+        known.put(shape, id);
+        if (channel == null || disabled) return;
+        if (pending.remaining() < RECORD_BYTES) {
+            ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            pending = grown.put(pending.flip());
+        }
+        pending.putInt(shape.getId()).putLong(id);
+    }
+
+    void forget(FigureShape shape) {
+        known.remove(shape);
+    }
+
+    // Grava os registros pendentes; chamado antes de o journal registrar as figuras
+    void sync() {
+        if (channel == null || disabled || pending.position() == 0) return;
+        // O id local de uma figura remota também não pode voltar para outra figura
+        int maxId = 0;
+        for (int at = 0; at < pending.position(); at += RECORD_BYTES) {
+            maxId = Math.max(maxId, pending.getInt(at));
+        }
+        raiseFloor(maxId);
+        try {
+            pending.flip();
+            while (pending.hasRemaining()) channel.write(pending);
+            pending.clear();
+            channel.force(false);
+        } catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    private void raiseFloor(int id) {
+        if (channel == null || disabled || id < floor) return;
+        floor = id + FLOOR_STEP;
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(floor).flip();
+        try {
+            while (header.hasRemaining()) channel.write(header, 4 + header.position());
+            channel.force(false);
+        } catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    private void disable(IOException e) {
+        disabled = true;
+        System.err.println("Identidade de colaboração não será mais gravada: " + e.getMessage());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        sync();
+        channel.close();
+    }
+}
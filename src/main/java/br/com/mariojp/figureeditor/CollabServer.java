@@ -0,0 +1,425 @@
+package br.com.mariojp.figureeditor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Relay da colaboração: recebe os quadros de cada CollabClient e os repassa aos outros.
+//
+// Uma thread só, com um Selector e canais não bloqueantes. Os quadros lidos em uma volta
+// do select são juntados e vão para cada cliente em uma única escrita (sem o quadro do
+// próprio remetente). O relay não interpreta as operações: a ordem entre clientes é
+// resolvida por eles, pelos carimbos de Lamport (ver CollabClient).
+//
+// O relay também guarda a cena compactada: para cada figura, o último valor e o carimbo
+// de presença, posição e cor, pelas mesmas regras dos clientes. Quem entra recebe um id
+// (quadro HELLO, com o maior carimbo já visto) e essa cena em registros STATE, e chega
+// ao mesmo estado dos outros. Ids de quem saiu são reaproveitados: o relógio de quem
+// entra começa depois do carimbo do HELLO, e os carimbos continuam únicos.
+// A memória cresce com o número de figuras, não com o de operações; figuras removidas
+// ficam como marcas (sem isso, quem volta com uma cópia antiga a traria de volta).
+//
+// Rodar sozinho: java -cp ... br.com.mariojp.figureeditor.CollabServer [porta]
+class CollabServer implements Closeable {
+    static final int DEFAULT_PORT = 7341;
+    // Quadro maior que isso é tratado como protocolo inválido e derruba o cliente
+    static final int MAX_FRAME = 16 * 1024 * 1024;
+    private static final int READ_BUFFER = 64 * 1024;
+    // Bytes ainda não enviados que um cliente pode acumular (além da cena inicial);
+    // quem fica mais atrasado que isso é desconectado e volta pela cena compactada
+    static final int MAX_BACKLOG = 32 * 1024 * 1024;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final List<Peer> peers = new ArrayList<>();
+    private final long maxBacklog;
+    // Ids em uso; o de quem sai volta para o próximo a entrar
+    private final BitSet clientIds = new BitSet();
+    private volatile boolean closed;
+
+    // Registros STATE por quadro mandado a quem entra
+    private static final int STATES_PER_FRAME = 4096;
+
+    // Cena compactada e o maior carimbo já visto (só a thread do relay mexe)
+    private final Map<Long, Figure> scene = new HashMap<>();
+    private long lastStamp;
+    // Quadros da volta atual do select: bytes e, para cada um, remetente e posição
+    private ByteBuffer round = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<Peer> roundSenders = new ArrayList<>();
+    private int[] roundEnds = new int[64];
+
+    private CollabServer(Selector selector, ServerSocketChannel server, long maxBacklog) {
+        this.selector = selector;
+        this.server = server;
+        this.maxBacklog = maxBacklog;
+        this.thread = new Thread(this::selectLoop, "collab-relay");
+        this.thread.setDaemon(true);
+    }
+
+    // Escuta em host:port (porta 0 = qualquer uma livre, ver getPort)
+    public static CollabServer start(String host, int port) throws IOException {
+        return start(host, port, MAX_BACKLOG);
+    }
+
+    // Com outro limite de backlog por cliente (ex.: testes)
+    static CollabServer start(String host, int port, long maxBacklog) throws IOException {
+        Selector selector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(host, port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        CollabServer relay = new CollabServer(selector, server, maxBacklog);
+        relay.thread.start();
+        return relay;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String host = args.length > 1 ? args[1] : "localhost";
+        CollabServer relay = start(host, port);
+        System.out.println("Relay de colaboração em " + host + ":" + relay.getPort());
+        relay.thread.join();
+    }
+
+    // Conexão de um cliente: bytes recebidos ainda sem quadro completo e bytes a enviar
+    private static final class Peer {
+        final SocketChannel channel;
+        final int id;
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = ByteBuffer.allocate(READ_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        SelectionKey key;
+        // Limite do backlog em 'out': o do relay mais a cena mandada ao entrar
+        long maxBacklog;
+
+        Peer(SocketChannel channel, int id) {
+            this.channel = channel;
+            this.id = id;
+        }
+    }
+
+    // Último valor de cada campo de uma figura e o carimbo da escrita
+    private static final class Figure {
+        byte type;
+        double x, y, width, height;
+        int argb;
+        boolean present;
+        long presentStamp, positionStamp, colorStamp;
+    }
+
+    private void selectLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Peer peer = (Peer) key.attachment();
+                    try {
+                        if (key.isReadable()) read(peer);
+                        if (key.isValid() && key.isWritable()) write(peer);
+                    } catch (IOException e) {
+                        drop(peer);
+                    }
+                }
+                broadcast();
+            }
+        } catch (IOException e) {
+            System.err.println("Relay de colaboração encerrado: " + e.getMessage());
+        } finally {
+            for (Peer peer : peers) {
+                closeQuietly(peer.channel);
+            }
+            peers.clear();
+            closeQuietly(server);
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            int id = clientIds.nextClearBit(1);
+            if (id > CollabClient.MAX_CLIENT_ID) {
+                // Os ids vão nos 16 bits baixos dos carimbos: não há como aceitar mais
+                closeQuietly(channel);
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            clientIds.set(id);
+            Peer peer = new Peer(channel, id);
+            peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+            peers.add(peer);
+            ByteBuffer hello = CollabClient.hello(peer.id, lastStamp, sceneBytes());
+            peer.maxBacklog = maxBacklog + hello.limit() + sceneBytes();
+            enqueue(peer, hello.array(), 0, hello.limit());
+            sendScene(peer);
+            try {
+                write(peer);
+            } catch (IOException e) {
+                drop(peer);
+            }
+        }
+    }
+
+    // Separa os quadros completos e os anota na volta atual
+    private void read(Peer peer) throws IOException {
+        int n = peer.channel.read(peer.in);
+        if (n < 0) {
+            drop(peer);
+            return;
+        }
+        ByteBuffer in = peer.in;
+        int at = 0;
+        while (in.position() - at >= 4) {
+            // Um quadro malformado derrubaria todos os outros clientes: quem manda sai
+            int length = in.getInt(at);
+            if (length < 8 || length > MAX_FRAME) {
+                reject(peer, "tamanho " + length);
+                return;
+            }
+            if (in.position() - at - 4 < length) break;
+            String error = CollabClient.checkFrame(in, at + 4, at + 4 + length, false);
+            if (error == null && (int) (in.getLong(at + 4) & CollabClient.MAX_CLIENT_ID) != peer.id) {
+                error = "carimbo de outro cliente";
+            }
+            if (error != null) {
+                reject(peer, error);
+                return;
+            }
+            record(in, at + 4, at + 4 + length);
+            addToRound(peer, in.array(), at, 4 + length);
+            at += 4 + length;
+        }
+        // Guarda o começo do próximo quadro; cresce se ele não cabe no buffer
+        in.flip().position(at);
+        in.compact();
+        if (in.position() >= 4 && !in.hasRemaining()) {
+            int needed = 4 + in.getInt(0);
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, in.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+            grown.put(in.flip());
+            peer.in = grown;
+        }
+    }
+
+    // Aplica um quadro já conferido à cena compactada
+    private void record(ByteBuffer in, int from, int to) {
+        ByteBuffer frame = in.slice(from, to - from).order(ByteOrder.LITTLE_ENDIAN);
+        long stamp = frame.getLong();
+        lastStamp = Math.max(lastStamp, stamp);
+        while (frame.hasRemaining()) {
+            byte op = frame.get();
+            long id = frame.getLong();
+            Figure figure = scene.get(id);
+            switch (op) {
+                case CollabClient.OP_ADD -> {
+                    byte type = frame.get();
+                    double x = frame.getDouble(), y = frame.getDouble(), w = frame.getDouble(), h = frame.getDouble();
+                    int argb = frame.getInt();
+                    if (figure == null) {
+                        figure = new Figure();
+                        figure.type = type;
+                        figure.width = w;
+                        figure.height = h;
+                        scene.put(id, figure);
+                    }
+                    if (stamp > figure.presentStamp) {
+                        figure.presentStamp = stamp;
+                        figure.present = true;
+                    }
+                    setPosition(figure, stamp, x, y);
+                    setColor(figure, stamp, argb);
+                }
+                case CollabClient.OP_REMOVE -> {
+                    if (figure != null && stamp > figure.presentStamp) {
+                        figure.presentStamp = stamp;
+                        figure.present = false;
+                    }
+                }
+                case CollabClient.OP_MOVE -> {
+                    double x = frame.getDouble(), y = frame.getDouble();
+                    if (figure != null) setPosition(figure, stamp, x, y);
+                }
+                case CollabClient.OP_COLOR -> {
+                    int argb = frame.getInt();
+                    if (figure != null) setColor(figure, stamp, argb);
+                }
+                default -> throw new IllegalStateException("Registro não conferido: " + op);
+            }
+        }
+    }
+
+    private static void setPosition(Figure figure, long stamp, double x, double y) {
+        if (stamp <= figure.positionStamp) return;
+        figure.positionStamp = stamp;
+        figure.x = x;
+        figure.y = y;
+    }
+
+    private static void setColor(Figure figure, long stamp, int argb) {
+        if (stamp <= figure.colorStamp) return;
+        figure.colorStamp = stamp;
+        figure.argb = argb;
+    }
+
+    // Tamanho do que sendScene manda, anunciado no HELLO
+    private int sceneBytes() {
+        int frames = (scene.size() + STATES_PER_FRAME - 1) / STATES_PER_FRAME;
+        return frames * 12 + scene.size() * CollabClient.STATE_BYTES;
+    }
+
+    // A cena compactada em quadros de até STATES_PER_FRAME registros
+    private void sendScene(Peer peer) {
+        if (scene.isEmpty()) return;
+        ByteBuffer frame = ByteBuffer.allocate(12 + STATES_PER_FRAME * CollabClient.STATE_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int records = 0;
+        for (Map.Entry<Long, Figure> entry : scene.entrySet()) {
+            if (records == 0) frame.clear().putInt(0).putLong(lastStamp);
+            Figure f = entry.getValue();
+            CollabClient.putState(frame, entry.getKey(), f.type, f.x, f.y, f.width, f.height, f.argb,
+                    f.present, f.presentStamp, f.positionStamp, f.colorStamp);
+            if (++records == STATES_PER_FRAME) {
+                enqueue(peer, frame.putInt(0, frame.position() - 4).array(), 0, frame.position());
+                records = 0;
+            }
+        }
+        if (records > 0) {
+            enqueue(peer, frame.putInt(0, frame.position() - 4).array(), 0, frame.position());
+        }
+    }
+
+    private void addToRound(Peer sender, byte[] bytes, int offset, int length) {
+        round = ensure(round, length);
+        round.put(bytes, offset, length);
+        if (roundSenders.size() == roundEnds.length) {
+            roundEnds = Arrays.copyOf(roundEnds, roundEnds.length * 2);
+        }
+        roundEnds[roundSenders.size()] = round.position();
+        roundSenders.add(sender);
+    }
+
+    // Cada cliente recebe, numa escrita, os quadros da volta que não são dele
+    private void broadcast() {
+        int frames = roundSenders.size();
+        if (frames == 0) return;
+        for (int p = 0; p < peers.size(); p++) {
+            Peer peer = peers.get(p);
+            int start = 0;
+            boolean behind = false;
+            for (int f = 0; f < frames && !behind; f++) {
+                int end = roundEnds[f];
+                if (roundSenders.get(f) != peer) {
+                    behind = !enqueue(peer, round.array(), start, end - start);
+                }
+                start = end;
+            }
+            if (behind) {
+                System.err.println("Relay: cliente " + peer.id + " ficou para trás (" + peer.out.position() + " bytes)");
+                drop(peer);
+                p--;
+                continue;
+            }
+            try {
+                write(peer);
+            } catch (IOException e) {
+                drop(peer);
+                p--;
+            }
+        }
+        round.clear();
+        roundSenders.clear();
+    }
+
+    // false se o quadro passaria do backlog permitido (nada é enfileirado)
+    private static boolean enqueue(Peer peer, byte[] bytes, int offset, int length) {
+        if (length == 0) return true;
+        if ((long) peer.out.position() + length > peer.maxBacklog) return false;
+        peer.out = ensure(peer.out, length);
+        peer.out.put(bytes, offset, length);
+        return true;
+    }
+
+    // Escreve o que o socket aceitar; o resto espera por OP_WRITE
+    private static void write(Peer peer) throws IOException {
+        ByteBuffer out = peer.out;
+        if (out.position() > 0) {
+            out.flip();
+            peer.channel.write(out);
+            out.compact();
+        }
+        if (!peer.key.isValid()) return;
+        int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (peer.key.interestOps() != ops) peer.key.interestOps(ops);
+    }
+
+    private void reject(Peer peer, String error) {
+        System.err.println("Relay: quadro inválido do cliente " + peer.id + " (" + error + ")");
+        drop(peer);
+    }
+
+    private void drop(Peer peer) {
+        if (!peers.remove(peer)) return;
+        clientIds.clear(peer.id);
+        peer.key.cancel();
+        closeQuietly(peer.channel);
+        // Quadros dele na volta atual ainda vão para os outros
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) return buffer;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        grown.put(buffer.flip());
+        return grown;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -1,5 +1,9 @@
 package br.com.mariojp.figureeditor;
 
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -7,6 +11,20 @@ import java.util.ArrayList;
 interface Command {
     void execute();
     void undo();
+
+    // Chamado quando o comando sai do histórico: executed = true se foi descartado
+    // do fundo da pilha de undo (o efeito fica), false se saiu da pilha de redo
+    default void discard(boolean executed) {}
+
+    // Estimativa de memória retida pelo comando no histórico
+    default long estimatedBytes() {
+        return 64;
+    }
+
+    // Absorve o próximo comando já executado; true se os dois viraram uma entrada só
+    default boolean mergeWith(Command next) {
+        return false;
+    }
 }
 
 // Command para adicionar figura
@@ -28,42 +46,338 @@ class AddShapeCommand implements Command {
     public void undo() {
         panel.removeShapeDirectly(shape);
     }
+
+    // Desfeito e fora do histórico: a figura nunca mais volta
+    @Override
+    public void discard(boolean executed) {
+        if (!executed) {
+            panel.releaseShape(shape);
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 32 + FigureStore.BYTES_PER_ROW;
+    }
+}
+
+// Command para remover figura
+class RemoveShapeCommand implements Command {
+    private DrawingPanel panel;
+    private FigureShape shape;
+
+    public RemoveShapeCommand(DrawingPanel panel, FigureShape shape) {
+        this.panel = panel;
+        this.shape = shape;
+    }
+
+    @Override
+    public void execute() {
+        panel.removeShapeDirectly(shape);
+    }
+
+    @Override
+    public void undo() {
+        panel.addShapeDirectly(shape);
+    }
+
+    // Descartado depois de executado: a figura removida nunca mais volta
+    @Override
+    public void discard(boolean executed) {
+        if (executed) {
+            panel.releaseShape(shape);
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 32 + FigureStore.BYTES_PER_ROW;
+    }
 }
 
 // Command para mover figura
 class MoveShapeCommand implements Command {
+    private DrawingPanel panel;
     private FigureShape shape;
     private double dx, dy;
 
-    public MoveShapeCommand(FigureShape shape, double dx, double dy) {
+    public MoveShapeCommand(DrawingPanel panel, FigureShape shape, double dx, double dy) {
+        this.panel = panel;
+        this.shape = shape;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    @Override
+    public void execute() {
+        panel.translateShapeDirectly(shape, dx, dy);
+    }
+
+    @Override
+    public void undo() {
+        panel.translateShapeDirectly(shape, -dx, -dy);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 48;
+    }
+
+    // Movimentos consecutivos da mesma figura viram um só
+    @Override
+    public boolean mergeWith(Command next) {
+        if (next instanceof MoveShapeCommand move && move.shape == shape && move.panel == panel) {
+            dx += move.dx;
+            dy += move.dy;
+            return true;
+        }
+        return false;
+    }
+}
+
+// Command para trocar a cor de uma figura
+class RecolorShapeCommand implements Command {
+    private DrawingPanel panel;
+    private FigureShape shape;
+    private Color newColor;
+    private Color oldColor;
+
+    public RecolorShapeCommand(DrawingPanel panel, FigureShape shape, Color newColor) {
+        this.panel = panel;
         this.shape = shape;
+        this.newColor = newColor;
+    }
+
+    @Override
+    public void execute() {
+        oldColor = shape.getColor();
+        panel.recolorShapeDirectly(shape, newColor);
+    }
+
+    @Override
+    public void undo() {
+        panel.recolorShapeDirectly(shape, oldColor);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 48;
+    }
+}
+
+// Command para mover um grupo de figuras: um movimento em bloco e uma repintura
+class MoveShapesCommand implements Command {
+    private DrawingPanel panel;
+    private FigureShape[] shapes;
+    private double dx, dy;
+
+    public MoveShapesCommand(DrawingPanel panel, FigureShape[] shapes, double dx, double dy) {
+        this.panel = panel;
+        this.shapes = shapes;
         this.dx = dx;
         this.dy = dy;
     }
 
     @Override
     public void execute() {
-        shape.translate(dx, dy);
+        panel.translateShapesDirectly(shapes, dx, dy);
+    }
+
+    @Override
+    public void undo() {
+        panel.translateShapesDirectly(shapes, -dx, -dy);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 48 + 4L * shapes.length;
+    }
+
+    // Movimentos consecutivos do mesmo grupo viram um só. Cada movimento traz um array
+    // novo (selectionArray, cópia do grupo arrastado), sempre na ordem de desenho:
+    // compara o conteúdo, não a referência
+    @Override
+    public boolean mergeWith(Command next) {
+        if (next instanceof MoveShapesCommand move && move.panel == panel && Arrays.equals(move.shapes, shapes)) {
+            dx += move.dx;
+            dy += move.dy;
+            return true;
+        }
+        return false;
+    }
+}
+
+// Command para adicionar um grupo de figuras (importação). Os blocos de uma mesma
+// importação (mesmo 'group') se juntam numa entrada só do histórico
+class AddShapesCommand implements Command {
+    private DrawingPanel panel;
+    private FigureShape[] shapes;
+    private Object group;
+
+    public AddShapesCommand(DrawingPanel panel, FigureShape[] shapes, Object group) {
+        this.panel = panel;
+        this.shapes = shapes;
+        this.group = group;
+    }
+
+    @Override
+    public void execute() {
+        panel.addShapesDirectly(shapes);
+    }
+
+    @Override
+    public void undo() {
+        panel.removeShapesDirectly(shapes);
+    }
+
+    // Desfeito e fora do histórico: as figuras nunca mais voltam
+    @Override
+    public void discard(boolean executed) {
+        if (!executed) {
+            for (FigureShape shape : shapes) {
+                panel.releaseShape(shape);
+            }
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 32 + (long) shapes.length * (4 + FigureStore.BYTES_PER_ROW);
+    }
+
+    @Override
+    public boolean mergeWith(Command next) {
+        if (next instanceof AddShapesCommand add && group != null && add.group == group && add.panel == panel) {
+            FigureShape[] merged = Arrays.copyOf(shapes, shapes.length + add.shapes.length);
+            System.arraycopy(add.shapes, 0, merged, shapes.length, add.shapes.length);
+            shapes = merged;
+            return true;
+        }
+        return false;
+    }
+}
+
+// Command para remover um grupo de figuras (na ordem de desenho)
+class RemoveShapesCommand implements Command {
+    private DrawingPanel panel;
+    private FigureShape[] shapes;
+
+    public RemoveShapesCommand(DrawingPanel panel, FigureShape[] shapes) {
+        this.panel = panel;
+        this.shapes = shapes;
+    }
+
+    @Override
+    public void execute() {
+        panel.removeShapesDirectly(shapes);
+    }
+
+    @Override
+    public void undo() {
+        panel.addShapesDirectly(shapes);
+    }
+
+    // Descartado depois de executado: as figuras removidas nunca mais voltam
+    @Override
+    public void discard(boolean executed) {
+        if (executed) {
+            for (FigureShape shape : shapes) {
+                panel.releaseShape(shape);
+            }
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 32 + (long) shapes.length * (4 + FigureStore.BYTES_PER_ROW);
+    }
+}
+
+// Command para trocar a cor de um grupo de figuras; as cores antigas ficam em um int[]
+class RecolorShapesCommand implements Command {
+    private DrawingPanel panel;
+    private FigureShape[] shapes;
+    private int newArgb;
+    private int[] oldArgb;
+
+    public RecolorShapesCommand(DrawingPanel panel, FigureShape[] shapes, Color newColor) {
+        this.panel = panel;
+        this.shapes = shapes;
+        this.newArgb = newColor.getRGB();
+    }
+
+    @Override
+    public void execute() {
+        oldArgb = new int[shapes.length];
+        for (int i = 0; i < shapes.length; i++) {
+            oldArgb[i] = shapes[i].getArgb();
+        }
+        panel.recolorShapesDirectly(shapes, null, newArgb);
+    }
+
+    @Override
+    public void undo() {
+        panel.recolorShapesDirectly(shapes, oldArgb, 0);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 48 + 8L * shapes.length;
+    }
+}
+
+// Vários comandos aplicados e desfeitos como uma única entrada do histórico
+class CompositeCommand implements Command {
+    private final List<Command> commands;
+    private long bytes;
+
+    public CompositeCommand(List<Command> commands) {
+        this.commands = new ArrayList<>(commands);
+        for (Command command : this.commands) {
+            bytes += command.estimatedBytes();
+        }
+    }
+
+    public List<Command> getCommands() { return commands; }
+    public boolean isEmpty() { return commands.isEmpty(); }
+
+    @Override
+    public void execute() {
+        for (Command command : commands) {
+            command.execute();
+        }
     }
 
     @Override
     public void undo() {
-        shape.translate(-dx, -dy);
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            commands.get(i).undo();
+        }
+    }
+
+    @Override
+    public void discard(boolean executed) {
+        for (Command command : commands) {
+            command.discard(executed);
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return 32 + 4L * commands.size() + bytes;
     }
 }
 
 // Command para limpar tela
 class ClearCommand implements Command {
     private DrawingPanel panel;
-    private List<FigureShape> savedShapes;
+    private FigureShape[] savedShapes;
 
     public ClearCommand(DrawingPanel panel) {
         this.panel = panel;
-        this.savedShapes = new ArrayList<>();
-        // Fazer cópia das figuras antes de limpar
-        for (FigureShape shape : panel.getShapes()) {
-            savedShapes.add(shape.copy());
-        }
+        // Guardar referências (na ordem de desenho): as linhas ficam no store até o
+        // comando sair do histórico, então não é preciso copiar as figuras
+        this.savedShapes = panel.getStore().liveFigureArray();
     }
 
     @Override
@@ -73,21 +387,184 @@ class ClearCommand implements Command {
 
     @Override
     public void undo() {
-        for (FigureShape shape : savedShapes) {
-            panel.addShapeDirectly(shape);
+        panel.restoreShapesDirectly(savedShapes);
+    }
+
+    // Descartado depois de executado: as figuras limpas nunca mais voltam
+    @Override
+    public void discard(boolean executed) {
+        if (executed) {
+            for (FigureShape shape : savedShapes) {
+                panel.releaseShape(shape);
+            }
         }
     }
+
+    @Override
+    public long estimatedBytes() {
+        return 32 + (long) savedShapes.length * (4 + FigureStore.BYTES_PER_ROW);
+    }
+}
+
+// Observador das operações aplicadas pelo CommandManager
+interface CommandListener {
+    default void commandExecuted(Command command) {}
+    default void commandUndone(Command command) {}
+    default void commandRedone(Command command) {}
+
+    // Envolvem um lote (e o undo/redo de um lote) para adiar invalidações
+    default void batchStarted() {}
+    default void batchEnded() {}
 }
 
 // Command Manager (Invoker)
+// O histórico é limitado por número de entradas e por memória estimada;
+// as entradas mais antigas são descartadas primeiro.
 class CommandManager {
-    private final List<Command> undoStack = new ArrayList<>();
-    private final List<Command> redoStack = new ArrayList<>();
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final Deque<Command> undoStack = new ArrayDeque<>();
+    private final Deque<Command> redoStack = new ArrayDeque<>();
+    private final List<CommandListener> listeners = new ArrayList<>();
+
+    private int maxEntries;
+    private long maxBytes;
+    private long historyBytes;
+
+    // Lote em andamento (beginBatch/commitBatch), com suporte a aninhamento
+    private List<Command> batch;
+    private int batchDepth;
+
+    // Latência de execute/undo/redo (com os listeners); null = sem medição
+    private EditorMetrics metrics;
+
+    public CommandManager() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public CommandManager(int maxEntries, long maxBytes) {
+        setLimits(maxEntries, maxBytes);
+    }
+
+    public void setLimits(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Limites do histórico devem ser positivos");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evictOldest();
+    }
+
+    public int getMaxEntries() { return maxEntries; }
+    public long getMaxBytes() { return maxBytes; }
+    public long getHistoryBytes() { return historyBytes; }
+    public int getUndoSize() { return undoStack.size(); }
+    public int getRedoSize() { return redoStack.size(); }
+
+    void setMetrics(EditorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void addListener(CommandListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CommandListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Inicia um lote: os próximos comandos são aplicados na hora, mas entram no
+    // histórico como uma única entrada quando o lote mais externo for confirmado
+    public void beginBatch() {
+        if (batchDepth++ == 0) {
+            batch = new ArrayList<>();
+            fireBatchStarted();
+        }
+    }
+
+    public void commitBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("Nenhum lote em andamento");
+        }
+        if (--batchDepth > 0) return;
+
+        CompositeCommand composite = new CompositeCommand(batch);
+        batch = null;
+        if (!composite.isEmpty()) {
+            record(composite);
+        }
+        fireBatchEnded();
+    }
+
+    // Desfaz o que já foi aplicado no lote e o descarta por completo
+    public void rollbackBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("Nenhum lote em andamento");
+        }
+        CompositeCommand composite = new CompositeCommand(batch);
+        batch = null;
+        batchDepth = 0;
+        composite.undo();
+        composite.discard(false);
+        fireBatchEnded();
+    }
+
+    public boolean isInBatch() {
+        return batchDepth > 0;
+    }
 
     public void executeCommand(Command command) {
+        long start = metrics != null ? System.nanoTime() : 0;
         command.execute();
-        undoStack.add(command);
-        redoStack.clear(); // Limpar redo stack quando novo comando é executado
+        if (batchDepth > 0) {
+            if (batch.isEmpty() || !batch.get(batch.size() - 1).mergeWith(command)) {
+                batch.add(command);
+            }
+        } else {
+            record(command);
+        }
+        if (metrics != null) metrics.record(EditorMetrics.Operation.EXECUTE, System.nanoTime() - start);
+    }
+
+    private void record(Command command) {
+        // Limpar redo stack quando novo comando é executado
+        for (Command discarded : redoStack) {
+            historyBytes -= discarded.estimatedBytes();
+            discarded.discard(false);
+        }
+        redoStack.clear();
+
+        Command top = undoStack.peekLast();
+        long topBytes = top != null ? top.estimatedBytes() : 0;
+        if (top == null || !top.mergeWith(command)) {
+            undoStack.addLast(command);
+            historyBytes += command.estimatedBytes();
+            evictOldest();
+        } else if (top.estimatedBytes() != topBytes) {
+            // A entrada cresceu ao absorver o comando (ex.: blocos de uma importação)
+            historyBytes += top.estimatedBytes() - topBytes;
+            evictOldest();
+        }
+        for (CommandListener listener : listeners) {
+            listener.commandExecuted(command);
+        }
+    }
+
+    // Esquece todo o histórico (ex.: ao abrir outro desenho)
+    public void clearHistory() {
+        if (batchDepth > 0) {
+            throw new IllegalStateException("Lote em andamento");
+        }
+        for (Command discarded : redoStack) {
+            discarded.discard(false);
+        }
+        redoStack.clear();
+        for (Command discarded : undoStack) {
+            discarded.discard(true);
+        }
+        undoStack.clear();
+        historyBytes = 0;
     }
 
     public boolean canUndo() {
@@ -99,18 +576,56 @@ class CommandManager {
     }
 
     public void undo() {
-        if (canUndo()) {
-            Command command = undoStack.remove(undoStack.size() - 1);
+        if (canUndo() && batchDepth == 0) {
+            long start = metrics != null ? System.nanoTime() : 0;
+            Command command = undoStack.removeLast();
+            boolean composite = command instanceof CompositeCommand;
+            if (composite) fireBatchStarted();
             command.undo();
-            redoStack.add(command);
+            redoStack.addLast(command);
+            for (CommandListener listener : listeners) {
+                listener.commandUndone(command);
+            }
+            if (composite) fireBatchEnded();
+            if (metrics != null) metrics.record(EditorMetrics.Operation.UNDO, System.nanoTime() - start);
         }
     }
 
     public void redo() {
-        if (canRedo()) {
-            Command command = redoStack.remove(redoStack.size() - 1);
+        if (canRedo() && batchDepth == 0) {
+            long start = metrics != null ? System.nanoTime() : 0;
+            Command command = redoStack.removeLast();
+            boolean composite = command instanceof CompositeCommand;
+            if (composite) fireBatchStarted();
             command.execute();
-            undoStack.add(command);
+            undoStack.addLast(command);
+            for (CommandListener listener : listeners) {
+                listener.commandRedone(command);
+            }
+            if (composite) fireBatchEnded();
+            if (metrics != null) metrics.record(EditorMetrics.Operation.REDO, System.nanoTime() - start);
+        }
+    }
+
+    private void fireBatchStarted() {
+        for (CommandListener listener : listeners) {
+            listener.batchStarted();
         }
     }
-}
\ No newline at end of file
+
+    private void fireBatchEnded() {
+        for (CommandListener listener : listeners) {
+            listener.batchEnded();
+        }
+    }
+
+    // Descarta as entradas mais antigas até caber nos limites (a mais recente sempre fica)
+    private void evictOldest() {
+        while (undoStack.size() > 1
+                && (undoStack.size() + redoStack.size() > maxEntries || historyBytes > maxBytes)) {
+            Command oldest = undoStack.removeFirst();
+            historyBytes -= oldest.estimatedBytes();
+            oldest.discard(true);
+        }
+    }
+}
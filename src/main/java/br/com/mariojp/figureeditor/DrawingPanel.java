@@ -1,37 +1,160 @@
 package br.com.mariojp.figureeditor;
 
 import javax.swing.*;
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.Ellipse2D;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
+// Componente Swing nunca serializado: os campos não precisam ser Serializable
+@SuppressWarnings("serial")
 class DrawingPanel extends JPanel {
     private static final long serialVersionUID = 1L;
     private static final int DEFAULT_SIZE = 60;
     private static final int SNAP_DISTANCE = 10;
+    // Folga em volta dos limites para borda e contorno de seleção
+    static final int PAINT_MARGIN = 6;
+    // Resolução gravada no PNG para escala 1
+    static final int EXPORT_BASE_DPI = 96;
+    // Qualidade adaptativa: quanto tempo sem entrada conta como ocioso, orçamento
+    // padrão de um quadro e o maior tamanho (px) de figura desenhada como bloco
+    static final int IDLE_DELAY_MS = 150;
+    static final double DEFAULT_FRAME_BUDGET_MS = 16;
+    static final double MAX_DETAIL_PIXELS = 8;
+    // Fator de zoom por passo da roda do mouse (ou Ctrl +/-)
+    static final double ZOOM_STEP = 1.1;
+    // Intervalo de atualização do texto do HUD de métricas
+    static final int HUD_REFRESH_MS = 250;
 
-    private final List<FigureShape> shapes = new ArrayList<>();
+    private final FigureStore store = new FigureStore();
+    private final SpatialIndex index = new SpatialIndex();
     private final CommandManager commandManager = new CommandManager();
+    private final StaticLayerCache layerCache = new StaticLayerCache();
+    // Zoom e deslocamento da vista; as figuras ficam em coordenadas do mundo
+    private final Viewport viewport = new Viewport();
+    private boolean isPanning = false;
+    private final Point panLast = new Point();
+    private boolean layerCacheEnabled = true;
+    // Qualidade reduzida enquanto há interação, restaurada quando a entrada para
+    private boolean adaptiveQuality = true;
+    private boolean interacting;
+    private long lastInputNanos;
+    private long frameBudgetNanos = (long) (DEFAULT_FRAME_BUDGET_MS * 1_000_000);
+    private long lastFrameNanos;
+    // A camada em cache foi desenhada em qualidade reduzida e precisa ser refeita
+    private boolean layerDegraded;
+    private final Timer idleTimer = new Timer(IDLE_DELAY_MS, e -> checkIdle());
 
-    private Point startDrag = null;
-    private Point endDrag = null;
+    // Latências e medidores (HUD, JMX, dump); o texto do HUD é refeito a cada HUD_REFRESH_MS
+    private final EditorMetrics metrics = new EditorMetrics();
+    private boolean hudVisible;
+    private final Rectangle hudBounds = new Rectangle();
+    private final Timer hudTimer = new Timer(HUD_REFRESH_MS, e -> repaint(hudBounds));
+    private String[] hudLines = new String[0];
+    private int hudWidth;
+    private long hudUpdatedAt;
+
+    // Journal de recuperação; null enquanto a cena é reconstruída ou sem journal
+    private SceneJournal journal;
+    // Sessão de colaboração ao vivo; null quando desconectado
+    private CollabClient collab;
+
+    // Importação em andamento; cancelada se outro desenho é aberto
+    private SwingWorker<Long, Void> importWorker;
+
+    // Avisados de cada área alterada e de cada versão publicada (ex.: minimapa)
+    private final List<SceneListener> sceneListeners = new ArrayList<>();
+
+    // Cursor no mundo em double: com zoom alto um pixel da tela é uma fração do mundo
+    private Point2D.Double startDrag = null;
+    private Point2D.Double endDrag = null;
     private boolean isDragging = false;
     private boolean isSelecting = false;
 
     private Color currentColor = new Color(30, 144, 255);
     private ShapeType currentShapeType = ShapeType.CIRCLE;
 
-    private FigureShape selectedShape = null;
-    private Point lastMousePos = null;
+    // Seleção: as figuras também têm FLAG_SELECTED; figuras removidas perdem a marca
+    // e saem da lista só no próximo uso (pruneSelection), sem busca linear por remoção
+    private final List<FigureShape> selection = new ArrayList<>();
+    private boolean selectionStale;
+    // Grupo sendo arrastado (cópia da seleção no início do arraste) e seleção por área
+    private FigureShape[] moveSet = null;
+    private boolean isMarquee = false;
+    private Point2D.Double lastMousePos = null;
+
+    // Objetos reutilizados para que desenhar e arrastar não aloquem a cada quadro
+    private Color previewColor = RenderStyles.withAlpha(currentColor, RenderStyles.PREVIEW_ALPHA);
+    private final StaticLayerCache.LayerPainter layerPainter = this::paintLayer;
+    private static final Comparator<FigureShape> DRAW_ORDER = Comparator.comparingLong(FigureShape::getOrder);
+    private final SceneRenderer renderer = new SceneRenderer();
+    private final List<FigureShape> visible = new ArrayList<>();
+    private final List<FigureShape> nearby = new ArrayList<>();
+    private final Rectangle clipBounds = new Rectangle();
+    private final Rectangle2D.Double worldRegion = new Rectangle2D.Double();
+    private final Rectangle2D.Double queryArea = new Rectangle2D.Double();
+    private final Rectangle2D.Double repaintWorld = new Rectangle2D.Double();
+    private final Rectangle screenArea = new Rectangle();
+    private final Point2D.Double mouseWorld = new Point2D.Double();
+    private final Rectangle2D.Double previewRect = new Rectangle2D.Double();
+    private final Rectangle2D.Double lastPreviewRect = new Rectangle2D.Double();
+    private final Rectangle2D.Double marqueeRect = new Rectangle2D.Double();
+    private final Rectangle2D.Double layerDamage = new Rectangle2D.Double();
+    private final Rectangle2D.Double movedFrom = new Rectangle2D.Double();
+    private final Rectangle2D.Double damage = new Rectangle2D.Double();
+    private final Point2D.Double snapPoint = new Point2D.Double();
+
+    // Snap das bordas do grupo arrastado: limites no início do arraste, deslocamento já
+    // aplicado e as guias de alinhamento do último evento
+    private final SnapEngine snapper = new SnapEngine();
+    private final SnapEngine.Match snapX = new SnapEngine.Match();
+    private final SnapEngine.Match snapY = new SnapEngine.Match();
+    private final Rectangle2D.Double moveStart = new Rectangle2D.Double();
+    private final Point2D.Double snapOffset = new Point2D.Double();
+    private double appliedDx, appliedDy;
+    private boolean hasGuideX, hasGuideY;
+    private final Rectangle2D.Double guideX = new Rectangle2D.Double();
+    private final Rectangle2D.Double guideY = new Rectangle2D.Double();
+
+    // Desenho em thread separada (null = desenho no próprio paintComponent): quadro
+    // exibido, área da cena alterada desde o último pedido e a vista desse pedido
+    private RenderThread renderThread;
+    private RenderThread.Frame frontFrame;
+    private final Rectangle2D.Double frameDirty = new Rectangle2D.Double();
+    private boolean hasFrameDirty;
+    private boolean frameDirtyAll;
+    private int frameWidth, frameHeight, frameViewportVersion;
+    private SceneRenderer.Quality frameQuality;
+    private double frameDetail;
+    private final Rectangle frameArea = new Rectangle();
+    // Quadros e PNG escritos pelo SpanRasterizer (só vale com a thread de desenho)
+    private boolean directRaster;
+
+    // Região acumulada enquanto as invalidações estão adiadas (lotes)
+    private int updateDepth;
+    private final Rectangle2D.Double deferredRepaint = new Rectangle2D.Double();
+    private boolean hasDeferredRepaint;
 
     DrawingPanel() {
         setBackground(Color.WHITE);
@@ -41,6 +164,61 @@ class DrawingPanel extends JPanel {
 
         setupMouseListeners();
         setupKeyListeners();
+        idleTimer.setRepeats(false);
+        commandManager.setMetrics(metrics);
+
+        // A camada em cache e a versão publicada da cena só são atualizadas quando um
+        // comando é aplicado ou desfeito
+        commandManager.addListener(new CommandListener() {
+            @Override
+            public void commandExecuted(Command command) { commandApplied(); }
+
+            @Override
+            public void commandUndone(Command command) { commandApplied(); }
+
+            @Override
+            public void commandRedone(Command command) { commandApplied(); }
+
+            // Dentro de um lote, as repinturas são acumuladas e feitas uma vez só
+            @Override
+            public void batchStarted() { beginUpdate(); }
+
+            @Override
+            public void batchEnded() {
+                commandApplied();
+                endUpdate();
+            }
+        });
+    }
+
+    private void commandApplied() {
+        layerCache.commitDamage();
+        store.publish();
+        firePublished();
+        metrics.setHistory(commandManager.getHistoryBytes(), commandManager.getUndoSize());
+    }
+
+    public void addSceneListener(SceneListener listener) {
+        sceneListeners.add(listener);
+    }
+
+    public void removeSceneListener(SceneListener listener) {
+        sceneListeners.remove(listener);
+    }
+
+    // Laços por índice: sem listeners (e com eles) não há alocação por evento
+    private void fireSceneChanged(Rectangle2D area) {
+        for (int i = 0; i < sceneListeners.size(); i++) {
+            sceneListeners.get(i).sceneChanged(area);
+        }
+    }
+
+    private void firePublished() {
+        if (sceneListeners.isEmpty()) return;
+        SceneVersion version = store.published();
+        for (int i = 0; i < sceneListeners.size(); i++) {
+            sceneListeners.get(i).scenePublished(version);
+        }
     }
 
     private void setupMouseListeners() {
@@ -48,65 +226,123 @@ class DrawingPanel extends JPanel {
             @Override
             public void mousePressed(MouseEvent e) {
                 requestFocusInWindow();
-                startDrag = e.getPoint();
-                lastMousePos = e.getPoint();
+                beginInteraction();
+
+                // Botão do meio ou direito: mover a vista
+                if (SwingUtilities.isMiddleMouseButton(e) || SwingUtilities.isRightMouseButton(e)) {
+                    isPanning = true;
+                    panLast.setLocation(e.getX(), e.getY());
+                    return;
+                }
+
+                Point2D.Double world = toWorld(e, new Point2D.Double());
+                startDrag = world;
+                lastMousePos = new Point2D.Double(world.x, world.y);
 
                 // Verificar se está com Shift pressionado para seleção
                 if (e.isShiftDown()) {
-                    isSelecting = true;
-                    selectShapeAt(e.getPoint());
+                    FigureShape hit = index.topmostAt(world);
+                    if (hit == null) {
+                        // Shift + arraste no vazio: seleção por área (com Ctrl, soma à seleção)
+                        isSelecting = false;
+                        isMarquee = true;
+                        if (!e.isControlDown()) clearSelection();
+                    } else {
+                        // Clicar em uma figura da seleção arrasta o grupo inteiro
+                        isSelecting = true;
+                        if (e.isControlDown()) {
+                            if (!hit.isSelected()) select(hit);
+                        } else if (!hit.isSelected()) {
+                            selectShapeAt(world);
+                        }
+                        moveSet = selectionArray();
+                        beginMove();
+                    }
                 } else {
                     isSelecting = false;
                     // Se há uma figura selecionada e clicamos nela, preparar para mover
-                    if (selectedShape != null && selectedShape.contains(e.getPoint())) {
+                    FigureShape hit = index.topmostAt(world);
+                    if (hit != null && hit.isSelected()) {
                         // Preparar para movimento
                     } else {
-                        // Deselecionar figura atual
-                        if (selectedShape != null) {
-                            selectedShape.setSelected(false);
-                            selectedShape = null;
-                        }
+                        // Deselecionar figuras atuais
+                        clearSelection();
                         isDragging = true;
                     }
                 }
-                repaint();
             }
 
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (isSelecting && selectedShape != null) {
-                    // Mover figura selecionada
-                    double dx = e.getX() - lastMousePos.x;
-                    double dy = e.getY() - lastMousePos.y;
-
-                    // Aplicar snap magnético
-                    Point snapped = applySnap(new Point(e.getX(), e.getY()));
-                    dx = snapped.x - lastMousePos.x;
-                    dy = snapped.y - lastMousePos.y;
-
-                    selectedShape.translate(dx, dy);
-                    lastMousePos = snapped;
+                beginInteraction();
+                if (isPanning) {
+                    int version = viewport.getVersion();
+                    viewport.pan(e.getX() - panLast.x, e.getY() - panLast.y);
+                    panLast.setLocation(e.getX(), e.getY());
+                    viewChanged(version);
+                    return;
+                }
+                Point2D.Double world = toWorld(e, mouseWorld);
+                if (isMarquee) {
+                    boolean hadMarquee = marqueeBounds(lastPreviewRect);
+                    if (endDrag == null) {
+                        endDrag = new Point2D.Double();
+                    }
+                    endDrag.setLocation(world);
+                    repaintChange(hadMarquee, lastPreviewRect, marqueeBounds(marqueeRect), marqueeRect);
+                } else if (isSelecting && moveSet != null) {
+                    // Mover as figuras selecionadas em bloco até a posição pedida pelo
+                    // cursor, ajustada pelo snap magnético das bordas do grupo
+                    Point2D offset = snapMove(moveStart, world.x - startDrag.x, world.y - startDrag.y);
+                    updateGuides();
+                    translateShapesDirectly(moveSet, offset.getX() - appliedDx, offset.getY() - appliedDy);
+                    appliedDx = offset.getX();
+                    appliedDy = offset.getY();
+                    lastMousePos.setLocation(world);
                 } else if (isDragging) {
-                    endDrag = e.getPoint();
+                    boolean hadPreview = previewBounds(lastPreviewRect);
+                    if (endDrag == null) {
+                        endDrag = new Point2D.Double();
+                    }
+                    endDrag.setLocation(world);
+                    repaintPreview(hadPreview);
                 }
-                repaint();
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                if (isSelecting && selectedShape != null && lastMousePos != null) {
-                    // Finalizar movimento
-                    double dx = e.getX() - startDrag.x;
-                    double dy = e.getY() - startDrag.y;
+                if (isPanning) {
+                    isPanning = false;
+                    return;
+                }
+                Point2D.Double world = toWorld(e, mouseWorld);
+                if (isMarquee) {
+                    if (marqueeBounds(lastPreviewRect)) {
+                        selectInside(lastPreviewRect);
+                        repaintView(lastPreviewRect);
+                    }
+                    isMarquee = false;
+                    endDrag = null;
+                } else if (isSelecting && moveSet != null && lastMousePos != null) {
+                    // Finalizar movimento com o deslocamento realmente aplicado (com snap)
+                    double dx = appliedDx;
+                    double dy = appliedDy;
+                    clearGuides();
 
                     if (Math.abs(dx) > 2 || Math.abs(dy) > 2) {
-                        // Criar comando de movimento
-                        Command moveCommand = new MoveShapeCommand(selectedShape, dx, dy);
+                        // Criar comando de movimento (um só para o grupo inteiro)
+                        Command moveCommand = moveSet.length == 1
+                                ? new MoveShapeCommand(DrawingPanel.this, moveSet[0], dx, dy)
+                                : new MoveShapesCommand(DrawingPanel.this, moveSet, dx, dy);
                         // Note: o movimento já foi aplicado durante o drag, então fazemos undo e execute
                         moveCommand.undo();
                         commandManager.executeCommand(moveCommand);
+                    } else if (dx != 0 || dy != 0) {
+                        // Movimento pequeno demais para virar comando: desfazer
+                        translateShapesDirectly(moveSet, -dx, -dy);
                     }
                 } else if (isDragging) {
+                    boolean hadPreview = previewBounds(lastPreviewRect);
                     if (endDrag != null &&
                             (Math.abs(endDrag.x - startDrag.x) > 5 || Math.abs(endDrag.y - startDrag.y) > 5)) {
                         // Criar figura com tamanho definido pelo arraste
@@ -118,245 +354,1223 @@ class DrawingPanel extends JPanel {
 
                     isDragging = false;
                     endDrag = null;
+                    repaintPreview(hadPreview);
                 }
 
                 startDrag = null;
                 lastMousePos = null;
-                repaint();
+                moveSet = null;
+            }
+
+            // Roda do mouse: zoom em volta do cursor
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                beginInteraction();
+                zoomAt(e.getX(), e.getY(), Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()));
             }
         };
 
         addMouseListener(mouse);
         addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    // Ponto do mouse em coordenadas do mundo, escrito em 'out' (sem arredondar)
+    private Point2D.Double toWorld(MouseEvent e, Point2D.Double out) {
+        out.setLocation(viewport.toWorldX(e.getX()), viewport.toWorldY(e.getY()));
+        return out;
     }
 
     private void setupKeyListeners() {
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                if (e.getKeyCode() == KeyEvent.VK_DELETE && selectedShape != null) {
-                    removeShape(selectedShape);
+                if (e.getKeyCode() == KeyEvent.VK_DELETE) {
+                    removeSelection();
+                } else if (e.isControlDown() && e.getKeyCode() == KeyEvent.VK_A) {
+                    selectAll();
                 } else if (e.isControlDown() && e.getKeyCode() == KeyEvent.VK_Z) {
                     undo();
                 } else if (e.isControlDown() && e.getKeyCode() == KeyEvent.VK_Y) {
                     redo();
+                } else if (e.isControlDown() && (e.getKeyCode() == KeyEvent.VK_EQUALS
+                        || e.getKeyCode() == KeyEvent.VK_PLUS || e.getKeyCode() == KeyEvent.VK_ADD)) {
+                    zoomIn();
+                } else if (e.isControlDown() && (e.getKeyCode() == KeyEvent.VK_MINUS
+                        || e.getKeyCode() == KeyEvent.VK_SUBTRACT)) {
+                    zoomOut();
+                } else if (e.isControlDown() && (e.getKeyCode() == KeyEvent.VK_0
+                        || e.getKeyCode() == KeyEvent.VK_NUMPAD0)) {
+                    resetView();
+                } else if (e.getKeyCode() == KeyEvent.VK_F3) {
+                    setHudVisible(!hudVisible);
                 }
             }
         });
     }
 
-    private void selectShapeAt(Point point) {
-        // Deselecionar figura anterior
-        if (selectedShape != null) {
-            selectedShape.setSelected(false);
+    void selectShapeAt(Point2D point) {
+        long start = System.nanoTime();
+        // Deselecionar figuras anteriores
+        clearSelection();
+
+        // Buscar no índice a figura mais ao topo no ponto
+        FigureShape hit = index.topmostAt(point);
+        if (hit != null) {
+            select(hit);
         }
+        metrics.record(EditorMetrics.Operation.HIT_TEST, System.nanoTime() - start);
+    }
+
+    private void select(FigureShape shape) {
+        shape.setSelected(true);
+        selection.add(shape);
+        repaintView(shape);
+    }
 
-        // Buscar figura no ponto (do mais recente para o mais antigo)
-        for (int i = shapes.size() - 1; i >= 0; i--) {
-            FigureShape shape = shapes.get(i);
-            if (shape.contains(point)) {
-                selectedShape = shape;
-                shape.setSelected(true);
-                break;
+    // Seleção por área: consulta no índice e seleciona as figuras inteiramente dentro
+    void selectInside(Rectangle2D area) {
+        index.query(area, nearby);
+        beginUpdate();
+        try {
+            for (int i = 0, n = nearby.size(); i < n; i++) {
+                FigureShape shape = nearby.get(i);
+                if (!shape.isSelected() && area.contains(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight())) {
+                    select(shape);
+                }
             }
+        } finally {
+            endUpdate();
         }
+    }
 
-        if (selectedShape == null) {
-            // Nenhuma figura encontrada no ponto
+    public void selectAll() {
+        beginUpdate();
+        try {
+            for (FigureShape shape : store.liveFigures()) {
+                if (!shape.isSelected()) select(shape);
+            }
+        } finally {
+            endUpdate();
         }
     }
 
-    private Point applySnap(Point point) {
-        Point snapped = new Point(point);
+    // Uma repintura para a união das figuras que saem da seleção
+    public void clearSelection() {
+        pruneSelection();
+        if (selection.isEmpty()) return;
+        beginUpdate();
+        try {
+            for (int i = 0, n = selection.size(); i < n; i++) {
+                FigureShape shape = selection.get(i);
+                shape.setSelected(false);
+                repaintView(shape);
+            }
+            selection.clear();
+        } finally {
+            endUpdate();
+        }
+    }
 
-        // Snap para bordas de outras figuras
-        for (FigureShape shape : shapes) {
-            if (shape == selectedShape) continue;
+    private void pruneSelection() {
+        if (selectionStale) {
+            selection.removeIf(shape -> !shape.isLive() || !shape.isSelected());
+            selectionStale = false;
+        }
+    }
 
-            Rectangle2D bounds = shape.getBounds();
+    public List<FigureShape> getSelection() {
+        pruneSelection();
+        return Collections.unmodifiableList(selection);
+    }
 
-            // Snap horizontal
-            if (Math.abs(point.x - bounds.getX()) < SNAP_DISTANCE) {
-                snapped.x = (int) bounds.getX();
-            } else if (Math.abs(point.x - (bounds.getX() + bounds.getWidth())) < SNAP_DISTANCE) {
-                snapped.x = (int) (bounds.getX() + bounds.getWidth());
-            }
+    // Cópia da seleção na ordem de desenho, para os comandos de grupo
+    private FigureShape[] selectionArray() {
+        pruneSelection();
+        FigureShape[] shapes = selection.toArray(new FigureShape[0]);
+        Arrays.sort(shapes, DRAW_ORDER);
+        return shapes;
+    }
 
-            // Snap vertical
-            if (Math.abs(point.y - bounds.getY()) < SNAP_DISTANCE) {
-                snapped.y = (int) bounds.getY();
-            } else if (Math.abs(point.y - (bounds.getY() + bounds.getHeight())) < SNAP_DISTANCE) {
-                snapped.y = (int) (bounds.getY() + bounds.getHeight());
-            }
+    // Remover, mover e recolorir a seleção viram um único comando
+    public void removeSelection() {
+        FigureShape[] shapes = selectionArray();
+        if (shapes.length == 1) {
+            removeShape(shapes[0]);
+        } else if (shapes.length > 1) {
+            commandManager.executeCommand(new RemoveShapesCommand(this, shapes));
+        }
+    }
+
+    public void moveSelection(double dx, double dy) {
+        FigureShape[] shapes = selectionArray();
+        if (shapes.length > 0) {
+            commandManager.executeCommand(new MoveShapesCommand(this, shapes, dx, dy));
+        }
+    }
+
+    public void recolorSelection(Color color) {
+        FigureShape[] shapes = selectionArray();
+        if (shapes.length > 0) {
+            commandManager.executeCommand(new RecolorShapesCommand(this, shapes, color));
         }
+    }
 
+    // Snap de um ponto (o cursor) à borda ou centro mais próximo; objeto reutilizado
+    Point2D applySnap(double x, double y) {
+        long start = System.nanoTime();
+        Point2D.Double snapped = snapPoint;
+        snapped.setLocation(x, y);
+        snapper.prepare(store);
+
+        // A distância é em pixels da tela
+        double snapDistance = SNAP_DISTANCE / viewport.getScale();
+        if (snapper.snapX(x, x, snapDistance, snapX)) {
+            snapped.x = snapX.guide;
+        }
+        if (snapper.snapY(y, y, snapDistance, snapY)) {
+            snapped.y = snapY.guide;
+        }
+        metrics.record(EditorMetrics.Operation.SNAP, System.nanoTime() - start);
         return snapped;
     }
 
+    // Deslocamento (dx, dy) pedido para figuras com limites 'bounds', ajustado para que
+    // a borda ou o centro mais próximo encoste em uma figura parada; objeto reutilizado
+    Point2D snapMove(Rectangle2D bounds, double dx, double dy) {
+        long start = System.nanoTime();
+        double snapDistance = SNAP_DISTANCE / viewport.getScale();
+        double x = bounds.getX() + dx, y = bounds.getY() + dy;
+        if (snapper.snapX(x, x + bounds.getWidth(), snapDistance, snapX)) dx += snapX.delta;
+        if (snapper.snapY(y, y + bounds.getHeight(), snapDistance, snapY)) dy += snapY.delta;
+        snapOffset.setLocation(dx, dy);
+        metrics.record(EditorMetrics.Operation.SNAP, System.nanoTime() - start);
+        return snapOffset;
+    }
+
+    // Início do arraste do grupo: índice de snap atualizado (se a cena mudou) e limites iniciais
+    private void beginMove() {
+        snapper.prepare(store);
+        appliedDx = 0;
+        appliedDy = 0;
+        for (int i = 0; i < moveSet.length; i++) {
+            FigureShape shape = moveSet[i];
+            if (i == 0) {
+                moveStart.setRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+            } else {
+                moveStart.add(shape.getX(), shape.getY());
+                moveStart.add(shape.getMaxX(), shape.getMaxY());
+            }
+        }
+    }
+
+    // Guias do último snapMove: do alvo até a posição nova do grupo
+    private void updateGuides() {
+        clearGuides();
+        double x = moveStart.x + snapOffset.x, y = moveStart.y + snapOffset.y;
+        if (snapX.found) {
+            FigureShape target = snapX.target;
+            double y0 = Math.min(y, target.getY()), y1 = Math.max(y + moveStart.height, target.getMaxY());
+            guideX.setRect(snapX.guide, y0, 0, y1 - y0);
+            hasGuideX = true;
+            repaintView(guideX);
+        }
+        if (snapY.found) {
+            FigureShape target = snapY.target;
+            double x0 = Math.min(x, target.getX()), x1 = Math.max(x + moveStart.width, target.getMaxX());
+            guideY.setRect(x0, snapY.guide, x1 - x0, 0);
+            hasGuideY = true;
+            repaintView(guideY);
+        }
+    }
+
+    private void clearGuides() {
+        if (hasGuideX) {
+            hasGuideX = false;
+            repaintView(guideX);
+        }
+        if (hasGuideY) {
+            hasGuideY = false;
+            repaintView(guideY);
+        }
+    }
+
     private void createShapeFromDrag() {
-        int x = Math.min(startDrag.x, endDrag.x);
-        int y = Math.min(startDrag.y, endDrag.y);
-        int width = Math.abs(endDrag.x - startDrag.x);
-        int height = Math.abs(endDrag.y - startDrag.y);
+        double x = Math.min(startDrag.x, endDrag.x);
+        double y = Math.min(startDrag.y, endDrag.y);
+        double width = Math.abs(endDrag.x - startDrag.x);
+        double height = Math.abs(endDrag.y - startDrag.y);
 
         // Tamanho mínimo
         width = Math.max(width, 10);
         height = Math.max(height, 10);
 
-        Shape shape = createShape(x, y, width, height);
-        FigureShape figureShape = new FigureShape(shape, currentColor, currentShapeType);
+        FigureShape figureShape = new FigureShape(store, currentShapeType, x, y, width, height, currentColor);
 
         Command addCommand = new AddShapeCommand(this, figureShape);
         commandManager.executeCommand(addCommand);
     }
 
-    private void createDefaultShape(Point point) {
-        Shape shape = createShape(point.x - DEFAULT_SIZE/2, point.y - DEFAULT_SIZE/2,
-                DEFAULT_SIZE, DEFAULT_SIZE);
-        FigureShape figureShape = new FigureShape(shape, currentColor, currentShapeType);
+    private void createDefaultShape(Point2D.Double point) {
+        FigureShape figureShape = new FigureShape(store, currentShapeType,
+                point.x - DEFAULT_SIZE/2, point.y - DEFAULT_SIZE/2, DEFAULT_SIZE, DEFAULT_SIZE, currentColor);
 
         Command addCommand = new AddShapeCommand(this, figureShape);
         commandManager.executeCommand(addCommand);
     }
 
-    private Shape createShape(int x, int y, int width, int height) {
-        return switch (currentShapeType) {
-            case CIRCLE -> new Ellipse2D.Double(x, y, width, height);
-            case RECTANGLE -> new Rectangle2D.Double(x, y, width, height);
-        };
-    }
-
     public void addShapeDirectly(FigureShape shape) {
-        shapes.add(shape);
-        repaint();
+        if (shape.isLive()) return;
+        store.attach(shape);
+        index.insert(shape);
+        snapper.changed(shape);
+        if (journal != null) journal.figureAdded(shape);
+        if (collab != null) collab.figureAdded(shape);
+        markDamaged(shape);
     }
 
     public void removeShapeDirectly(FigureShape shape) {
-        shapes.remove(shape);
-        if (selectedShape == shape) {
-            selectedShape = null;
+        if (!shape.isLive()) return;
+        store.detach(shape);
+        index.remove(shape);
+        snapper.changed(shape);
+        if (journal != null) journal.figureRemoved(shape);
+        if (collab != null) collab.figureRemoved(shape);
+        if (shape.isSelected()) {
+            shape.setSelected(false);
+            selectionStale = true;
         }
-        repaint();
+        markDamaged(shape);
     }
 
-    private void removeShape(FigureShape shape) {
-        Command removeCommand = new Command() {
-            @Override
-            public void execute() {
+    // Operações de grupo: uma única repintura para a união das áreas
+    public void addShapesDirectly(FigureShape[] shapes) {
+        beginUpdate();
+        try {
+            for (FigureShape shape : shapes) {
+                addShapeDirectly(shape);
+            }
+        } finally {
+            endUpdate();
+        }
+    }
+
+    public void removeShapesDirectly(FigureShape[] shapes) {
+        beginUpdate();
+        try {
+            for (FigureShape shape : shapes) {
                 removeShapeDirectly(shape);
             }
+        } finally {
+            endUpdate();
+        }
+    }
 
-            @Override
-            public void undo() {
-                addShapeDirectly(shape);
+    // Cores por figura (argb) ou, com argb == null, a mesma cor para todas
+    public void recolorShapesDirectly(FigureShape[] shapes, int[] argb, int color) {
+        beginUpdate();
+        try {
+            for (int i = 0; i < shapes.length; i++) {
+                FigureShape shape = shapes[i];
+                shape.setArgb(argb != null ? argb[i] : color);
+                if (journal != null) journal.figureRecolored(shape);
+                if (collab != null) collab.figureRecolored(shape);
+                if (shape.isLive()) {
+                    markDamaged(shape);
+                }
             }
-        };
+        } finally {
+            endUpdate();
+        }
+    }
+
+    // Recicla a linha de uma figura fora da cena que saiu do histórico
+    public void releaseShape(FigureShape shape) {
+        if (!shape.isLive()) {
+            store.release(shape);
+        }
+    }
+
+    private void markDamaged(FigureShape shape) {
+        damage.setRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+        layerCache.markDamaged(shape, damage);
+        repaintArea(damage);
+    }
+
+    private void removeShape(FigureShape shape) {
+        Command removeCommand = new RemoveShapeCommand(this, shape);
         commandManager.executeCommand(removeCommand);
     }
 
+    public void recolorShapeDirectly(FigureShape shape, Color color) {
+        shape.setColor(color);
+        if (journal != null) journal.figureRecolored(shape);
+        if (collab != null) collab.figureRecolored(shape);
+        if (shape.isLive()) {
+            markDamaged(shape);
+        }
+    }
+
+    // Lotes: várias operações viram uma única entrada de undo e uma única repintura
+    public void beginBatch() {
+        commandManager.beginBatch();
+    }
+
+    public void commitBatch() {
+        commandManager.commitBatch();
+    }
+
+    public void rollbackBatch() {
+        commandManager.rollbackBatch();
+    }
+
+    public void executeCommand(Command command) {
+        commandManager.executeCommand(command);
+    }
+
+    CommandManager getCommandManager() { return commandManager; }
+
+    void setJournal(SceneJournal journal) { this.journal = journal; }
+
+    void setCollab(CollabClient collab) { this.collab = collab; }
+    CollabClient getCollab() { return collab; }
+
+    // Fim de um lote de operações remotas (colaboração): publica como um comando
+    void remoteApplied() {
+        if (journal != null) journal.remoteApplied();
+        commandApplied();
+    }
+
+    // Adia as repinturas até o endUpdate mais externo
+    void beginUpdate() {
+        updateDepth++;
+    }
+
+    void endUpdate() {
+        if (updateDepth > 0 && --updateDepth == 0 && hasDeferredRepaint) {
+            hasDeferredRepaint = false;
+            repaintArea(deferredRepaint);
+        }
+    }
+
     public void clear() {
-        if (!shapes.isEmpty()) {
+        if (store.liveCount() > 0) {
             Command clearCommand = new ClearCommand(this);
             commandManager.executeCommand(clearCommand);
         }
     }
 
+    public void translateShapeDirectly(FigureShape shape, double dx, double dy) {
+        if (journal != null) journal.figureMoved(shape, dx, dy);
+        if (collab != null) collab.figureMoved(shape);
+        if (!shape.isLive()) {
+            shape.translate(dx, dy);
+            return;
+        }
+        // A geometria é alterada no lugar, então guardar os limites antigos antes
+        movedFrom.setRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+        shape.translate(dx, dy);
+        index.update(shape, movedFrom);
+        snapper.changed(shape);
+        damage.setRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+        damage.add(movedFrom);
+        layerCache.markDamaged(shape, damage);
+        repaintArea(damage);
+    }
+
     public void clearDirectly() {
-        shapes.clear();
-        selectedShape = null;
-        repaint();
+        pruneSelection();
+        for (int i = 0, n = selection.size(); i < n; i++) {
+            selection.get(i).setSelected(false);
+        }
+        selection.clear();
+        // A colaboração precisa das figuras que saem da cena
+        if (collab != null) collab.sceneClearing();
+        store.detachAll();
+        index.clear();
+        snapper.invalidate();
+        if (journal != null) journal.sceneCleared();
+        layerCache.markAllDamaged();
+        repaintScene();
+    }
+
+    // Move o grupo inteiro: o índice é atualizado figura a figura, mas a área suja é a
+    // união dos limites antigos e novos, com uma única repintura
+    public void translateShapesDirectly(FigureShape[] shapes, double dx, double dy) {
+        if (journal != null) journal.figuresMoved(shapes, dx, dy);
+        if (collab != null) collab.figuresMoved(shapes);
+        boolean damaged = false, layerDamaged = false;
+        for (FigureShape shape : shapes) {
+            if (!shape.isLive()) {
+                shape.translate(dx, dy);
+                continue;
+            }
+            movedFrom.setRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+            shape.translate(dx, dy);
+            index.update(shape, movedFrom);
+            snapper.changed(shape);
+            if (!damaged) {
+                damage.setRect(movedFrom);
+                damaged = true;
+            } else {
+                damage.add(movedFrom);
+            }
+            damage.add(shape.getMaxX(), shape.getMaxY());
+            damage.add(shape.getX(), shape.getY());
+            // Figuras em overlay não estão na camada em cache
+            if (!shape.isOverlay()) {
+                if (!layerDamaged) {
+                    layerDamage.setRect(movedFrom);
+                    layerDamaged = true;
+                } else {
+                    layerDamage.add(movedFrom);
+                }
+                layerDamage.add(shape.getMaxX(), shape.getMaxY());
+                layerDamage.add(shape.getX(), shape.getY());
+            }
+        }
+        if (layerDamaged) layerCache.markDamaged(null, layerDamage);
+        if (damaged) repaintArea(damage);
+    }
+
+    // Recoloca figuras limpas (undo do ClearCommand). Com a cena vazia as linhas
+    // voltam no lugar, já na ordem de desenho original, sem cópia.
+    public void restoreShapesDirectly(FigureShape[] restored) {
+        if (store.liveCount() > 0) {
+            for (FigureShape shape : restored) {
+                addShapeDirectly(shape);
+            }
+            return;
+        }
+        for (FigureShape shape : restored) {
+            store.attachInPlace(shape);
+            index.insert(shape);
+        }
+        snapper.invalidate();
+        if (journal != null) journal.figuresRestored(restored);
+        if (collab != null) collab.figuresRestored(restored);
+        layerCache.markAllDamaged();
+        repaintScene();
     }
 
+    // Os comandos já invalidam apenas a região que alteraram
     public void undo() {
         commandManager.undo();
-        repaint();
     }
 
     public void redo() {
         commandManager.redo();
+    }
+
+    private void repaintView(FigureShape shape) {
+        damage.setRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+        repaintView(damage);
+    }
+
+    // A cena mudou na área: além de repintar, o próximo quadro da thread de desenho a refaz
+    private void repaintArea(Rectangle2D area) {
+        if (renderThread != null) {
+            if (hasFrameDirty) {
+                frameDirty.add(area);
+            } else {
+                frameDirty.setRect(area);
+                hasFrameDirty = true;
+            }
+        }
+        fireSceneChanged(area);
+        repaintView(area);
+    }
+
+    // A cena inteira mudou
+    private void repaintScene() {
+        frameDirtyAll = true;
+        fireSceneChanged(null);
         repaint();
     }
 
+    // Repinta só a área (com folga para borda e seleção) em vez do painel inteiro;
+    // a área está em coordenadas do mundo e é convertida para a tela pela vista.
+    // Sozinho serve para o que é desenhado por cima da cena (seleção, preview, guias)
+    private void repaintView(Rectangle2D area) {
+        if (updateDepth > 0) {
+            if (hasDeferredRepaint) {
+                deferredRepaint.add(area);
+            } else {
+                deferredRepaint.setRect(area);
+                hasDeferredRepaint = true;
+            }
+            return;
+        }
+        repaintWorld.setRect(area.getX() - PAINT_MARGIN, area.getY() - PAINT_MARGIN,
+                area.getWidth() + 2 * PAINT_MARGIN, area.getHeight() + 2 * PAINT_MARGIN);
+        viewport.toScreen(repaintWorld, screenArea);
+        repaint(screenArea.x - 1, screenArea.y - 1, screenArea.width + 2, screenArea.height + 2);
+    }
+
+    // Zoom mantendo fixo o ponto da tela; a camada em cache é refeita pela versão da vista
+    void zoomAt(double screenX, double screenY, double factor) {
+        int version = viewport.getVersion();
+        viewport.zoomAt(screenX, screenY, factor);
+        viewChanged(version);
+    }
+
+    public void zoomIn() { zoomAt(getWidth() / 2.0, getHeight() / 2.0, ZOOM_STEP); }
+    public void zoomOut() { zoomAt(getWidth() / 2.0, getHeight() / 2.0, 1 / ZOOM_STEP); }
+
+    public void resetView() {
+        int version = viewport.getVersion();
+        viewport.reset();
+        viewChanged(version);
+    }
+
+    // Move a vista (mesmo zoom) para que o ponto do mundo fique no centro do painel
+    public void centerViewOn(double worldX, double worldY) {
+        int version = viewport.getVersion();
+        viewport.pan(getWidth() / 2.0 - viewport.toScreenX(worldX), getHeight() / 2.0 - viewport.toScreenY(worldY));
+        viewChanged(version);
+    }
+
+    // Repinta e avisa quem acompanha a vista (propriedade "view", com a versão da vista)
+    private void viewChanged(int oldVersion) {
+        int version = viewport.getVersion();
+        if (version == oldVersion) return;
+        repaint();
+        firePropertyChange("view", oldVersion, version);
+    }
+
+    public double getZoom() { return viewport.getScale(); }
+    Viewport getViewport() { return viewport; }
+
+    // Repinta a união do preview anterior (em lastPreviewRect) com o atual
+    private void repaintPreview(boolean hadPreview) {
+        repaintChange(hadPreview, lastPreviewRect, previewBounds(previewRect), previewRect);
+    }
+
+    private void repaintChange(boolean hadBefore, Rectangle2D before, boolean hasNow, Rectangle2D now) {
+        if (hadBefore && hasNow) {
+            Rectangle2D.union(before, now, damage);
+            repaintView(damage);
+        } else if (hadBefore) {
+            repaintView(before);
+        } else if (hasNow) {
+            repaintView(now);
+        }
+    }
+
+    // Retângulo da seleção por área em 'out'; false se não há seleção por área
+    private boolean marqueeBounds(Rectangle2D out) {
+        if (!isMarquee || startDrag == null || endDrag == null) {
+            return false;
+        }
+        out.setRect(Math.min(startDrag.x, endDrag.x), Math.min(startDrag.y, endDrag.y),
+                Math.abs(endDrag.x - startDrag.x), Math.abs(endDrag.y - startDrag.y));
+        return true;
+    }
+
+    // Preenche 'out' com os limites do preview; false se não há preview
+    private boolean previewBounds(Rectangle2D out) {
+        if (!isDragging || startDrag == null || endDrag == null) {
+            return false;
+        }
+        double x = Math.min(startDrag.x, endDrag.x);
+        double y = Math.min(startDrag.y, endDrag.y);
+        double width = Math.abs(endDrag.x - startDrag.x);
+        double height = Math.abs(endDrag.y - startDrag.y);
+        out.setRect(x, y, Math.max(width, 10), Math.max(height, 10));
+        return true;
+    }
+
+    // A exportação roda fora do EDT sobre a versão publicada da cena; o desenho continua editável
     public void exportToPNG() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setSelectedFile(new File("drawing.png"));
 
-        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                File file = fileChooser.getSelectedFile();
-                BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-                Graphics2D g2 = image.createGraphics();
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+
+        String input = JOptionPane.showInputDialog(this, "Escala da exportação (1 = 100%):", "1");
+        if (input == null) return;
+        double scale;
+        try {
+            scale = Double.parseDouble(input.trim().replace(',', '.'));
+        } catch (NumberFormatException ex) {
+            scale = Double.NaN;
+        }
+        if (!(scale > 0)) {
+            JOptionPane.showMessageDialog(this, "Escala inválida: " + input);
+            return;
+        }
+
+        SceneVersion scene = store.published();
+        Rectangle2D region = exportRegion(scene);
+        double exportScale = scale;
+        Color background = getBackground();
+        TiledPngExporter exporter = new TiledPngExporter(TiledPngExporter.DEFAULT_TILE_SIZE,
+                Runtime.getRuntime().availableProcessors(), directRaster);
+        runExport(file, (out, progress) -> exporter.export(scene.toSnapshot(), region, exportScale,
+                (int) Math.round(EXPORT_BASE_DPI * exportScale), background, out, progress));
+    }
+
+    // SVG (ou .svgz, comprimido com gzip) gerado fora do EDT sobre a versão publicada da cena
+    public void exportToSVG() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("drawing.svg"));
 
-                // Temporariamente remover seleção para exportar
-                FigureShape tempSelected = selectedShape;
-                if (selectedShape != null) {
-                    selectedShape.setSelected(false);
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+        boolean gzip = file.getName().toLowerCase().endsWith(".svgz");
+
+        SceneVersion scene = store.published();
+        Rectangle2D region = exportRegion(scene);
+        Color background = getBackground();
+        runExport(file, (out, progress) -> {
+            SceneSnapshot snapshot = scene.toSnapshot();
+            if (gzip) {
+                // Compressão rápida: o custo do deflate domina a exportação
+                GZIPOutputStream zip = new GZIPOutputStream(out, 64 * 1024) {
+                    { def.setLevel(Deflater.BEST_SPEED); }
+                };
+                new SvgExporter().export(snapshot, region, background, zip);
+                zip.finish();
+            } else {
+                new SvgExporter().export(snapshot, region, background, out);
+            }
+        });
+    }
+
+    // Escrita de um arquivo exportado, executada por um SwingWorker
+    private interface ExportJob {
+        void write(OutputStream out, IntConsumer progress) throws IOException;
+    }
+
+    private void runExport(File file, ExportJob job) {
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                long start = System.nanoTime();
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    job.write(out, this::setProgress);
+                }
+                metrics.record(EditorMetrics.Operation.EXPORT, System.nanoTime() - start);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(DrawingPanel.this, "Arquivo exportado com sucesso!");
+                } catch (Exception ex) {
+                    showError("Erro ao exportar: ", ex);
+                }
+            }
+        }.execute();
+    }
+
+    // Salva no formato binário nativo (FigureDocument), fora do EDT
+    public void saveDocument() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("drawing.fged"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+
+        SceneVersion scene = store.published();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                FigureDocument.save(scene.toSnapshot(), file.toPath());
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(DrawingPanel.this, "Desenho salvo com sucesso!");
+                } catch (Exception ex) {
+                    showError("Erro ao salvar: ", ex);
                 }
+            }
+        }.execute();
+    }
 
-                paint(g2);
-                g2.dispose();
+    // Lê o arquivo mapeado fora do EDT e troca a cena de uma vez no EDT
+    public void openDocument() {
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+
+        new SwingWorker<SceneSnapshot, Void>() {
+            @Override
+            protected SceneSnapshot doInBackground() throws Exception {
+                return FigureDocument.open(file.toPath()).toSnapshot();
+            }
 
-                // Restaurar seleção
-                if (tempSelected != null) {
-                    tempSelected.setSelected(true);
+            @Override
+            protected void done() {
+                try {
+                    loadSnapshot(get());
+                } catch (Exception ex) {
+                    showError("Erro ao abrir: ", ex);
                 }
+            }
+        }.execute();
+    }
+
+    // Importa figuras de CSV ou JSON Lines (ver FigureImporter)
+    public void importFigures() {
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        importFile(fileChooser.getSelectedFile().toPath());
+    }
+
+    // Leitura e análise fora do EDT; cada bloco entra na cena assim que chega, como um
+    // AddShapesCommand do mesmo grupo: a importação inteira vira um único passo de undo
+    SwingWorker<Long, Void> importFile(Path file) {
+        if (importWorker != null) importWorker.cancel(true);
+        Object group = new Object();
+        int defaultArgb = currentColor.getRGB();
+        SwingWorker<Long, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                long size = Math.max(1, Files.size(file));
+                return new FigureImporter(defaultArgb).read(file, FigureImporter.Format.of(file),
+                        figures -> SwingUtilities.invokeLater(() -> insertImported(this, figures, group)),
+                        read -> setProgress((int) Math.min(100, read * 100 / size)));
+            }
 
-                ImageIO.write(image, "PNG", file);
-                JOptionPane.showMessageDialog(this, "Imagem exportada com sucesso!");
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Erro ao exportar: " + ex.getMessage());
+            @Override
+            protected void done() {
+                if (importWorker == this) importWorker = null;
+                if (isCancelled()) return;
+                try {
+                    get();
+                } catch (Exception ex) {
+                    showError("Erro ao importar: ", ex);
+                }
             }
+        };
+        importWorker = worker;
+        worker.execute();
+        return worker;
+    }
+
+    private void insertImported(SwingWorker<?, ?> worker, SceneSnapshot figures, Object group) {
+        if (worker.isCancelled()) return;
+        FigureShape[] shapes = new FigureShape[figures.size()];
+        for (int i = 0; i < shapes.length; i++) {
+            shapes[i] = new FigureShape(store, figures.type(i), figures.x(i), figures.y(i),
+                    figures.width(i), figures.height(i), figures.argb(i));
         }
+        commandManager.executeCommand(new AddShapesCommand(this, shapes, group));
     }
 
+    // Substitui a cena inteira; abrir um desenho não entra no histórico
+    void loadSnapshot(SceneSnapshot snapshot) {
+        if (importWorker != null) importWorker.cancel(true);
+        commandManager.clearHistory();
+        metrics.setHistory(0, 0);
+        selection.clear();
+        selectionStale = false;
+        layerCache.setExcluded(null);
+        store.clear();
+        index.clear();
+        for (int i = 0, n = snapshot.size(); i < n; i++) {
+            FigureShape shape = new FigureShape(store, snapshot.type(i), snapshot.x(i), snapshot.y(i),
+                    snapshot.width(i), snapshot.height(i), snapshot.argb(i));
+            store.attach(shape);
+            index.insert(shape);
+        }
+        snapper.invalidate();
+        layerCache.invalidateAll();
+        store.publish();
+        repaintScene();
+        firePublished();
+        // A cena nova vira a base do journal
+        if (journal != null) journal.compact();
+    }
+
+    private void showError(String prefix, Exception ex) {
+        Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+        JOptionPane.showMessageDialog(this, prefix + cause.getMessage());
+    }
+
+    // Área visível da vista (no mundo) ampliada para incluir figuras fora dela
+    private Rectangle2D exportRegion(SceneVersion scene) {
+        Rectangle2D region = new Rectangle2D.Double();
+        viewport.toWorld(new Rectangle(0, 0, Math.max(1, getWidth()), Math.max(1, getHeight())), region);
+        if (scene.size() > 0) {
+            Rectangle2D bounds = scene.bounds();
+            bounds.setRect(bounds.getX() - PAINT_MARGIN, bounds.getY() - PAINT_MARGIN,
+                    bounds.getWidth() + 2 * PAINT_MARGIN, bounds.getHeight() + 2 * PAINT_MARGIN);
+            region.add(bounds);
+        }
+        return region;
+    }
+
+    // Entrada do usuário: o timer só é armado no início da interação (sem alocar por evento)
+    void beginInteraction() {
+        if (!adaptiveQuality) return;
+        lastInputNanos = System.nanoTime();
+        if (!interacting) {
+            interacting = true;
+            idleTimer.setInitialDelay(IDLE_DELAY_MS);
+            idleTimer.restart();
+        }
+    }
+
+    private void checkIdle() {
+        long idleMs = (System.nanoTime() - lastInputNanos) / 1_000_000;
+        if (idleMs < IDLE_DELAY_MS) {
+            idleTimer.setInitialDelay((int) (IDLE_DELAY_MS - idleMs));
+            idleTimer.restart();
+            return;
+        }
+        endInteraction();
+    }
+
+    // Volta à qualidade total e redesenha tudo
+    private void endInteraction() {
+        idleTimer.stop();
+        interacting = false;
+        renderer.setDetailPixels(1);
+        if (layerDegraded) {
+            layerDegraded = false;
+            layerCache.invalidateAll();
+        }
+        repaint();
+    }
+
+    public boolean isAdaptiveQuality() { return adaptiveQuality; }
+    public void setAdaptiveQuality(boolean adaptiveQuality) {
+        this.adaptiveQuality = adaptiveQuality;
+        if (!adaptiveQuality && interacting) {
+            endInteraction();
+        }
+    }
+
+    public double getFrameBudgetMillis() { return frameBudgetNanos / 1e6; }
+    public void setFrameBudgetMillis(double millis) {
+        if (!(millis > 0)) {
+            throw new IllegalArgumentException("Orçamento de quadro deve ser positivo");
+        }
+        this.frameBudgetNanos = (long) (millis * 1_000_000);
+    }
+
+    // Duração do último paintComponent
+    public long getLastFrameNanos() { return lastFrameNanos; }
+
     // Getters e setters
     public Color getCurrentColor() { return currentColor; }
-    public void setCurrentColor(Color color) { this.currentColor = color; }
+    public void setCurrentColor(Color color) {
+        this.currentColor = color;
+        this.previewColor = RenderStyles.withAlpha(color, RenderStyles.PREVIEW_ALPHA);
+    }
+
     public void setShapeType(ShapeType type) { this.currentShapeType = type; }
-    public List<FigureShape> getShapes() { return new ArrayList<>(shapes); }
+    // Lista nova com as figuras vivas; só no EDT (fora dele, use getSceneVersion)
+    public List<FigureShape> getShapes() { return store.liveFigures(); }
+    // Última versão publicada da cena: imutável, pode ser lida de qualquer thread
+    public SceneVersion getSceneVersion() { return store.published(); }
+    FigureStore getStore() { return store; }
+    public boolean isLayerCacheEnabled() { return layerCacheEnabled; }
+    EditorMetrics getMetrics() { return metrics; }
+    public boolean isHudVisible() { return hudVisible; }
+
+    // Liga o HUD de métricas (também com F3); o timer só roda com o HUD visível
+    public void setHudVisible(boolean visible) {
+        if (visible == hudVisible) return;
+        hudVisible = visible;
+        firePropertyChange("hudVisible", !visible, visible);
+        hudUpdatedAt = 0;
+        if (visible) {
+            hudTimer.start();
+            repaint();
+        } else {
+            hudTimer.stop();
+            repaint(hudBounds);
+        }
+    }
+    public boolean isRenderThreadEnabled() { return renderThread != null; }
+
+    // Liga ou desliga o desenho em thread separada; a camada em cache só é usada sem ele
+    public void setRenderThreadEnabled(boolean enabled) {
+        if (enabled == (renderThread != null)) return;
+        if (enabled) {
+            renderThread = new RenderThread(getBackground(), this::repaint);
+            frameDirtyAll = true;
+        } else {
+            renderThread.stop();
+            renderThread = null;
+            frontFrame = null;
+            hasFrameDirty = false;
+        }
+        layerCache.setExcluded(null);
+        layerCache.invalidateAll();
+        repaint();
+    }
+
+    public boolean isDirectRasterEnabled() { return directRaster; }
+
+    // Rasterizador direto para os quadros da thread de desenho e para o PNG exportado
+    public void setDirectRasterEnabled(boolean enabled) {
+        if (enabled == directRaster) return;
+        directRaster = enabled;
+        frameDirtyAll = true;
+        repaint();
+    }
+
+    public void setLayerCacheEnabled(boolean enabled) {
+        this.layerCacheEnabled = enabled;
+        if (!enabled) layerCache.invalidateAll();
+    }
+
+    // Figuras sendo arrastadas com Shift, desenhadas como overlay
+    private FigureShape[] movingShapes() {
+        return isSelecting && startDrag != null ? moveSet : null;
+    }
 
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D) g.create();
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // Usar o próprio Graphics (sem create()) e restaurar o estado no final;
+        // o fundo é pintado aqui porque super.paintComponent cria um Graphics novo
+        long frameStart = System.nanoTime();
+        Graphics2D g2 = (Graphics2D) g;
+        renderer.setQuality(interacting ? SceneRenderer.Quality.FAST : SceneRenderer.Quality.FULL);
+        Object oldAntialias = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        Stroke oldStroke = g2.getStroke();
+        Color oldColor = g2.getColor();
 
-        // Desenhar figuras
-        for (FigureShape figureShape : shapes) {
-            g2.setColor(figureShape.getColor());
-            g2.fill(figureShape.getShape());
+        clipBounds.setBounds(0, 0, getWidth(), getHeight());
+        g2.getClipBounds(clipBounds);
+        renderer.begin(g2, clipBounds, getBackground());
+        renderer.setPixelScale(viewport.getScale());
 
-            // Borda
-            g2.setColor(new Color(0, 0, 0, 70));
-            g2.setStroke(new BasicStroke(1.2f));
-            g2.draw(figureShape.getShape());
+        boolean hasPreview = previewBounds(previewRect);
+        boolean hasMarquee = marqueeBounds(marqueeRect);
+        FigureShape[] moving = movingShapes();
 
-            // Destacar figura selecionada
-            if (figureShape.isSelected()) {
-                g2.setColor(Color.RED);
-                g2.setStroke(new BasicStroke(2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 0, new float[]{5}, 0));
-                Rectangle2D bounds = figureShape.getBounds();
-                g2.draw(new Rectangle2D.Double(bounds.getX() - 2, bounds.getY() - 2,
-                        bounds.getWidth() + 4, bounds.getHeight() + 4));
+        if (renderThread != null) {
+            // Só copiar o último quadro pronto; a cena é desenhada na thread de desenho
+            requestFrame();
+            presentFrame(g2);
+            viewport.apply(g2);
+            viewport.toWorld(clipBounds, worldRegion);
+        } else if (layerCacheEnabled && (moving != null || hasPreview || hasMarquee)) {
+            // Durante a interação, compor a camada estática e desenhar só o que muda
+            layerCache.setExcluded(moving);
+            BufferedImage layer = layerCache.prepare(getGraphicsConfiguration(), getWidth(), getHeight(),
+                    viewport, layerPainter);
+            g2.drawImage(layer, 0, 0, null);
+            viewport.apply(g2);
+            viewport.toWorld(clipBounds, worldRegion);
+            if (moving != null) {
+                for (FigureShape shape : moving) {
+                    if (intersects(shape, worldRegion)) renderer.paintFigure(g2, shape);
+                }
             }
+        } else {
+            // Consultar só o retângulo do mundo visível no clip
+            viewport.apply(g2);
+            viewport.toWorld(clipBounds, worldRegion);
+            paintFigures(g2, worldRegion, false);
+        }
+
+        // Destacar figuras selecionadas
+        pruneSelection();
+        for (int i = 0, n = selection.size(); i < n; i++) {
+            FigureShape shape = selection.get(i);
+            if (intersects(shape, worldRegion)) renderer.paintSelection(g2, shape);
         }
 
         // Desenhar preview durante drag
-        if (isDragging && startDrag != null && endDrag != null) {
-            int x = Math.min(startDrag.x, endDrag.x);
-            int y = Math.min(startDrag.y, endDrag.y);
-            int width = Math.abs(endDrag.x - startDrag.x);
-            int height = Math.abs(endDrag.y - startDrag.y);
+        if (hasPreview) {
+            renderer.paintPreview(g2, currentShapeType, previewRect, previewColor);
+        }
+        if (hasMarquee) {
+            renderer.paintMarquee(g2, marqueeRect);
+        }
+
+        viewport.restore(g2);
+
+        // Guias de alinhamento em pixels da tela (traço fino em qualquer zoom)
+        if (hasGuideX || hasGuideY) {
+            g2.setColor(RenderStyles.GUIDE_COLOR);
+            g2.setStroke(RenderStyles.GUIDE_STROKE);
+            if (hasGuideX) {
+                int sx = (int) Math.round(viewport.toScreenX(guideX.x));
+                g2.drawLine(sx, (int) viewport.toScreenY(guideX.y), sx, (int) viewport.toScreenY(guideX.getMaxY()));
+            }
+            if (hasGuideY) {
+                int sy = (int) Math.round(viewport.toScreenY(guideY.y));
+                g2.drawLine((int) viewport.toScreenX(guideY.x), sy, (int) viewport.toScreenX(guideY.getMaxX()), sy);
+            }
+        }
+
+        if (hudVisible) {
+            paintHud(g2);
+        }
+
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, oldAntialias);
+        g2.setStroke(oldStroke);
+        g2.setColor(oldColor);
+
+        long paintNanos = System.nanoTime() - frameStart;
+        metrics.record(EditorMetrics.Operation.PAINT, paintNanos);
+        metrics.setFigureCount(store.liveCount());
+        // No desenho em thread, o tempo do quadro vem da thread (presentFrame)
+        if (renderThread == null) {
+            lastFrameNanos = paintNanos;
+            metrics.record(EditorMetrics.Operation.FRAME, paintNanos);
+            if (interacting) {
+                adaptDetail();
+            }
+        }
+    }
+
+    // Métricas no canto superior esquerdo, em pixels da tela; o texto só é refeito a cada
+    // HUD_REFRESH_MS para que o HUD não pese nos quadros que mede
+    private void paintHud(Graphics2D g2) {
+        g2.setFont(RenderStyles.HUD_FONT);
+        FontMetrics fm = g2.getFontMetrics();
+        long now = System.nanoTime();
+        if (now - hudUpdatedAt >= HUD_REFRESH_MS * 1_000_000L) {
+            hudLines = hudText();
+            hudWidth = 0;
+            for (String line : hudLines) {
+                hudWidth = Math.max(hudWidth, fm.stringWidth(line));
+            }
+            hudUpdatedAt = now;
+        }
+        int lineHeight = fm.getHeight();
+        hudBounds.setBounds(8, 8, hudWidth + 16, hudLines.length * lineHeight + 12);
+        g2.setColor(RenderStyles.HUD_BACKGROUND);
+        g2.fillRect(hudBounds.x, hudBounds.y, hudBounds.width, hudBounds.height);
+        g2.setColor(RenderStyles.HUD_TEXT);
+        for (int i = 0; i < hudLines.length; i++) {
+            g2.drawString(hudLines[i], hudBounds.x + 8, hudBounds.y + 6 + fm.getAscent() + i * lineHeight);
+        }
+    }
+
+    private String[] hudText() {
+        EditorMetrics.Operation[] operations = EditorMetrics.Operation.values();
+        String[] lines = new String[operations.length + 2];
+        LatencySummary frame = metrics.summary(EditorMetrics.Operation.FRAME);
+        lines[0] = String.format("quadro %7.2f ms  p99 %7.2f ms  zoom %.2fx",
+                metrics.getLastFrameMillis(), frame.getP99Micros() / 1e3, viewport.getScale());
+        for (int i = 0; i < operations.length; i++) {
+            LatencySummary s = metrics.summary(operations[i]);
+            lines[i + 1] = String.format("%-8s n=%-8d p50 %9.1f  p99 %9.1f  máx %9.1f µs", operations[i].key,
+                    s.getCount(), s.getP50Micros(), s.getP99Micros(), s.getMaxMicros());
+        }
+        double allocation = metrics.getAllocationRate();
+        lines[lines.length - 1] = String.format("figuras %d  undo %d (%.1f KB)  alocação %s",
+                metrics.getFigureCount(), metrics.getUndoEntries(), metrics.getUndoBytes() / 1024.0,
+                allocation < 0 ? "n/d" : String.format("%.1f MB/s", allocation / (1024 * 1024)));
+        return lines;
+    }
+
+    // Pede um quadro novo se a cena, a vista ou a qualidade mudaram desde o último pedido.
+    // Com a thread ocupada nada é pedido: as alterações se acumulam em frameDirty e
+    // viram um único quadro quando a thread termina (ela chama repaint)
+    private void requestFrame() {
+        int width = getWidth(), height = getHeight();
+        if (renderThread.isBusy() || width <= 0 || height <= 0) return;
+        SceneRenderer.Quality quality = renderer.getQuality();
+        double detail = renderer.getDetailPixels();
+        boolean full = frameDirtyAll || width != frameWidth || height != frameHeight
+                || viewport.getVersion() != frameViewportVersion || quality != frameQuality || detail != frameDetail;
+        if (!full && !hasFrameDirty) return;
+
+        Rectangle2D dirty = null;
+        if (full) {
+            frameArea.setBounds(0, 0, width, height);
+            viewport.toWorld(frameArea, queryArea);
+            queryArea.setRect(queryArea.x - PAINT_MARGIN, queryArea.y - PAINT_MARGIN,
+                    queryArea.width + 2 * PAINT_MARGIN, queryArea.height + 2 * PAINT_MARGIN);
+        } else {
+            // A thread limpa a área suja com folga; a cópia inclui tudo que alcança essa folga
+            dirty = new Rectangle2D.Double(frameDirty.x - PAINT_MARGIN, frameDirty.y - PAINT_MARGIN,
+                    frameDirty.width + 2 * PAINT_MARGIN, frameDirty.height + 2 * PAINT_MARGIN);
+            double pad = PAINT_MARGIN + 2 / viewport.getScale();
+            queryArea.setRect(dirty.getX() - pad, dirty.getY() - pad,
+                    dirty.getWidth() + 2 * pad, dirty.getHeight() + 2 * pad);
+        }
+        index.query(queryArea, visible);
+        SpatialIndex.sortByOrder(visible);
+        SceneSnapshot scene = store.snapshot(visible);
+        visible.clear();
+
+        renderThread.submit(new RenderThread.Request(scene, dirty, getGraphicsConfiguration(), width, height,
+                viewport.getScale(), viewport.getTranslateX(), viewport.getTranslateY(), quality, detail,
+                directRaster));
+        frameDirtyAll = false;
+        hasFrameDirty = false;
+        frameWidth = width;
+        frameHeight = height;
+        frameViewportVersion = viewport.getVersion();
+        frameQuality = quality;
+        frameDetail = detail;
+    }
+
+    // Copia o quadro mais recente; se a vista mudou depois dele, o quadro é ajustado à
+    // vista atual até o próximo ficar pronto
+    private void presentFrame(Graphics2D g2) {
+        RenderThread.Frame frame = renderThread.latest(frontFrame);
+        if (frame != frontFrame) {
+            frontFrame = frame;
+            lastFrameNanos = frame.renderNanos;
+            metrics.record(EditorMetrics.Operation.FRAME, frame.renderNanos);
+            if (interacting) adaptDetail();
+        }
+        if (frame == null) return;
+        double ratio = viewport.getScale() / frame.scale;
+        double x = viewport.getTranslateX() - frame.translateX * ratio;
+        double y = viewport.getTranslateY() - frame.translateY * ratio;
+        if (ratio == 1 && x == 0 && y == 0) {
+            g2.drawImage(frame.image, 0, 0, null);
+        } else {
+            g2.drawImage(frame.image, (int) Math.round(x), (int) Math.round(y),
+                    (int) Math.round(frame.image.getWidth() * ratio),
+                    (int) Math.round(frame.image.getHeight() * ratio), null);
+        }
+    }
 
-            g2.setColor(new Color(currentColor.getRed(), currentColor.getGreen(),
-                    currentColor.getBlue(), 100));
-            g2.setStroke(new BasicStroke(2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND,
-                    0, new float[]{5}, 0));
+    // Quadro acima do orçamento: mais figuras viram blocos; bem abaixo: volta o detalhe
+    private void adaptDetail() {
+        double detail = renderer.getDetailPixels();
+        if (lastFrameNanos > frameBudgetNanos && detail < MAX_DETAIL_PIXELS) {
+            renderer.setDetailPixels(Math.min(MAX_DETAIL_PIXELS, detail * 2));
+        } else if (lastFrameNanos < frameBudgetNanos / 2 && detail > 1) {
+            renderer.setDetailPixels(detail / 2);
+        }
+    }
 
-            Shape previewShape = createShape(x, y, Math.max(width, 10), Math.max(height, 10));
-            g2.draw(previewShape);
+    // Camada estática: mesma qualidade do quadro em que foi desenhada; a região vem em pixels
+    private void paintLayer(Graphics2D g2, Rectangle region) {
+        if (renderer.getQuality() != SceneRenderer.Quality.FULL) {
+            layerDegraded = true;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
         }
+        viewport.apply(g2);
+        viewport.toWorld(region, worldRegion);
+        paintFigures(g2, worldRegion, true);
+        viewport.restore(g2);
+    }
+
+    // Desenhar apenas as figuras que intersectam a região do mundo, na ordem de desenho
+    private void paintFigures(Graphics2D g2, Rectangle2D region, boolean skipOverlay) {
+        queryArea.setRect(region.getX() - PAINT_MARGIN, region.getY() - PAINT_MARGIN,
+                region.getWidth() + 2 * PAINT_MARGIN, region.getHeight() + 2 * PAINT_MARGIN);
+        index.query(queryArea, visible);
+        SpatialIndex.sortByOrder(visible);
+        renderer.paintFigures(g2, visible, skipOverlay);
+    }
 
-        g2.dispose();
+    // Limites da figura (com folga para borda e seleção) tocam a região?
+    private static boolean intersects(FigureShape shape, Rectangle2D region) {
+        double x = shape.getX(), y = shape.getY();
+        return x - PAINT_MARGIN < region.getMaxX() && y - PAINT_MARGIN < region.getMaxY()
+                && shape.getMaxX() + PAINT_MARGIN > region.getMinX() && shape.getMaxY() + PAINT_MARGIN > region.getMinY();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package br.com.mariojp.figureeditor;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+// Instrumentação do editor: histogramas de latência das operações, tempo de quadro e
+// medidores (figuras, memória do histórico, taxa de alocação). Gravada pelo EDT (e pelas
+// threads de exportação); lida pelo HUD, pelo JMX e pelo dump periódico, de qualquer thread.
+final class EditorMetrics implements EditorMetricsMXBean {
+    static final String OBJECT_NAME = "br.com.mariojp.figureeditor:type=EditorMetrics";
+    // Intervalo mínimo entre duas amostras da taxa de alocação
+    private static final long ALLOCATION_SAMPLE_NANOS = 1_000_000_000L;
+
+    // PAINT é o paintComponent no EDT; FRAME é o quadro inteiro (igual ao PAINT no
+    // desenho síncrono, o tempo da thread de desenho no modo em segundo plano)
+    enum Operation {
+        PAINT("paint"), FRAME("frame"), HIT_TEST("hit_test"), SNAP("snap"),
+        EXECUTE("execute"), UNDO("undo"), REDO("redo"), EXPORT("export");
+
+        final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+    private volatile int figureCount;
+    private volatile long undoBytes;
+    private volatile int undoEntries;
+    private volatile long lastFrameNanos;
+
+    // Última amostra da alocação total (bytes, instante)
+    private long allocatedBytes = -1;
+    private long allocatedAt;
+    private double allocationRate = -1;
+
+    EditorMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Operation operation, long nanos) {
+        histograms[operation.ordinal()].record(nanos);
+        if (operation == Operation.FRAME) lastFrameNanos = nanos;
+    }
+
+    public LatencySummary summary(Operation operation) {
+        return histograms[operation.ordinal()].summary();
+    }
+
+    public void setFigureCount(int count) {
+        figureCount = count;
+    }
+
+    public void setHistory(long bytes, int entries) {
+        undoBytes = bytes;
+        undoEntries = entries;
+    }
+
+    // Registra no servidor de MBeans da plataforma (uma vez por processo)
+    public void registerMBean() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        var server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(this, name);
+    }
+
+    // Uma linha de JSON com todos os valores (tempos em microssegundos)
+    public String toJson(long timestampMillis) {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"timestamp\":").append(timestampMillis)
+                .append(",\"figures\":").append(figureCount)
+                .append(",\"undo_bytes\":").append(undoBytes)
+                .append(",\"undo_entries\":").append(undoEntries)
+                .append(",\"alloc_bytes_per_s\":").append(format(getAllocationRate()));
+        for (Operation operation : Operation.values()) {
+            LatencySummary s = summary(operation);
+            json.append(",\"").append(operation.key).append("\":{\"count\":").append(s.getCount())
+                    .append(",\"mean_us\":").append(format(s.getMeanMicros()))
+                    .append(",\"p50_us\":").append(format(s.getP50Micros()))
+                    .append(",\"p99_us\":").append(format(s.getP99Micros()))
+                    .append(",\"p999_us\":").append(format(s.getP999Micros()))
+                    .append(",\"max_us\":").append(format(s.getMaxMicros())).append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    public static String csvHeader() {
+        StringBuilder csv = new StringBuilder("timestamp,figures,undo_bytes,undo_entries,alloc_bytes_per_s");
+        for (Operation operation : Operation.values()) {
+            String k = operation.key;
+            csv.append(',').append(k).append("_count,").append(k).append("_p50_us,")
+                    .append(k).append("_p99_us,").append(k).append("_max_us");
+        }
+        return csv.toString();
+    }
+
+    public String toCsv(long timestampMillis) {
+        StringBuilder csv = new StringBuilder(256);
+        csv.append(timestampMillis).append(',').append(figureCount).append(',').append(undoBytes)
+                .append(',').append(undoEntries).append(',').append(format(getAllocationRate()));
+        for (Operation operation : Operation.values()) {
+            LatencySummary s = summary(operation);
+            csv.append(',').append(s.getCount()).append(',').append(format(s.getP50Micros()))
+                    .append(',').append(format(s.getP99Micros())).append(',').append(format(s.getMaxMicros()));
+        }
+        return csv.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    // EditorMetricsMXBean
+
+    @Override public LatencySummary getPaint() { return summary(Operation.PAINT); }
+    @Override public LatencySummary getFrame() { return summary(Operation.FRAME); }
+    @Override public LatencySummary getHitTest() { return summary(Operation.HIT_TEST); }
+    @Override public LatencySummary getSnap() { return summary(Operation.SNAP); }
+    @Override public LatencySummary getExecute() { return summary(Operation.EXECUTE); }
+    @Override public LatencySummary getUndo() { return summary(Operation.UNDO); }
+    @Override public LatencySummary getRedo() { return summary(Operation.REDO); }
+    @Override public LatencySummary getExport() { return summary(Operation.EXPORT); }
+
+    @Override public int getFigureCount() { return figureCount; }
+    @Override public long getUndoBytes() { return undoBytes; }
+    @Override public int getUndoEntries() { return undoEntries; }
+    @Override public double getLastFrameMillis() { return lastFrameNanos / 1e6; }
+
+    // Taxa desde a amostra anterior; leituras mais frequentes que 1 s repetem o último valor
+    @Override
+    public synchronized double getAllocationRate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean sun) || !sun.isThreadAllocatedMemorySupported()
+                || !sun.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long now = System.nanoTime();
+        if (allocatedBytes >= 0 && now - allocatedAt < ALLOCATION_SAMPLE_NANOS) return allocationRate;
+        long bytes = sun.getTotalThreadAllocatedBytes();
+        if (allocatedBytes >= 0 && bytes >= allocatedBytes) {
+            allocationRate = (bytes - allocatedBytes) * 1e9 / (now - allocatedAt);
+        }
+        allocatedBytes = bytes;
+        allocatedAt = now;
+        return allocationRate;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
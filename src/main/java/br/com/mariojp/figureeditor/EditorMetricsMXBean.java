@@ -0,0 +1,24 @@
+package br.com.mariojp.figureeditor;
+
+// Métricas do editor expostas via JMX (ex.: jconsole), em
+// br.com.mariojp.figureeditor:type=EditorMetrics
+public interface EditorMetricsMXBean {
+    LatencySummary getPaint();
+    LatencySummary getFrame();
+    LatencySummary getHitTest();
+    LatencySummary getSnap();
+    LatencySummary getExecute();
+    LatencySummary getUndo();
+    LatencySummary getRedo();
+    LatencySummary getExport();
+
+    int getFigureCount();
+    long getUndoBytes();
+    int getUndoEntries();
+    double getLastFrameMillis();
+    // Bytes alocados por segundo por todas as threads (-1 se a JVM não mede)
+    double getAllocationRate();
+
+    // Zera os histogramas
+    void reset();
+}
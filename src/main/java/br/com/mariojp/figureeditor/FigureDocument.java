@@ -0,0 +1,229 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Formato binário nativo do editor, lido e escrito por mapeamento de memória.
+//
+// Layout (little-endian):
+//   cabeçalho  HEADER_SIZE bytes: magic, versão, tamanho do registro, quantidade,
+//              figuras por bloco, número de blocos, offsets do índice e dos registros
+//   índice     um retângulo (minX, minY, maxX, maxY) por bloco de BLOCK_SIZE figuras
+//   registros  RECORD_SIZE bytes por figura, na ordem de desenho:
+//              x, y, w, h (double), argb (int), tipo (byte), 3 bytes de folga
+//
+// Abrir só mapeia o arquivo; os registros são lidos sob demanda (x(i), y(i)...),
+// e o índice permite pular blocos inteiros fora de uma área. O tipo de cada figura é
+// conferido na leitura, e a carga (toSnapshot) também confere a caixa: um byte
+// corrompido ou uma coordenada NaN, infinita, negativa no tamanho ou fora de
+// FigureGeometry.MAX_COORDINATE vira IOException, e não um erro na pintura ou no índice.
+//
+// Salvar grava um arquivo temporário ao lado e o move por cima do destino de uma vez:
+// uma falha no meio não estraga o desenho anterior, e quem ainda tem o arquivo antigo
+// mapeado continua lendo o conteúdo antigo.
+final class FigureDocument {
+    static final int MAGIC = 0x44454746; // "FGED"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 48;
+    static final int RECORD_SIZE = 40;
+    static final int INDEX_ENTRY_SIZE = 32;
+    static final int BLOCK_SIZE = 4096;
+    // Cada mapeamento fica abaixo de 2 GB e contém só registros inteiros
+    private static final int RECORDS_PER_CHUNK = (1 << 30) / RECORD_SIZE;
+
+    private final Path path;
+    private final int count;
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer[] chunks;
+
+    private FigureDocument(Path path, int count, MappedByteBuffer index, MappedByteBuffer[] chunks) {
+        this.path = path;
+        this.count = count;
+        this.index = index;
+        this.chunks = chunks;
+    }
+
+    public int size() { return count; }
+    public double x(int i) { return chunk(i).getDouble(offset(i)); }
+    public double y(int i) { return chunk(i).getDouble(offset(i) + 8); }
+    public double width(int i) { return chunk(i).getDouble(offset(i) + 16); }
+    public double height(int i) { return chunk(i).getDouble(offset(i) + 24); }
+    public int argb(int i) { return chunk(i).getInt(offset(i) + 32); }
+    public ShapeType type(int i) throws IOException {
+        return ShapeType.fromOrdinal(checkType(i, chunk(i).get(offset(i) + 36)));
+    }
+
+    public int blockCount() {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    // Limites das figuras do bloco (figuras block * BLOCK_SIZE em diante)
+    public Rectangle2D blockBounds(int block) {
+        int at = block * INDEX_ENTRY_SIZE;
+        double minX = index.getDouble(at), minY = index.getDouble(at + 8);
+        return new Rectangle2D.Double(minX, minY, index.getDouble(at + 16) - minX, index.getDouble(at + 24) - minY);
+    }
+
+    // Copia todos os registros para arrays na memória (a carga de fato)
+    public SceneSnapshot toSnapshot() throws IOException {
+        double[] x = new double[count], y = new double[count], w = new double[count], h = new double[count];
+        int[] argb = new int[count];
+        byte[] type = new byte[count];
+        for (int c = 0; c < chunks.length; c++) {
+            MappedByteBuffer chunk = chunks[c];
+            int first = c * RECORDS_PER_CHUNK;
+            int last = Math.min(count, first + RECORDS_PER_CHUNK);
+            for (int i = first, at = 0; i < last; i++, at += RECORD_SIZE) {
+                x[i] = chunk.getDouble(at);
+                y[i] = chunk.getDouble(at + 8);
+                w[i] = chunk.getDouble(at + 16);
+                h[i] = chunk.getDouble(at + 24);
+                argb[i] = chunk.getInt(at + 32);
+                type[i] = checkType(i, chunk.get(at + 36));
+                if (!FigureGeometry.isValidBox(x[i], y[i], w[i], h[i])) {
+                    throw new IOException("Arquivo corrompido: caixa (" + x[i] + ", " + y[i] + ", " + w[i] + ", "
+                            + h[i] + ") na figura " + i + " de " + path);
+                }
+            }
+        }
+        return new SceneSnapshot(x, y, w, h, argb, type, count);
+    }
+
+    private byte checkType(int i, byte type) throws IOException {
+        if (type < 0 || type >= ShapeType.COUNT) {
+            throw new IOException("Arquivo corrompido: tipo " + type + " na figura " + i + " de " + path);
+        }
+        return type;
+    }
+
+    public static FigureDocument open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Arquivo inválido: " + path);
+            }
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Arquivo não é um desenho: " + path);
+            }
+            if (header.getShort(4) != VERSION || header.getShort(6) != RECORD_SIZE
+                    || header.getInt(16) != BLOCK_SIZE) {
+                throw new IOException("Versão do arquivo não suportada: " + header.getShort(4));
+            }
+            long count = header.getLong(8);
+            int blocks = header.getInt(20);
+            long indexOffset = header.getLong(24);
+            long recordsOffset = header.getLong(32);
+            if (count < 0 || count > Integer.MAX_VALUE
+                    || blocks != (count + BLOCK_SIZE - 1) / BLOCK_SIZE
+                    || recordsOffset + count * RECORD_SIZE > fileSize
+                    || indexOffset + (long) blocks * INDEX_ENTRY_SIZE > recordsOffset) {
+                throw new IOException("Arquivo corrompido: " + path);
+            }
+
+            MappedByteBuffer index = map(channel, FileChannel.MapMode.READ_ONLY, indexOffset,
+                    (long) blocks * INDEX_ENTRY_SIZE);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount((int) count)];
+            for (int c = 0; c < chunks.length; c++) {
+                long first = (long) c * RECORDS_PER_CHUNK;
+                long records = Math.min(count - first, RECORDS_PER_CHUNK);
+                chunks[c] = map(channel, FileChannel.MapMode.READ_ONLY,
+                        recordsOffset + first * RECORD_SIZE, records * RECORD_SIZE);
+            }
+            // O mapeamento continua válido depois de fechar o canal
+            return new FigureDocument(path, (int) count, index, chunks);
+        }
+    }
+
+    public static void save(SceneSnapshot scene, Path path) throws IOException {
+        int count = scene.size();
+        int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long indexOffset = HEADER_SIZE;
+        long recordsOffset = indexOffset + (long) blocks * INDEX_ENTRY_SIZE;
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            write(scene, temporary, count, blocks, indexOffset, recordsOffset);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    private static void write(SceneSnapshot scene, Path path, int count, int blocks, long indexOffset,
+                              long recordsOffset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer head = map(channel, FileChannel.MapMode.READ_WRITE, 0, recordsOffset);
+            head.putInt(0, MAGIC);
+            head.putShort(4, VERSION);
+            head.putShort(6, (short) RECORD_SIZE);
+            head.putLong(8, count);
+            head.putInt(16, BLOCK_SIZE);
+            head.putInt(20, blocks);
+            head.putLong(24, indexOffset);
+            head.putLong(32, recordsOffset);
+
+            for (int c = 0, chunkCount = chunkCount(count); c < chunkCount; c++) {
+                int first = c * RECORDS_PER_CHUNK;
+                int last = Math.min(count, first + RECORDS_PER_CHUNK);
+                MappedByteBuffer chunk = map(channel, FileChannel.MapMode.READ_WRITE,
+                        recordsOffset + (long) first * RECORD_SIZE, (long) (last - first) * RECORD_SIZE);
+                for (int i = first, at = 0; i < last; i++, at += RECORD_SIZE) {
+                    chunk.putDouble(at, scene.x(i));
+                    chunk.putDouble(at + 8, scene.y(i));
+                    chunk.putDouble(at + 16, scene.width(i));
+                    chunk.putDouble(at + 24, scene.height(i));
+                    chunk.putInt(at + 32, scene.argb(i));
+                    chunk.put(at + 36, (byte) scene.type(i).ordinal());
+                }
+                chunk.force();
+            }
+
+            // Índice: limites de cada bloco de figuras
+            for (int b = 0; b < blocks; b++) {
+                double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+                for (int i = b * BLOCK_SIZE, last = Math.min(count, i + BLOCK_SIZE); i < last; i++) {
+                    minX = Math.min(minX, scene.x(i));
+                    minY = Math.min(minY, scene.y(i));
+                    maxX = Math.max(maxX, scene.x(i) + scene.width(i));
+                    maxY = Math.max(maxY, scene.y(i) + scene.height(i));
+                }
+                int at = (int) indexOffset + b * INDEX_ENTRY_SIZE;
+                head.putDouble(at, minX);
+                head.putDouble(at + 8, minY);
+                head.putDouble(at + 16, maxX);
+                head.putDouble(at + 24, maxY);
+            }
+            head.force();
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static int chunkCount(int count) {
+        return (count + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK;
+    }
+
+    private MappedByteBuffer chunk(int i) {
+        return chunks[i / RECORDS_PER_CHUNK];
+    }
+
+    private static int offset(int i) {
+        return (i % RECORDS_PER_CHUNK) * RECORD_SIZE;
+    }
+}
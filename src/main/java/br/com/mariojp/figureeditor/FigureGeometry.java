@@ -0,0 +1,218 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+// Geometria de cada tipo de figura, sempre inscrita na caixa (x, y, width, height) que o
+// FigureStore guarda. Os records são a forma tipada (cópia, exportação, pattern matching);
+// a lógica de cada tipo fica em métodos estáticos do próprio record, que os caminhos
+// quentes chamam por um switch sobre ShapeType: cada chamada tem um único destino e a
+// JIT pode inlinar, por mais tipos que existam (sem despacho virtual megamórfico).
+sealed interface FigureGeometry {
+    double x();
+    double y();
+    double width();
+    double height();
+
+    ShapeType type();
+
+    // Mesmo critério de Shape.contains (Java2D) para a geometria do tipo
+    boolean contains(double px, double py);
+
+    // Nova geometria deslocada; a figura em si é movida no store (FigureShape.translate)
+    FigureGeometry translate(double dx, double dy);
+
+    // Geometria nova do Java2D para desenhar ou exportar
+    Shape toShape();
+
+    default Rectangle2D bounds() {
+        return new Rectangle2D.Double(x(), y(), width(), height());
+    }
+
+    // Maior coordenada ou lado aceito do que entra de fora (arquivo, importação, colaboração)
+    double MAX_COORDINATE = 1e9;
+
+    // Caixa finita, dentro de ±MAX_COORDINATE e com lados entre 0 e MAX_COORDINATE
+    static boolean isValidBox(double x, double y, double w, double h) {
+        return Math.abs(x) <= MAX_COORDINATE && Math.abs(y) <= MAX_COORDINATE
+                && w >= 0 && w <= MAX_COORDINATE && h >= 0 && h <= MAX_COORDINATE;
+    }
+
+    static FigureGeometry of(ShapeType type, double x, double y, double w, double h) {
+        return switch (type) {
+            case CIRCLE -> new Ellipse(x, y, w, h);
+            case RECTANGLE -> new Rect(x, y, w, h);
+            case TRIANGLE -> new Triangle(x, y, w, h);
+            case DIAMOND -> new Diamond(x, y, w, h);
+            case HEXAGON -> new Hexagon(x, y, w, h);
+        };
+    }
+
+    // Teste de ponto sem montar a geometria
+    static boolean contains(ShapeType type, double x, double y, double w, double h, double px, double py) {
+        if (w <= 0 || h <= 0) return false;
+        return switch (type) {
+            case CIRCLE -> Ellipse.contains(x, y, w, h, px, py);
+            case RECTANGLE -> Rect.contains(x, y, w, h, px, py);
+            case TRIANGLE -> Triangle.contains(x, y, w, h, px, py);
+            case DIAMOND -> Diamond.contains(x, y, w, h, px, py);
+            case HEXAGON -> Hexagon.contains(x, y, w, h, px, py);
+        };
+    }
+
+    // Meia largura na altura relativa t (0 = topo, 1 = base), como fração da meia largura
+    // da caixa: todas as figuras são simétricas no eixo vertical, então cada linha é um
+    // intervalo só em torno do centro (é o que o SpanRasterizer usa)
+    static double profile(ShapeType type, double t) {
+        return switch (type) {
+            case CIRCLE -> Ellipse.profile(t);
+            case RECTANGLE -> 1;
+            case TRIANGLE -> Triangle.profile(t);
+            case DIAMOND -> Diamond.profile(t);
+            case HEXAGON -> Hexagon.profile(t);
+        };
+    }
+
+    // Vértices do polígono em xy (x0, y0, x1, y1, ...), em sentido horário na tela;
+    // devolve quantos são (0 para tipos que não são polígonos)
+    static int vertices(ShapeType type, double x, double y, double w, double h, double[] xy) {
+        return switch (type) {
+            case CIRCLE, RECTANGLE -> 0;
+            case TRIANGLE -> Triangle.vertices(x, y, w, h, xy);
+            case DIAMOND -> Diamond.vertices(x, y, w, h, xy);
+            case HEXAGON -> Hexagon.vertices(x, y, w, h, xy);
+        };
+    }
+
+    // Substitui o conteúdo do caminho pelos n vértices de xy, fechado
+    static void path(Path2D.Double path, double[] xy, int n) {
+        path.reset();
+        path.moveTo(xy[0], xy[1]);
+        for (int i = 1; i < n; i++) {
+            path.lineTo(xy[2 * i], xy[2 * i + 1]);
+        }
+        path.closePath();
+    }
+
+    // Ponto dentro de um contorno dado pelo perfil (mesma borda aberta do Java2D)
+    private static boolean insideProfile(double profile, double x, double w, double px) {
+        return Math.abs(px - (x + w / 2)) < profile * w / 2;
+    }
+
+    // Polígonos convexos com no máximo MAX_VERTICES vértices
+    sealed interface Polygon extends FigureGeometry permits Triangle, Diamond, Hexagon {
+        int MAX_VERTICES = 6;
+
+        @Override
+        default Shape toShape() {
+            double[] xy = new double[2 * MAX_VERTICES];
+            Path2D.Double path = new Path2D.Double();
+            FigureGeometry.path(path, xy, FigureGeometry.vertices(type(), x(), y(), width(), height(), xy));
+            return path;
+        }
+    }
+
+    record Ellipse(double x, double y, double width, double height) implements FigureGeometry {
+        static boolean contains(double x, double y, double w, double h, double px, double py) {
+            double nx = (px - x) / w - 0.5;
+            double ny = (py - y) / h - 0.5;
+            return nx * nx + ny * ny < 0.25;
+        }
+
+        static double profile(double t) {
+            double d = 2 * t - 1;
+            return Math.sqrt(Math.max(0, 1 - d * d));
+        }
+
+        @Override public ShapeType type() { return ShapeType.CIRCLE; }
+        @Override public boolean contains(double px, double py) { return width > 0 && height > 0 && contains(x, y, width, height, px, py); }
+        @Override public Ellipse translate(double dx, double dy) { return new Ellipse(x + dx, y + dy, width, height); }
+        @Override public Shape toShape() { return new Ellipse2D.Double(x, y, width, height); }
+    }
+
+    record Rect(double x, double y, double width, double height) implements FigureGeometry {
+        static boolean contains(double x, double y, double w, double h, double px, double py) {
+            return px >= x && py >= y && px < x + w && py < y + h;
+        }
+
+        @Override public ShapeType type() { return ShapeType.RECTANGLE; }
+        @Override public boolean contains(double px, double py) { return width > 0 && height > 0 && contains(x, y, width, height, px, py); }
+        @Override public Rect translate(double dx, double dy) { return new Rect(x + dx, y + dy, width, height); }
+        @Override public Shape toShape() { return new Rectangle2D.Double(x, y, width, height); }
+    }
+
+    // Vértice no meio do topo, base na borda de baixo
+    record Triangle(double x, double y, double width, double height) implements Polygon {
+        static boolean contains(double x, double y, double w, double h, double px, double py) {
+            double t = (py - y) / h;
+            return t >= 0 && t < 1 && insideProfile(profile(t), x, w, px);
+        }
+
+        static double profile(double t) {
+            return t;
+        }
+
+        static int vertices(double x, double y, double w, double h, double[] xy) {
+            xy[0] = x + w / 2; xy[1] = y;
+            xy[2] = x + w;     xy[3] = y + h;
+            xy[4] = x;         xy[5] = y + h;
+            return 3;
+        }
+
+        @Override public ShapeType type() { return ShapeType.TRIANGLE; }
+        @Override public boolean contains(double px, double py) { return width > 0 && height > 0 && contains(x, y, width, height, px, py); }
+        @Override public Triangle translate(double dx, double dy) { return new Triangle(x + dx, y + dy, width, height); }
+    }
+
+    // Losango com os vértices no meio de cada lado da caixa
+    record Diamond(double x, double y, double width, double height) implements Polygon {
+        static boolean contains(double x, double y, double w, double h, double px, double py) {
+            double t = (py - y) / h;
+            return t >= 0 && t < 1 && insideProfile(profile(t), x, w, px);
+        }
+
+        static double profile(double t) {
+            return 1 - Math.abs(2 * t - 1);
+        }
+
+        static int vertices(double x, double y, double w, double h, double[] xy) {
+            xy[0] = x + w / 2; xy[1] = y;
+            xy[2] = x + w;     xy[3] = y + h / 2;
+            xy[4] = x + w / 2; xy[5] = y + h;
+            xy[6] = x;         xy[7] = y + h / 2;
+            return 4;
+        }
+
+        @Override public ShapeType type() { return ShapeType.DIAMOND; }
+        @Override public boolean contains(double px, double py) { return width > 0 && height > 0 && contains(x, y, width, height, px, py); }
+        @Override public Diamond translate(double dx, double dy) { return new Diamond(x + dx, y + dy, width, height); }
+    }
+
+    // Hexágono com topo e base retos (metade central da largura) e pontas nas laterais
+    record Hexagon(double x, double y, double width, double height) implements Polygon {
+        static boolean contains(double x, double y, double w, double h, double px, double py) {
+            double t = (py - y) / h;
+            return t >= 0 && t < 1 && insideProfile(profile(t), x, w, px);
+        }
+
+        static double profile(double t) {
+            return 1 - Math.abs(2 * t - 1) / 2;
+        }
+
+        static int vertices(double x, double y, double w, double h, double[] xy) {
+            xy[0] = x + w / 4;      xy[1] = y;
+            xy[2] = x + w * 3 / 4;  xy[3] = y;
+            xy[4] = x + w;          xy[5] = y + h / 2;
+            xy[6] = x + w * 3 / 4;  xy[7] = y + h;
+            xy[8] = x + w / 4;      xy[9] = y + h;
+            xy[10] = x;             xy[11] = y + h / 2;
+            return 6;
+        }
+
+        @Override public ShapeType type() { return ShapeType.HEXAGON; }
+        @Override public boolean contains(double px, double py) { return width > 0 && height > 0 && contains(x, y, width, height, px, py); }
+        @Override public Hexagon translate(double dx, double dy) { return new Hexagon(x + dx, y + dy, width, height); }
+    }
+}
@@ -0,0 +1,413 @@
+package br.com.mariojp.figureeditor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+// Importação em massa de figuras de CSV ou JSON Lines (uma figura por linha).
+//
+//   CSV         type,x,y,width,height,color   (cabeçalho opcional, com o primeiro campo
+//                                              "type"; color opcional)
+//   JSON Lines  {"type":"circle","x":10,"y":20,"width":30,"height":40,"color":"#ff0000"}
+//
+// type é o nome de um ShapeType em qualquer caixa (circle, rectangle, triangle,
+// diamond, hexagon); color é #RRGGBB, #AARRGGBB ou o ARGB em decimal.
+// Posição e tamanho ficam dentro de FigureGeometry.MAX_COORDINATE, e uma linha tem no
+// máximo MAX_LINE_BYTES (ou o tamanho do bloco, se maior).
+// O arquivo é lido por um FileChannel em blocos cortados no fim de linha; os blocos
+// são analisados em paralelo e entregues em ordem, já como colunas (SceneSnapshot).
+// Só a leitura e a análise rodam aqui: as figuras são criadas no EDT por quem recebe.
+final class FigureImporter {
+    static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+    // Linha maior que isso (sem '\n') é erro, em vez de o buffer dobrar até faltar memória
+    static final int MAX_LINE_BYTES = 1 << 20;
+
+    enum Format {
+        CSV, JSON_LINES;
+
+        // .json, .jsonl e .ndjson são JSON Lines; o resto é CSV
+        static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json") ? JSON_LINES : CSV;
+        }
+    }
+
+    // Recebe os blocos analisados, na ordem do arquivo
+    interface ChunkSink {
+        void accept(SceneSnapshot figures) throws IOException;
+    }
+
+    private final int threads;
+    private final int chunkBytes;
+    // Cor das linhas sem cor
+    private final int defaultArgb;
+
+    FigureImporter(int defaultArgb) {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES, defaultArgb);
+    }
+
+    FigureImporter(int threads, int chunkBytes, int defaultArgb) {
+        if (threads < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException("Número de threads e tamanho do bloco devem ser positivos");
+        }
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+        this.defaultArgb = defaultArgb;
+    }
+
+    // Lê o arquivo inteiro; 'progress' recebe os bytes lidos até agora e pode ser null.
+    // Devolve o número de figuras importadas
+    public long read(Path file, Format format, ChunkSink sink, LongConsumer progress) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "figure-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        long lines = 0, figures = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(chunkBytes);
+            boolean first = true, eof = false, tooLong = false;
+            while (!eof || !inFlight.isEmpty()) {
+                // Mantém no máximo 2 blocos por thread em análise
+                while (!eof && inFlight.size() < 2 * threads) {
+                    eof = channel.read(buffer) < 0;
+                    if (!eof && buffer.hasRemaining()) continue;
+                    byte[] bytes = cut(buffer, eof);
+                    if (bytes == null) {
+                        if (buffer.capacity() >= MAX_LINE_BYTES) {
+                            // Para de ler; o erro sai depois dos blocos anteriores
+                            tooLong = true;
+                            eof = true;
+                            break;
+                        }
+                        // Linha maior que o buffer: dobra e continua lendo
+                        buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_LINE_BYTES)).put(buffer.flip());
+                        continue;
+                    }
+                    boolean skipHeader = first && format == Format.CSV;
+                    first = false;
+                    inFlight.addLast(pool.submit(() -> parse(bytes, format, skipHeader)));
+                }
+                if (inFlight.isEmpty()) break;
+                Chunk chunk = await(inFlight.removeFirst());
+                if (chunk.errorLine >= 0) {
+                    throw new IOException("Linha " + (lines + chunk.errorLine + 1) + ": " + chunk.error);
+                }
+                lines += chunk.lines;
+                if (chunk.figures.size() > 0) {
+                    figures += chunk.figures.size();
+                    sink.accept(chunk.figures);
+                }
+                if (progress != null) progress.accept(channel.position());
+            }
+            if (tooLong) {
+                throw new IOException("Linha " + (lines + 1) + ": mais de " + MAX_LINE_BYTES + " bytes sem fim de linha");
+            }
+        } finally {
+            for (Future<Chunk> pending : inFlight) {
+                pending.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+        return figures;
+    }
+
+    // Tira do buffer as linhas completas (tudo, no fim do arquivo) e deixa o resto
+    // no início; null se não há nenhuma linha completa
+    private static byte[] cut(ByteBuffer buffer, boolean eof) {
+        int end = buffer.position();
+        if (!eof) {
+            byte[] array = buffer.array();
+            while (end > 0 && array[end - 1] != '\n') end--;
+            if (end == 0) return null;
+        }
+        byte[] bytes = Arrays.copyOf(buffer.array(), end);
+        buffer.flip().position(end);
+        buffer.compact();
+        return bytes;
+    }
+
+    // Resultado da análise de um bloco; errorLine >= 0 indica a linha inválida (no bloco)
+    private record Chunk(SceneSnapshot figures, int lines, int errorLine, String error) {}
+
+    private Chunk parse(byte[] bytes, Format format, boolean skipHeader) {
+        LineParser parser = new LineParser(bytes, defaultArgb);
+        int line = 0;
+        for (int start = 0; start < bytes.length; line++) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') end++;
+            int next = end + 1;
+            if (end > start && bytes[end - 1] == '\r') end--;
+            try {
+                if (!(skipHeader && line == 0 && parser.isHeader(start, end))) {
+                    if (format == Format.CSV) {
+                        parser.csv(start, end);
+                    } else {
+                        parser.json(start, end);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                return new Chunk(null, line, line, e.getMessage());
+            }
+            start = next;
+        }
+        return new Chunk(parser.snapshot(), line, -1, null);
+    }
+
+    // Analisa linhas de um bloco direto nos bytes e acumula as colunas
+    private static final class LineParser {
+        private final byte[] bytes;
+        private final int defaultArgb;
+        private double[] x = new double[256], y = new double[256], w = new double[256], h = new double[256];
+        private int[] argb = new int[256];
+        private byte[] type = new byte[256];
+        private int count;
+
+        // Campos da linha atual
+        private int fieldType = -1, fieldArgb;
+        private double fieldX, fieldY, fieldW, fieldH;
+        private int seen;
+
+        LineParser(byte[] bytes, int defaultArgb) {
+            this.bytes = bytes;
+            this.defaultArgb = defaultArgb;
+        }
+
+        SceneSnapshot snapshot() {
+            return new SceneSnapshot(x, y, w, h, argb, type, count);
+        }
+
+        // Primeira linha de CSV com o primeiro campo "type"; um tipo escrito errado numa
+        // linha de dados é erro da linha 1, e não um cabeçalho descartado
+        boolean isHeader(int start, int end) {
+            int comma = start;
+            while (comma < end && bytes[comma] != ',') comma++;
+            return text(start, comma).equalsIgnoreCase("type");
+        }
+
+        void csv(int start, int end) {
+            if (blank(start, end)) return;
+            beginLine();
+            int field = 0;
+            for (int from = start; from <= end; field++) {
+                int to = from;
+                while (to < end && bytes[to] != ',') to++;
+                switch (field) {
+                    case 0 -> fieldType = requireType(from, to);
+                    case 1 -> fieldX = parseNumber(from, to);
+                    case 2 -> fieldY = parseNumber(from, to);
+                    case 3 -> fieldW = parseNumber(from, to);
+                    case 4 -> fieldH = parseNumber(from, to);
+                    case 5 -> fieldArgb = parseColor(from, to);
+                    default -> throw new IllegalArgumentException("Campos demais");
+                }
+                from = to + 1;
+            }
+            if (field < 5) throw new IllegalArgumentException("Esperado type,x,y,width,height[,color]");
+            seen = 0x3F;
+            endLine();
+        }
+
+        // Objeto JSON plano: chaves string, valores número ou string; chaves desconhecidas são ignoradas
+        void json(int start, int end) {
+            if (blank(start, end)) return;
+            beginLine();
+            int at = skipSpaces(start, end);
+            if (at >= end || bytes[at] != '{') throw new IllegalArgumentException("Esperado objeto JSON");
+            at = skipSpaces(at + 1, end);
+            while (at < end && bytes[at] != '}') {
+                int keyEnd = stringEnd(at, end);
+                int keyFrom = at + 1, keyTo = keyEnd - 1;
+                at = skipSpaces(keyEnd, end);
+                if (at >= end || bytes[at] != ':') throw new IllegalArgumentException("Esperado ':'");
+                at = skipSpaces(at + 1, end);
+                int valueFrom = at, valueTo;
+                if (at < end && bytes[at] == '"') {
+                    at = stringEnd(at, end);
+                    valueTo = at;
+                } else {
+                    while (at < end && bytes[at] != ',' && bytes[at] != '}') at++;
+                    valueTo = at;
+                }
+                field(keyFrom, keyTo, valueFrom, valueTo);
+                at = skipSpaces(at, end);
+                if (at < end && bytes[at] == ',') at = skipSpaces(at + 1, end);
+            }
+            if (at >= end) throw new IllegalArgumentException("Objeto JSON sem '}'");
+            endLine();
+        }
+
+        private void field(int keyFrom, int keyTo, int from, int to) {
+            switch (new String(bytes, keyFrom, keyTo - keyFrom, StandardCharsets.US_ASCII)) {
+                case "type" -> { fieldType = requireType(from, to); seen |= 1; }
+                case "x" -> { fieldX = parseNumber(from, to); seen |= 2; }
+                case "y" -> { fieldY = parseNumber(from, to); seen |= 4; }
+                case "width" -> { fieldW = parseNumber(from, to); seen |= 8; }
+                case "height" -> { fieldH = parseNumber(from, to); seen |= 16; }
+                case "color" -> fieldArgb = parseColor(from, to);
+                default -> { }
+            }
+        }
+
+        private void beginLine() {
+            fieldType = -1;
+            fieldArgb = defaultArgb;
+            seen = 0;
+        }
+
+        private void endLine() {
+            if ((seen & 0x1F) != 0x1F) throw new IllegalArgumentException("Faltam campos: type, x, y, width, height");
+            if (!FigureGeometry.isValidBox(fieldX, fieldY, 0, 0)) {
+                throw new IllegalArgumentException("Posição deve ser finita e até ±" + (long) FigureGeometry.MAX_COORDINATE);
+            }
+            if (!(fieldW > 0 && fieldH > 0) || !FigureGeometry.isValidBox(0, 0, fieldW, fieldH)) {
+                throw new IllegalArgumentException("Largura e altura devem ser positivas e até "
+                        + (long) FigureGeometry.MAX_COORDINATE);
+            }
+            if (count == x.length) {
+                int capacity = count * 2;
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                w = Arrays.copyOf(w, capacity);
+                h = Arrays.copyOf(h, capacity);
+                argb = Arrays.copyOf(argb, capacity);
+                type = Arrays.copyOf(type, capacity);
+            }
+            x[count] = fieldX;
+            y[count] = fieldY;
+            w[count] = fieldW;
+            h[count] = fieldH;
+            argb[count] = fieldArgb;
+            type[count] = (byte) fieldType;
+            count++;
+        }
+
+        private int requireType(int from, int to) {
+            int parsed = parseType(from, to);
+            if (parsed < 0) throw new IllegalArgumentException("Tipo desconhecido: " + text(from, to));
+            return parsed;
+        }
+
+        // Ordinal de ShapeType pelo nome, sem diferenciar maiúsculas; -1 se desconhecido
+        private int parseType(int from, int to) {
+            String name = text(from, to);
+            for (ShapeType candidate : ShapeType.values()) {
+                if (candidate.name().equalsIgnoreCase(name)) return candidate.ordinal();
+            }
+            return -1;
+        }
+
+        private int parseColor(int from, int to) {
+            String text = text(from, to);
+            if (text.isEmpty()) return defaultArgb;
+            try {
+                if (text.charAt(0) == '#') {
+                    long value = Long.parseLong(text.substring(1), 16);
+                    return switch (text.length()) {
+                        case 7 -> 0xFF000000 | (int) value;
+                        case 9 -> (int) value;
+                        default -> throw new NumberFormatException();
+                    };
+                }
+                return (int) Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Cor inválida: " + text);
+            }
+        }
+
+        // Decimal simples direto dos bytes; expoentes e mantissas longas vão para o parseDouble
+        private double parseNumber(int from, int to) {
+            from = skipSpaces(from, to);
+            while (to > from && bytes[to - 1] <= ' ') to--;
+            int at = from;
+            boolean negative = at < to && bytes[at] == '-';
+            if (negative || (at < to && bytes[at] == '+')) at++;
+            long mantissa = 0;
+            int digits = 0, decimals = 0;
+            boolean point = false;
+            for (; at < to; at++) {
+                byte c = bytes[at];
+                if (c >= '0' && c <= '9') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (point) decimals++;
+                } else if (c == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            if (at == to && digits > 0 && digits <= 15) {
+                double value = decimals == 0 ? mantissa : mantissa / POWERS_OF_TEN[decimals];
+                return negative ? -value : value;
+            }
+            try {
+                return Double.parseDouble(text(from, to));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Número inválido: " + text(from, to));
+            }
+        }
+
+        // Texto do campo sem espaços e sem aspas
+        private String text(int from, int to) {
+            from = skipSpaces(from, to);
+            while (to > from && bytes[to - 1] <= ' ') to--;
+            if (to - from >= 2 && bytes[from] == '"' && bytes[to - 1] == '"') {
+                from++;
+                to--;
+            }
+            return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        // Posição logo depois da string que começa em 'at' (aspas incluídas)
+        private int stringEnd(int at, int end) {
+            if (at >= end || bytes[at] != '"') throw new IllegalArgumentException("Esperado '\"'");
+            for (int i = at + 1; i < end; i++) {
+                if (bytes[i] == '\\') {
+                    i++;
+                } else if (bytes[i] == '"') {
+                    return i + 1;
+                }
+            }
+            throw new IllegalArgumentException("String sem fim");
+        }
+
+        private int skipSpaces(int at, int end) {
+            while (at < end && bytes[at] <= ' ') at++;
+            return at;
+        }
+
+        private boolean blank(int start, int end) {
+            return skipSpaces(start, end) == end;
+        }
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private static Chunk await(Future<Chunk> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Importação interrompida");
+        } catch (ExecutionException e) {
+            throw new IOException("Falha ao analisar bloco", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+// Desenha figuras a partir de valores primitivos reutilizando a geometria.
+// Não é thread-safe: cada thread de desenho usa sua própria instância.
+class FigurePainter {
+    private final Ellipse2D.Double ellipse = new Ellipse2D.Double();
+    private final Rectangle2D.Double rectangle = new Rectangle2D.Double();
+    private final Path2D.Double polygon = new Path2D.Double(Path2D.WIND_NON_ZERO, FigureGeometry.Polygon.MAX_VERTICES + 2);
+    private final double[] vertices = new double[2 * FigureGeometry.Polygon.MAX_VERTICES];
+
+    public void paint(Graphics2D g2, FigureShape figure) {
+        paint(g2, figure.getType(), figure.getX(), figure.getY(), figure.getWidth(), figure.getHeight(),
+                figure.getColor());
+    }
+
+    public void paint(Graphics2D g2, ShapeType type, double x, double y, double w, double h, Color color) {
+        paint(g2, type, x, y, w, h, color, true);
+    }
+
+    public void paint(Graphics2D g2, ShapeType type, double x, double y, double w, double h, Color color,
+                      boolean outline) {
+        Shape shape = geometry(type, x, y, w, h);
+        g2.setColor(color);
+        g2.fill(shape);
+
+        // Borda
+        if (outline) {
+            g2.setColor(RenderStyles.OUTLINE_COLOR);
+            g2.setStroke(RenderStyles.OUTLINE_STROKE);
+            g2.draw(shape);
+        }
+    }
+
+    // Só o retângulo, sem contorno: representação barata de figuras muito pequenas
+    public void paintBlock(Graphics2D g2, double x, double y, double w, double h, Color color) {
+        rectangle.setRect(x, y, w, h);
+        g2.setColor(color);
+        g2.fill(rectangle);
+    }
+
+    // Geometria temporária, válida até a próxima chamada
+    public Shape geometry(ShapeType type, double x, double y, double w, double h) {
+        return switch (type) {
+            case CIRCLE -> {
+                ellipse.setFrame(x, y, w, h);
+                yield ellipse;
+            }
+            case RECTANGLE -> {
+                rectangle.setRect(x, y, w, h);
+                yield rectangle;
+            }
+            case TRIANGLE, DIAMOND, HEXAGON -> {
+                FigureGeometry.path(polygon, vertices, FigureGeometry.vertices(type, x, y, w, h, vertices));
+                yield polygon;
+            }
+        };
+    }
+}
@@ -1,73 +1,93 @@
 package br.com.mariojp.figureeditor;
 
 import java.awt.*;
-import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
-public class FigureShape {
-    private Shape shape;
-    private Color color;
-    private boolean selected;
-    private ShapeType type;
-    private Rectangle2D bounds;
-
-    public FigureShape(Shape shape, Color color, ShapeType type) {
-        this.shape = shape;
-        this.color = color;
-        this.selected = false;
-        this.type = type;
-        this.bounds = shape.getBounds2D();
+// Visão (flyweight) de uma linha do FigureStore; os dados ficam nas colunas primitivas
+public final class FigureShape {
+    final FigureStore store;
+    // Linha atual no store; muda quando a figura sobe para o topo ou o store é compactado
+    int slot;
+    // Identidade estável da figura (journal); não muda com o slot
+    int id;
+
+    public FigureShape(FigureStore store, ShapeType type, double x, double y, double width, double height, Color color) {
+        this(store, type, x, y, width, height, color.getRGB());
+    }
+
+    FigureShape(FigureStore store, ShapeType type, double x, double y, double width, double height, int argb) {
+        this.store = store;
+        this.id = store.nextId();
+        this.slot = store.allocate(this, type, x, y, width, height, argb);
     }
 
-    public Shape getShape() { return shape; }
-    public Color getColor() { return color; }
-    public boolean isSelected() { return selected; }
-    public ShapeType getType() { return type; }
-    public Rectangle2D getBounds() { return bounds; }
+    public int getId() { return id; }
+
+    public double getX() { return store.x(slot); }
+    public double getY() { return store.y(slot); }
+    public double getWidth() { return store.width(slot); }
+    public double getHeight() { return store.height(slot); }
+    public double getMaxX() { return store.x(slot) + store.width(slot); }
+    public double getMaxY() { return store.y(slot) + store.height(slot); }
+    public int getArgb() { return store.argb(slot); }
+    public Color getColor() { return RenderStyles.color(store.argb(slot)); }
+    public boolean isSelected() { return store.hasFlag(slot, FigureStore.FLAG_SELECTED); }
+    boolean isOverlay() { return store.hasFlag(slot, FigureStore.FLAG_OVERLAY); }
+    public boolean isLive() { return slot >= 0 && store.isLive(slot); }
+    public ShapeType getType() { return ShapeType.fromOrdinal(store.typeOrdinal(slot)); }
+
+    // Posição na ordem de desenho (maior = mais ao topo)
+    public long getOrder() { return slot; }
+
+    // Cópia dos limites; nos caminhos quentes use getX/getY/getWidth/getHeight
+    public Rectangle2D getBounds() {
+        return new Rectangle2D.Double(getX(), getY(), getWidth(), getHeight());
+    }
+
+    // Geometria tipada (record) montada a partir das colunas
+    public FigureGeometry getGeometry() {
+        return FigureGeometry.of(getType(), getX(), getY(), getWidth(), getHeight());
+    }
+
+    // Geometria nova do Java2D montada a partir das colunas
+    public Shape getShape() {
+        return getGeometry().toShape();
+    }
 
     public void setSelected(boolean selected) {
-        this.selected = selected;
+        store.setFlag(slot, FigureStore.FLAG_SELECTED, selected);
+    }
+
+    void setOverlay(boolean overlay) {
+        store.setFlag(slot, FigureStore.FLAG_OVERLAY, overlay);
     }
 
     public void setColor(Color color) {
-        this.color = color;
+        store.setArgb(slot, color.getRGB());
+    }
+
+    void setArgb(int argb) {
+        store.setArgb(slot, argb);
+    }
+
+    public boolean contains(Point2D point) {
+        return contains(point.getX(), point.getY());
     }
 
-    public boolean contains(Point point) {
-        return shape.contains(point);
+    // Mesmo critério de Shape.contains do tipo, sem montar a geometria
+    public boolean contains(double px, double py) {
+        return FigureGeometry.contains(getType(), getX(), getY(), getWidth(), getHeight(), px, py);
     }
 
+    // Move a geometria no lugar, sem alocar novos objetos
     public void translate(double dx, double dy) {
-        if (type == ShapeType.CIRCLE && shape instanceof Ellipse2D) {
-            Ellipse2D ellipse = (Ellipse2D) shape;
-            double newX = ellipse.getX() + dx;
-            double newY = ellipse.getY() + dy;
-            shape = new Ellipse2D.Double(newX, newY, ellipse.getWidth(), ellipse.getHeight());
-        } else if (type == ShapeType.RECTANGLE && shape instanceof Rectangle2D) {
-            Rectangle2D rect = (Rectangle2D) shape;
-            double newX = rect.getX() + dx;
-            double newY = rect.getY() + dy;
-            shape = new Rectangle2D.Double(newX, newY, rect.getWidth(), rect.getHeight());
-        }
-        bounds = shape.getBounds2D();
+        store.translate(slot, dx, dy);
     }
 
     public FigureShape copy() {
-        Shape newShape;
-        if (type == ShapeType.CIRCLE && shape instanceof Ellipse2D) {
-            Ellipse2D ellipse = (Ellipse2D) shape;
-            newShape = new Ellipse2D.Double(ellipse.getX(), ellipse.getY(),
-                    ellipse.getWidth(), ellipse.getHeight());
-        } else if (type == ShapeType.RECTANGLE && shape instanceof Rectangle2D) {
-            Rectangle2D rect = (Rectangle2D) shape;
-            newShape = new Rectangle2D.Double(rect.getX(), rect.getY(),
-                    rect.getWidth(), rect.getHeight());
-        } else {
-            return null;
-        }
-
-        FigureShape copy = new FigureShape(newShape, new Color(color.getRGB()), type);
-        copy.selected = this.selected;
+        FigureShape copy = new FigureShape(store, getType(), getX(), getY(), getWidth(), getHeight(), getColor());
+        copy.setSelected(isSelected());
         return copy;
     }
-}
\ No newline at end of file
+}
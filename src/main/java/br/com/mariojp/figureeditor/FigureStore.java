@@ -0,0 +1,381 @@
+package br.com.mariojp.figureeditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Modelo da cena em colunas primitivas (structure-of-arrays).
+// Cada linha (slot) é uma figura; a ordem dos slots é a ordem de desenho.
+// Linhas de figuras removidas continuam guardadas enquanto algum comando
+// puder desfazer a remoção, e só são recicladas depois de release().
+// Leituras fora do EDT usam as versões imutáveis de capture()/publish().
+class FigureStore {
+    static final byte FLAG_LIVE = 1;
+    static final byte FLAG_SELECTED = 2;
+    static final byte FLAG_FREE = 4;
+    // Figura desenhada por cima da camada em cache (seleção sendo arrastada)
+    static final byte FLAG_OVERLAY = 8;
+    // Figura alterada depois da última preparação do SnapEngine
+    static final byte FLAG_SNAP_STALE = 16;
+
+    // Memória aproximada de uma linha: colunas + referência e objeto da visão
+    static final int BYTES_PER_ROW = 4 * 8 + 4 + 1 + 1 + 4 + 24;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Linhas por bloco das versões imutáveis (SceneVersion)
+    static final int CHUNK_SHIFT = 8;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private double[] x = new double[INITIAL_CAPACITY];
+    private double[] y = new double[INITIAL_CAPACITY];
+    private double[] w = new double[INITIAL_CAPACITY];
+    private double[] h = new double[INITIAL_CAPACITY];
+    private int[] argb = new int[INITIAL_CAPACITY];
+    private byte[] type = new byte[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    // Visão (flyweight) de cada linha, para atualizar o slot quando a linha muda de lugar
+    private FigureShape[] views = new FigureShape[INITIAL_CAPACITY];
+
+    private int size;
+    private int liveCount;
+    private int freeCount;
+    private int nextId;
+
+    // Blocos alterados desde a última versão montada (marca e lista); allDirty refaz todos
+    private boolean[] chunkDirty = new boolean[INITIAL_CAPACITY >> CHUNK_SHIFT];
+    private int[] dirtyChunks = new int[INITIAL_CAPACITY >> CHUNK_SHIFT];
+    private int dirtyCount;
+    private boolean allDirty = true;
+    private SceneVersion.Chunk[] chunks = new SceneVersion.Chunk[0];
+    private SceneVersion captured = SceneVersion.EMPTY;
+    private volatile SceneVersion published = SceneVersion.EMPTY;
+
+    // Quantidade de slots em uso (vivos, guardados ou livres ainda não compactados)
+    public int size() { return size; }
+    public int liveCount() { return liveCount; }
+
+    public double x(int slot) { return x[slot]; }
+    public double y(int slot) { return y[slot]; }
+    public double width(int slot) { return w[slot]; }
+    public double height(int slot) { return h[slot]; }
+    public int argb(int slot) { return argb[slot]; }
+    public int typeOrdinal(int slot) { return type[slot]; }
+    public boolean isLive(int slot) { return (flags[slot] & FLAG_LIVE) != 0; }
+    public FigureShape view(int slot) { return views[slot]; }
+
+    // Ids das figuras: crescentes e nunca reutilizados
+    int nextId() {
+        return nextId++;
+    }
+
+    // Garante que ids novos não colidam com ids já usados (ex.: vindos do journal)
+    void reserveIds(int next) {
+        nextId = Math.max(nextId, next);
+    }
+
+    // Troca o id de uma figura (ids gravados no journal); o bloco dela é remontado na
+    // próxima versão, que guarda os ids
+    void setId(FigureShape view, int id) {
+        view.id = id;
+        reserveIds(id + 1);
+        if (view.slot >= 0) touch(view.slot);
+    }
+
+    boolean hasFlag(int slot, byte flag) {
+        return (flags[slot] & flag) != 0;
+    }
+
+    void setFlag(int slot, byte flag, boolean on) {
+        flags[slot] = (byte) (on ? flags[slot] | flag : flags[slot] & ~flag);
+    }
+
+    void setArgb(int slot, int value) {
+        argb[slot] = value;
+        touch(slot);
+    }
+
+    void translate(int slot, double dx, double dy) {
+        x[slot] += dx;
+        y[slot] += dy;
+        touch(slot);
+    }
+
+    private void touch(int slot) {
+        int chunk = slot >>> CHUNK_SHIFT;
+        if (!chunkDirty[chunk]) {
+            chunkDirty[chunk] = true;
+            dirtyChunks[dirtyCount++] = chunk;
+        }
+    }
+
+    private void touchAll() {
+        allDirty = true;
+    }
+
+    // Última versão publicada; segura para ler de qualquer thread
+    public SceneVersion published() {
+        return published;
+    }
+
+    // Publica o estado atual (chamado quando um comando termina de ser aplicado)
+    public SceneVersion publish() {
+        SceneVersion version = capture();
+        published = version;
+        return version;
+    }
+
+    // Versão imutável do estado atual, sem publicar; só os blocos alterados são
+    // copiados, e sem alterações a versão anterior é devolvida
+    public SceneVersion capture() {
+        if (!allDirty && dirtyCount == 0) return captured;
+        int count = (size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+        SceneVersion.Chunk[] next;
+        if (allDirty) {
+            next = new SceneVersion.Chunk[count];
+            for (int c = 0; c < count; c++) {
+                next[c] = buildChunk(c);
+            }
+        } else {
+            // Os blocos novos no fim sempre foram alterados (allocate)
+            next = Arrays.copyOf(chunks, count);
+            for (int i = 0; i < dirtyCount; i++) {
+                int c = dirtyChunks[i];
+                if (c < count) next[c] = buildChunk(c);
+            }
+        }
+        for (int i = 0; i < dirtyCount; i++) {
+            chunkDirty[dirtyChunks[i]] = false;
+        }
+        dirtyCount = 0;
+        allDirty = false;
+        chunks = next;
+        captured = new SceneVersion(captured.number() + 1, next, liveCount);
+        return captured;
+    }
+
+    private SceneVersion.Chunk buildChunk(int c) {
+        int from = c << CHUNK_SHIFT, to = Math.min(size, from + CHUNK_SIZE);
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (isLive(i)) n++;
+        }
+        double[] sx = new double[n], sy = new double[n], sw = new double[n], sh = new double[n];
+        int[] sargb = new int[n], ids = new int[n];
+        byte[] stype = new byte[n];
+        double minX = 0, minY = 0, maxX = 0, maxY = 0;
+        for (int i = from, k = 0; i < to; i++) {
+            if (!isLive(i)) continue;
+            sx[k] = x[i];
+            sy[k] = y[i];
+            sw[k] = w[i];
+            sh[k] = h[i];
+            sargb[k] = argb[i];
+            stype[k] = type[i];
+            ids[k] = views[i].id;
+            if (k == 0) {
+                minX = x[i];
+                minY = y[i];
+                maxX = x[i] + w[i];
+                maxY = y[i] + h[i];
+            } else {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i] + w[i]);
+                maxY = Math.max(maxY, y[i] + h[i]);
+            }
+            k++;
+        }
+        return new SceneVersion.Chunk(new SceneSnapshot(sx, sy, sw, sh, sargb, stype, n), ids, minX, minY, maxX, maxY);
+    }
+
+    // Nova linha no topo, ainda fora da cena
+    int allocate(FigureShape view, ShapeType shapeType, double fx, double fy, double fw, double fh, int color) {
+        ensureCapacity(size + 1);
+        int slot = size++;
+        x[slot] = fx;
+        y[slot] = fy;
+        w[slot] = fw;
+        h[slot] = fh;
+        argb[slot] = color;
+        type[slot] = (byte) shapeType.ordinal();
+        flags[slot] = 0;
+        views[slot] = view;
+        touch(slot);
+        return slot;
+    }
+
+    // Coloca a figura na cena, no topo da ordem de desenho
+    void attach(FigureShape view) {
+        int slot = view.slot;
+        if (slot < 0 || isLive(slot)) return;
+        if (slot != size - 1) {
+            slot = moveToTop(slot);
+        }
+        flags[slot] |= FLAG_LIVE;
+        liveCount++;
+        touch(slot);
+    }
+
+    // Reativa a linha sem mudá-la de lugar; só mantém a ordem de desenho
+    // quando não há figuras vivas acima dela
+    void attachInPlace(FigureShape view) {
+        int slot = view.slot;
+        if (slot < 0 || isLive(slot)) return;
+        flags[slot] |= FLAG_LIVE;
+        liveCount++;
+        touch(slot);
+    }
+
+    // Tira a figura da cena, mantendo a linha para um possível undo
+    void detach(FigureShape view) {
+        int slot = view.slot;
+        if (slot < 0 || !isLive(slot)) return;
+        flags[slot] &= ~FLAG_LIVE;
+        liveCount--;
+        touch(slot);
+    }
+
+    void detachAll() {
+        for (int i = 0; i < size; i++) {
+            flags[i] &= ~FLAG_LIVE;
+        }
+        liveCount = 0;
+        touchAll();
+    }
+
+    // Descarta todas as linhas; só vale quando nenhum comando guarda figuras
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            if (views[i] != null) views[i].slot = -1;
+        }
+        Arrays.fill(views, 0, size, null);
+        size = 0;
+        liveCount = 0;
+        freeCount = 0;
+        touchAll();
+    }
+
+    // Libera a linha de uma figura fora da cena que nenhum comando usa mais
+    void release(FigureShape view) {
+        int slot = view.slot;
+        if (slot < 0 || isLive(slot)) return;
+        freeSlot(slot);
+        if (freeCount > INITIAL_CAPACITY && freeCount > size / 2) {
+            compact();
+        }
+    }
+
+    public List<FigureShape> liveFigures() {
+        List<FigureShape> result = new ArrayList<>(liveCount);
+        for (int i = 0; i < size; i++) {
+            if (isLive(i)) result.add(views[i]);
+        }
+        return result;
+    }
+
+    // Figuras vivas em um vetor (ex.: guardadas por um comando), sem lista intermediária
+    public FigureShape[] liveFigureArray() {
+        FigureShape[] result = new FigureShape[liveCount];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (isLive(i)) result[n++] = views[i];
+        }
+        return result;
+    }
+
+    // Copia as linhas vivas (na ordem de desenho) para leitura fora do EDT
+    public SceneSnapshot snapshot() {
+        double[] sx = new double[liveCount], sy = new double[liveCount];
+        double[] sw = new double[liveCount], sh = new double[liveCount];
+        int[] sargb = new int[liveCount];
+        byte[] stype = new byte[liveCount];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (!isLive(i)) continue;
+            sx[n] = x[i];
+            sy[n] = y[i];
+            sw[n] = w[i];
+            sh[n] = h[i];
+            sargb[n] = argb[i];
+            stype[n] = type[i];
+            n++;
+        }
+        return new SceneSnapshot(sx, sy, sw, sh, sargb, stype, n);
+    }
+
+    // Copia só as figuras dadas (ex.: resultado de uma consulta do índice), na ordem da lista
+    public SceneSnapshot snapshot(List<FigureShape> figures) {
+        int n = figures.size();
+        double[] sx = new double[n], sy = new double[n];
+        double[] sw = new double[n], sh = new double[n];
+        int[] sargb = new int[n];
+        byte[] stype = new byte[n];
+        for (int i = 0; i < n; i++) {
+            int slot = figures.get(i).slot;
+            sx[i] = x[slot];
+            sy[i] = y[slot];
+            sw[i] = w[slot];
+            sh[i] = h[slot];
+            sargb[i] = argb[slot];
+            stype[i] = type[slot];
+        }
+        return new SceneSnapshot(sx, sy, sw, sh, sargb, stype, n);
+    }
+
+    private int moveToTop(int slot) {
+        FigureShape view = views[slot];
+        int top = allocate(view, ShapeType.fromOrdinal(type[slot]), x[slot], y[slot], w[slot], h[slot], argb[slot]);
+        // As marcas da figura (seleção, overlay, snap) acompanham a linha
+        flags[top] = (byte) (flags[slot] & ~(FLAG_LIVE | FLAG_FREE));
+        freeSlot(slot);
+        view.slot = top;
+        return top;
+    }
+
+    private void freeSlot(int slot) {
+        views[slot].slot = -1;
+        views[slot] = null;
+        flags[slot] = FLAG_FREE;
+        freeCount++;
+        touch(slot);
+    }
+
+    // Remove as linhas livres preservando a ordem de desenho
+    void compact() {
+        int target = 0;
+        for (int i = 0; i < size; i++) {
+            if ((flags[i] & FLAG_FREE) != 0) continue;
+            if (i != target) {
+                x[target] = x[i];
+                y[target] = y[i];
+                w[target] = w[i];
+                h[target] = h[i];
+                argb[target] = argb[i];
+                type[target] = type[i];
+                flags[target] = flags[i];
+                views[target] = views[i];
+                views[target].slot = target;
+            }
+            target++;
+        }
+        Arrays.fill(views, target, size, null);
+        size = target;
+        freeCount = 0;
+        touchAll();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= x.length) return;
+        int newCapacity = Math.max(capacity, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        w = Arrays.copyOf(w, newCapacity);
+        h = Arrays.copyOf(h, newCapacity);
+        argb = Arrays.copyOf(argb, newCapacity);
+        type = Arrays.copyOf(type, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        views = Arrays.copyOf(views, newCapacity);
+        chunkDirty = Arrays.copyOf(chunkDirty, (newCapacity >> CHUNK_SHIFT) + 1);
+        dirtyChunks = Arrays.copyOf(dirtyChunks, chunkDirty.length);
+    }
+}
@@ -0,0 +1,75 @@
+package br.com.mariojp.figureeditor;
+
+import java.util.Arrays;
+
+// Histograma de latências em nanossegundos no estilo do HdrHistogram: faixas
+// logarítmicas, cada uma dividida em SUB_COUNT / 2 partes lineares, o que dá erro
+// relativo abaixo de 1,6% em qualquer escala com memória fixa (~18 KB).
+// record() não aloca; as leituras podem vir de outra thread (métodos sincronizados).
+final class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF = SUB_COUNT / 2;
+    // Valores acima de ~18 min são contados no último intervalo
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = SUB_COUNT + (MAX_BITS - SUB_BITS) * HALF;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    public synchronized void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts[index(value)]++;
+        count++;
+        total += value;
+        if (value > max) max = value;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    // Contagem, média, percentis e máximo, em microssegundos
+    public synchronized LatencySummary summary() {
+        if (count == 0) return new LatencySummary(0, 0, 0, 0, 0, 0, 0);
+        return new LatencySummary(count, total / (double) count / 1e3,
+                percentile(0.50) / 1e3, percentile(0.90) / 1e3, percentile(0.99) / 1e3,
+                percentile(0.999) / 1e3, max / 1e3);
+    }
+
+    // Menor valor (limite superior do intervalo) que cobre a fração pedida das amostras
+    private long percentile(double fraction) {
+        long target = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(highestEquivalent(i), max);
+        }
+        return max;
+    }
+
+    // Abaixo de SUB_COUNT o valor é o próprio índice; acima, a faixa é a posição do bit
+    // mais alto e a parte linear são os SUB_BITS bits mais altos
+    private static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return SUB_COUNT + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index - SUB_COUNT) / HALF + 1;
+        long sub = (index - SUB_COUNT) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
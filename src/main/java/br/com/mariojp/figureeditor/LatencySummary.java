@@ -0,0 +1,34 @@
+package br.com.mariojp.figureeditor;
+
+import java.beans.ConstructorProperties;
+
+// Resumo de um LatencyHistogram (tempos em microssegundos); tipo público para o JMX
+public final class LatencySummary {
+    private final long count;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p90Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    @ConstructorProperties({"count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public LatencySummary(long count, double meanMicros, double p50Micros, double p90Micros, double p99Micros,
+                          double p999Micros, double maxMicros) {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount() { return count; }
+    public double getMeanMicros() { return meanMicros; }
+    public double getP50Micros() { return p50Micros; }
+    public double getP90Micros() { return p90Micros; }
+    public double getP99Micros() { return p99Micros; }
+    public double getP999Micros() { return p999Micros; }
+    public double getMaxMicros() { return maxMicros; }
+}
@@ -0,0 +1,77 @@
+package br.com.mariojp.figureeditor;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Grava as métricas periodicamente em uma thread própria: uma linha por amostra, em
+// JSON Lines (.json/.jsonl) ou CSV (qualquer outra extensão, com cabeçalho)
+final class MetricsDump implements Closeable {
+    private final EditorMetrics metrics;
+    private final BufferedWriter writer;
+    private final boolean json;
+    private final ScheduledExecutorService scheduler;
+
+    private MetricsDump(EditorMetrics metrics, BufferedWriter writer, boolean json) {
+        this.metrics = metrics;
+        this.writer = writer;
+        this.json = json;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static MetricsDump start(EditorMetrics metrics, Path file, long periodMillis) throws IOException {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Período do dump deve ser positivo");
+        }
+        String name = file.getFileName().toString().toLowerCase();
+        boolean json = name.endsWith(".json") || name.endsWith(".jsonl");
+        boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!json && fresh) {
+            writer.write(EditorMetrics.csvHeader());
+            writer.newLine();
+            writer.flush();
+        }
+        MetricsDump dump = new MetricsDump(metrics, writer, json);
+        dump.scheduler.scheduleAtFixedRate(dump::writeSample, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return dump;
+    }
+
+    private void writeSample() {
+        long now = System.currentTimeMillis();
+        try {
+            writer.write(json ? metrics.toJson(now) : metrics.toCsv(now));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            // Sem disco não há o que gravar: para o dump e avisa uma vez
+            System.err.println("Erro ao gravar métricas: " + e.getMessage());
+            scheduler.shutdown();
+        }
+    }
+
+    // Grava uma última amostra e fecha o arquivo
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSample();
+        writer.close();
+    }
+}
@@ -0,0 +1,137 @@
+package br.com.mariojp.figureeditor;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+// Navegador: a cena inteira reduzida, com a área visível do DrawingPanel em destaque.
+// Os pixels vêm da TilePyramid (atualizada em segundo plano a cada comando); clicar ou
+// arrastar centraliza a vista principal no ponto. Mostra a união da cena com a vista.
+// Não é serializado, então os campos não precisam ser Serializable.
+@SuppressWarnings("serial")
+class MinimapPanel extends JComponent {
+    private static final long serialVersionUID = 1L;
+    private static final int PADDING = 6;
+    private static final Color VIEW_COLOR = new Color(220, 40, 40);
+    private static final Color OUTSIDE_COLOR = new Color(235, 235, 235);
+
+    private final DrawingPanel panel;
+    private final TilePyramid pyramid;
+
+    // Mapeamento mundo -> minimapa do último desenho; congelado durante um arraste
+    private double originX, originY, fit = 1;
+    private int offsetX, offsetY;
+    private boolean dragging;
+    private final Rectangle2D.Double visibleWorld = new Rectangle2D.Double();
+    private final Rectangle2D.Double extent = new Rectangle2D.Double();
+
+    MinimapPanel(DrawingPanel panel) {
+        this.panel = panel;
+        this.pyramid = new TilePyramid(() -> SwingUtilities.invokeLater(this::repaint));
+        setPreferredSize(new Dimension(220, 160));
+        setBorder(BorderFactory.createMatteBorder(0, 1, 0, 0, Color.GRAY));
+        setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
+
+        panel.addSceneListener(pyramid);
+        pyramid.scenePublished(panel.getSceneVersion());
+        panel.addPropertyChangeListener("view", e -> repaint());
+        panel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) { repaint(); }
+        });
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragging = true;
+                jumpTo(e);
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) { jumpTo(e); }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragging = false;
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+
+    // Para a thread da pirâmide e deixa de acompanhar o painel
+    public void dispose() {
+        panel.removeSceneListener(pyramid);
+        pyramid.stop();
+    }
+
+    private void jumpTo(MouseEvent e) {
+        panel.centerViewOn(originX + (e.getX() - offsetX) / fit, originY + (e.getY() - offsetY) / fit);
+    }
+
+    private int toMinimapX(double worldX) { return (int) Math.round(offsetX + (worldX - originX) * fit); }
+    private int toMinimapY(double worldY) { return (int) Math.round(offsetY + (worldY - originY) * fit); }
+
+    // Encaixa a cena mais a área visível no componente, centralizado
+    private void updateMapping(TilePyramid.Layout layout) {
+        Viewport viewport = panel.getViewport();
+        viewport.toWorld(new Rectangle(0, 0, panel.getWidth(), panel.getHeight()), visibleWorld);
+        extent.setRect(visibleWorld);
+        if (!layout.bounds().isEmpty()) extent.add(layout.bounds());
+        if (dragging) return;
+        int width = Math.max(1, getWidth() - 2 * PADDING), height = Math.max(1, getHeight() - 2 * PADDING);
+        fit = Math.min(width / Math.max(1, extent.getWidth()), height / Math.max(1, extent.getHeight()));
+        originX = extent.getX();
+        originY = extent.getY();
+        offsetX = PADDING + (int) ((width - extent.getWidth() * fit) / 2);
+        offsetY = PADDING + (int) ((height - extent.getHeight() * fit) / 2);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setColor(OUTSIDE_COLOR);
+        g2.fillRect(0, 0, getWidth(), getHeight());
+        TilePyramid.Layout layout = pyramid.layout();
+        updateMapping(layout);
+        int x0 = toMinimapX(extent.getMinX()), y0 = toMinimapY(extent.getMinY());
+        g2.setColor(panel.getBackground());
+        g2.fillRect(x0, y0, toMinimapX(extent.getMaxX()) - x0, toMinimapY(extent.getMaxY()) - y0);
+
+        if (!layout.bounds().isEmpty()) {
+            // Nível mais detalhado que ainda não precisa ampliar: cada pixel do bloco
+            // cobre pelo menos um pixel do minimapa
+            int level = (int) Math.ceil(Math.log(1 / (fit * layout.leafUnits())) / Math.log(2));
+            level = Math.max(0, Math.min(TilePyramid.LEVELS - 1, level));
+            double span = TilePyramid.TILE * layout.units(level);
+            Rectangle2D bounds = layout.bounds();
+            int tx0 = (int) Math.floor(bounds.getMinX() / span), tx1 = (int) Math.floor(bounds.getMaxX() / span);
+            int ty0 = (int) Math.floor(bounds.getMinY() / span), ty1 = (int) Math.floor(bounds.getMaxY() / span);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            Shape clip = g2.getClip();
+            g2.clipRect(x0, y0, toMinimapX(extent.getMaxX()) - x0, toMinimapY(extent.getMaxY()) - y0);
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    BufferedImage tile = layout.tiles().get(new TilePyramid.Key(level, tx, ty));
+                    if (tile == null) continue;
+                    // Bordas arredondadas uma vez por linha/coluna: blocos vizinhos sem fresta
+                    int sx0 = toMinimapX(tx * span), sx1 = toMinimapX((tx + 1) * span);
+                    int sy0 = toMinimapY(ty * span), sy1 = toMinimapY((ty + 1) * span);
+                    g2.drawImage(tile, sx0, sy0, sx1, sy1, 0, 0, tile.getWidth(), tile.getHeight(), null);
+                }
+            }
+            g2.setClip(clip);
+        }
+
+        int vx = toMinimapX(visibleWorld.getMinX()), vy = toMinimapY(visibleWorld.getMinY());
+        g2.setColor(VIEW_COLOR);
+        g2.drawRect(vx, vy, Math.max(1, toMinimapX(visibleWorld.getMaxX()) - vx - 1),
+                Math.max(1, toMinimapY(visibleWorld.getMaxY()) - vy - 1));
+    }
+}
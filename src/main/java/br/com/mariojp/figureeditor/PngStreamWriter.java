@@ -0,0 +1,127 @@
+package br.com.mariojp.figureeditor;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Codificador PNG (RGB 8 bits) que recebe as linhas em ordem e as comprime
+// à medida que chegam, sem precisar da imagem inteira em memória
+class PngStreamWriter implements Closeable {
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+    private static final byte FILTER_SUB = 1;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] row;
+    private final byte[] idat = new byte[IDAT_CHUNK_SIZE];
+    private int idatLength;
+    private int rowsWritten;
+    private final CRC32 crc = new CRC32();
+
+    PngStreamWriter(OutputStream out, int width, int height, int dpi) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensões inválidas: " + width + "x" + height);
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * 3];
+
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;  // bits por canal
+        header[9] = 2;  // RGB
+        writeChunk("IHDR", header, header.length);
+
+        if (dpi > 0) {
+            int pixelsPerMeter = (int) Math.round(dpi / 0.0254);
+            byte[] phys = new byte[9];
+            putInt(phys, 0, pixelsPerMeter);
+            putInt(phys, 4, pixelsPerMeter);
+            phys[8] = 1;  // metro
+            writeChunk("pHYs", phys, phys.length);
+        }
+    }
+
+    // Escreve uma linha de 'width' pixels ARGB a partir de 'offset'
+    public void writeRow(int[] argb, int offset) throws IOException {
+        if (rowsWritten >= height) {
+            throw new IllegalStateException("Todas as linhas já foram escritas");
+        }
+        // Filtro Sub: cada byte menos o byte do pixel à esquerda
+        row[0] = FILTER_SUB;
+        int prev = 0;
+        for (int i = 0, p = 1; i < width; i++, p += 3) {
+            int rgb = argb[offset + i];
+            row[p] = (byte) ((rgb >> 16) - (prev >> 16));
+            row[p + 1] = (byte) ((rgb >> 8) - (prev >> 8));
+            row[p + 2] = (byte) (rgb - prev);
+            prev = rgb;
+        }
+        deflater.setInput(row);
+        while (!deflater.needsInput()) {
+            drain();
+        }
+        rowsWritten++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("PNG incompleto: " + rowsWritten + " de " + height + " linhas");
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain();
+            }
+            flushIdat();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void drain() throws IOException {
+        int n = deflater.deflate(idat, idatLength, idat.length - idatLength);
+        idatLength += n;
+        if (idatLength == idat.length) {
+            flushIdat();
+        }
+    }
+
+    private void flushIdat() throws IOException {
+        if (idatLength > 0) {
+            writeChunk("IDAT", idat, idatLength);
+            idatLength = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
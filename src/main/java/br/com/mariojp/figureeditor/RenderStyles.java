@@ -0,0 +1,44 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+
+// Traços e cores compartilhados (flyweights) pelo caminho de desenho
+final class RenderStyles {
+    static final Color OUTLINE_COLOR = new Color(0, 0, 0, 70);
+    static final BasicStroke OUTLINE_STROKE = new BasicStroke(1.2f);
+
+    static final Color SELECTION_COLOR = Color.RED;
+    static final BasicStroke DASHED_STROKE = new BasicStroke(2.0f, BasicStroke.CAP_ROUND,
+            BasicStroke.JOIN_ROUND, 0, new float[]{5}, 0);
+
+    static final int PREVIEW_ALPHA = 100;
+
+    static final Color GUIDE_COLOR = new Color(255, 0, 160);
+    static final BasicStroke GUIDE_STROKE = new BasicStroke(1f);
+
+    static final Font HUD_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    static final Color HUD_BACKGROUND = new Color(0, 0, 0, 170);
+    static final Color HUD_TEXT = Color.WHITE;
+
+    // Cache de cores por ARGB; uma colisão apenas substitui a entrada (Color é imutável)
+    private static final int CACHE_SIZE = 4096;
+    private static final Color[] COLORS = new Color[CACHE_SIZE];
+
+    private RenderStyles() {}
+
+    static Color color(int argb) {
+        int slot = (argb * 0x9E3779B9 >>> 20) & (CACHE_SIZE - 1);
+        Color cached = COLORS[slot];
+        if (cached == null || cached.getRGB() != argb) {
+            cached = new Color(argb, true);
+            COLORS[slot] = cached;
+        }
+        return cached;
+    }
+
+    static Color withAlpha(Color color, int alpha) {
+        return color((alpha << 24) | (color.getRGB() & 0xFFFFFF));
+    }
+}
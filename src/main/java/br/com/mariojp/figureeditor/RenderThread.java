@@ -0,0 +1,177 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Desenho fora do EDT: uma thread dedicada desenha cópias imutáveis da cena em buffers
+// de fundo, e o EDT só copia para a tela o quadro completo mais recente.
+// Há no máximo um pedido em andamento; enquanto ele é desenhado, o EDT acumula as áreas
+// alteradas, e todos os eventos desse intervalo viram um único quadro. Três imagens
+// circulam sem cópia: a exibida pelo EDT, a pronta ainda não exibida e a em desenho.
+class RenderThread {
+
+    // Pedido de quadro. Com dirty == null o quadro é inteiro e a cena tem as figuras
+    // visíveis; senão só a área suja (no mundo) é refeita sobre o quadro anterior, que
+    // tem a mesma vista, e a cena tem só as figuras que a tocam. Com direct o quadro é
+    // escrito pelo SpanRasterizer em vez do Java2D
+    record Request(SceneSnapshot scene, Rectangle2D dirty, GraphicsConfiguration gc, int width, int height,
+                   double scale, double translateX, double translateY,
+                   SceneRenderer.Quality quality, double detailPixels, boolean direct) {}
+
+    // Quadro pronto e a vista com que foi desenhado
+    static final class Frame {
+        final BufferedImage image;
+        double scale;
+        double translateX;
+        double translateY;
+        long renderNanos;
+
+        Frame(BufferedImage image) {
+            this.image = image;
+        }
+    }
+
+    private final Color background;
+    // Chamado na thread de desenho quando um quadro fica pronto (ex.: repaint do painel)
+    private final Runnable presenter;
+    private final SceneRenderer renderer = new SceneRenderer();
+    private final SpanRasterizer rasterizer = new SpanRasterizer();
+    private final Thread thread;
+
+    private final Object lock = new Object();
+    private Request pending;
+    private boolean stopped;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final AtomicReference<Frame> ready = new AtomicReference<>();
+    private final AtomicReference<Frame> spare = new AtomicReference<>();
+    // Último quadro desenhado (só a thread de desenho usa)
+    private Frame last;
+    private final Rectangle region = new Rectangle();
+
+    RenderThread(Color background, Runnable presenter) {
+        this.background = background;
+        this.presenter = presenter;
+        this.thread = new Thread(this::renderLoop, "figure-render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Ainda desenhando o último pedido: o EDT deve continuar acumulando alterações
+    public boolean isBusy() {
+        return busy.get();
+    }
+
+    public void submit(Request request) {
+        busy.set(true);
+        synchronized (lock) {
+            pending = request;
+            lock.notifyAll();
+        }
+    }
+
+    // Quadro mais recente para o EDT exibir; o anterior (displayed) volta a ser reserva
+    public Frame latest(Frame displayed) {
+        Frame frame = ready.getAndSet(null);
+        if (frame == null) return displayed;
+        if (displayed != null) spare.compareAndSet(null, displayed);
+        return frame;
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void renderLoop() {
+        while (true) {
+            Request request;
+            synchronized (lock) {
+                while (pending == null && !stopped) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) return;
+                request = pending;
+                pending = null;
+            }
+            try {
+                render(request);
+            } finally {
+                busy.set(false);
+            }
+            presenter.run();
+        }
+    }
+
+    private void render(Request request) {
+        long start = System.nanoTime();
+        int width = request.width(), height = request.height();
+        Frame frame = spare.getAndSet(null);
+        // O rasterizador direto escreve no int[] de uma imagem TYPE_INT_RGB
+        if (frame == null || frame.image.getWidth() != width || frame.image.getHeight() != height
+                || (request.direct() && frame.image.getType() != BufferedImage.TYPE_INT_RGB)) {
+            frame = new Frame(request.gc() != null && !request.direct()
+                    ? request.gc().createCompatibleImage(width, height, Transparency.OPAQUE)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+        double scale = request.scale(), tx = request.translateX(), ty = request.translateY();
+        boolean partial = request.dirty() != null && last != null
+                && last.image.getWidth() == width && last.image.getHeight() == height;
+
+        Graphics2D g2 = frame.image.createGraphics();
+        try {
+            if (partial) {
+                // Parte do quadro anterior e refaz só a área suja
+                g2.drawImage(last.image, 0, 0, null);
+                Rectangle2D dirty = request.dirty();
+                int x0 = (int) Math.floor(dirty.getMinX() * scale + tx) - 1;
+                int y0 = (int) Math.floor(dirty.getMinY() * scale + ty) - 1;
+                int x1 = (int) Math.ceil(dirty.getMaxX() * scale + tx) + 1;
+                int y1 = (int) Math.ceil(dirty.getMaxY() * scale + ty) + 1;
+                region.setBounds(x0, y0, x1 - x0, y1 - y0);
+                Rectangle2D.intersect(region, new Rectangle(0, 0, width, height), region);
+            } else {
+                region.setBounds(0, 0, width, height);
+            }
+            if (!region.isEmpty() && request.direct()) {
+                rasterizer.setQuality(request.quality());
+                rasterizer.setDetailPixels(request.detailPixels());
+                int[] pixels = ((DataBufferInt) frame.image.getRaster().getDataBuffer()).getData();
+                rasterizer.render(request.scene(), null, pixels, width, region, scale, tx, ty,
+                        background.getRGB(), true);
+            } else if (!region.isEmpty()) {
+                g2.setClip(region);
+                renderer.setQuality(request.quality());
+                renderer.setDetailPixels(request.detailPixels());
+                renderer.setPixelScale(scale);
+                renderer.begin(g2, region, background);
+                g2.translate(tx, ty);
+                g2.scale(scale, scale);
+                // A cena já vem filtrada pela região, na ordem de desenho
+                SceneSnapshot scene = request.scene();
+                for (int i = 0, n = scene.size(); i < n; i++) {
+                    renderer.paintFigure(g2, scene, i);
+                }
+            }
+        } finally {
+            g2.dispose();
+        }
+        frame.scale = scale;
+        frame.translateX = tx;
+        frame.translateY = ty;
+        frame.renderNanos = System.nanoTime() - start;
+        last = frame;
+        // Um quadro pronto que o EDT ainda não pegou é substituído e vira reserva
+        Frame skipped = ready.getAndSet(frame);
+        if (skipped != null) spare.set(skipped);
+    }
+}
@@ -0,0 +1,586 @@
+package br.com.mariojp.figureeditor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Journal de escrita antecipada da cena, para recuperar o desenho depois de uma falha.
+//
+// Cada operação direta do painel (adicionar, remover, mover, recolorir, limpar,
+// restaurar) vira um registro de efeito. Quando o CommandManager executa, desfaz ou
+// refaz um comando, os efeitos acumulados são gravados como um quadro só, fechado por
+// um registro COMMIT; movimentos seguidos da mesma figura (ou do mesmo grupo)
+// viram um registro.
+// Os quadros vão para uma thread de escrita que grava e faz fsync em grupo.
+//
+// Quadro: tamanho (int), CRC32 (int) e registros. Na recuperação, um quadro
+// incompleto ou com CRC errado encerra a leitura, então um comando pela metade
+// nunca é aplicado.
+//
+// Compactação: quando o journal passa de COMPACT_BYTES, a cena é gravada como
+// snapshot-<geração>.fged e um journal-<geração>.log novo começa com um quadro IDS,
+// que liga as figuras do snapshot aos seus ids.
+//
+// Um diretório tem um journal só: open trava o arquivo 'lock' e falha se outro editor
+// já estiver usando o diretório.
+class SceneJournal implements CommandListener, Closeable {
+    static final long COMPACT_BYTES = 8L * 1024 * 1024;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_MOVE = 3;
+    private static final byte OP_COLOR = 4;
+    private static final byte OP_CLEAR = 5;
+    private static final byte OP_RESTORE = 6;
+    private static final byte OP_IDS = 7;
+    private static final byte OP_COMMIT = 8;
+    private static final byte OP_MOVE_GROUP = 9;
+
+    static final byte EXECUTED = 0;
+    static final byte UNDONE = 1;
+    static final byte REDONE = 2;
+    static final byte REMOTE = 3;
+
+    private static final int FRAME_HEADER = 8;
+    private static final int FIGURE_BYTES = 4 + 1 + 4 * 8 + 4;
+    private static final int WRITE_BUFFER = 1024 * 1024;
+    private static final Object STOP = new Object();
+    // Diretórios travados por este processo. A trava do sistema é por processo: abrir e
+    // fechar um segundo canal no arquivo de trava soltaria a do primeiro
+    private static final Set<Path> LOCKED = ConcurrentHashMap.newKeySet();
+
+    private final Path dir;
+    private final Path lockedDir;
+    private final FileChannel lock;
+    private final DrawingPanel panel;
+    private final CommandManager manager;
+    private final long compactBytes;
+    private long generation;
+    private long journalBytes;
+
+    // Efeitos do comando corrente, ainda não confirmados (só o EDT mexe)
+    private ByteBuffer tx = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private int lastMoveAt = -1;
+    // Grupo do último registro de movimento (null se foi de uma figura só)
+    private FigureShape[] lastMoveGroup;
+    private final CRC32 crc = new CRC32();
+
+    // Quadros (byte[]) e compactações, na ordem, para a thread de escrita
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel;
+    private volatile IOException failure;
+    private boolean closed;
+
+    private SceneJournal(Path dir, Path lockedDir, FileChannel lock, DrawingPanel panel, long generation,
+                         FileChannel channel, long journalBytes, long compactBytes) {
+        this.dir = dir;
+        this.lockedDir = lockedDir;
+        this.lock = lock;
+        this.panel = panel;
+        this.manager = panel.getCommandManager();
+        this.generation = generation;
+        this.channel = channel;
+        this.journalBytes = journalBytes;
+        this.compactBytes = compactBytes;
+        this.writer = new Thread(this::writeLoop, "scene-journal");
+        this.writer.setDaemon(true);
+    }
+
+    // Recupera a cena gravada em 'dir' (se houver) e passa a registrar as operações do painel
+    public static SceneJournal open(Path dir, DrawingPanel panel) throws IOException {
+        return open(dir, panel, COMPACT_BYTES);
+    }
+
+    public static SceneJournal open(Path dir, DrawingPanel panel, long compactBytes) throws IOException {
+        Files.createDirectories(dir);
+        Path lockedDir = dir.toRealPath();
+        if (!LOCKED.add(lockedDir)) throw new IOException("Journal em uso por este editor: " + dir);
+        FileChannel lock = null;
+        try {
+            lock = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (lock.tryLock() == null) throw new IOException("Journal em uso por outro editor: " + dir);
+            return open(dir, lockedDir, lock, panel, compactBytes);
+        } catch (IOException | RuntimeException e) {
+            if (lock != null) lock.close();
+            LOCKED.remove(lockedDir);
+            throw e;
+        }
+    }
+
+    private static SceneJournal open(Path dir, Path lockedDir, FileChannel lock, DrawingPanel panel,
+                                     long compactBytes) throws IOException {
+        long generation = latestSnapshot(dir);
+        Path snapshot = snapshotPath(dir, generation);
+        boolean hasSnapshot = Files.exists(snapshot);
+        if (hasSnapshot) {
+            panel.loadSnapshot(FigureDocument.open(snapshot).toSnapshot());
+        }
+
+        Path journalPath = journalPath(dir, generation);
+        FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Replay replay = new Replay(panel);
+        long validEnd;
+        try {
+            validEnd = replay.run(channel);
+            // Descarta o final rasgado de uma escrita interrompida
+            channel.truncate(validEnd);
+            channel.position(validEnd);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        deleteOtherGenerations(dir, generation);
+        // A cena recuperada vira a versão publicada para leitores fora do EDT
+        panel.getStore().publish();
+
+        SceneJournal journal = new SceneJournal(dir, lockedDir, lock, panel, generation, channel, validEnd, compactBytes);
+        panel.setJournal(journal);
+        panel.getCommandManager().addListener(journal);
+        journal.writer.start();
+        // Sem o quadro IDS os ids do snapshot não são reproduzíveis: começar uma base nova
+        if (hasSnapshot && !replay.sawIds) {
+            journal.compact();
+        }
+        return journal;
+    }
+
+    public Path getDirectory() { return dir; }
+    public long getGeneration() { return generation; }
+    public long getJournalBytes() { return journalBytes; }
+
+    // Efeitos registrados pelo DrawingPanel
+
+    void figureAdded(FigureShape shape) {
+        ensure(1 + FIGURE_BYTES);
+        tx.put(OP_ADD);
+        putFigure(shape);
+        lastMoveAt = -1;
+    }
+
+    void figureRemoved(FigureShape shape) {
+        ensure(5);
+        tx.put(OP_REMOVE).putInt(shape.id);
+        lastMoveAt = -1;
+    }
+
+    void figureMoved(FigureShape shape, double dx, double dy) {
+        // Arrastar gera um movimento por evento do mouse: somar no registro anterior
+        if (lastMoveAt >= 0 && lastMoveGroup == null && tx.getInt(lastMoveAt + 1) == shape.id) {
+            tx.putDouble(lastMoveAt + 5, tx.getDouble(lastMoveAt + 5) + dx);
+            tx.putDouble(lastMoveAt + 13, tx.getDouble(lastMoveAt + 13) + dy);
+            return;
+        }
+        ensure(21);
+        lastMoveAt = tx.position();
+        lastMoveGroup = null;
+        tx.put(OP_MOVE).putInt(shape.id).putDouble(dx).putDouble(dy);
+    }
+
+    // Um registro com os ids do grupo; o arraste do mesmo grupo soma no registro anterior
+    void figuresMoved(FigureShape[] shapes, double dx, double dy) {
+        int deltaAt = 5 + 4 * shapes.length;
+        if (lastMoveAt >= 0 && lastMoveGroup == shapes) {
+            tx.putDouble(lastMoveAt + deltaAt, tx.getDouble(lastMoveAt + deltaAt) + dx);
+            tx.putDouble(lastMoveAt + deltaAt + 8, tx.getDouble(lastMoveAt + deltaAt + 8) + dy);
+            return;
+        }
+        ensure(deltaAt + 16);
+        lastMoveAt = tx.position();
+        lastMoveGroup = shapes;
+        tx.put(OP_MOVE_GROUP).putInt(shapes.length);
+        for (FigureShape shape : shapes) {
+            tx.putInt(shape.id);
+        }
+        tx.putDouble(dx).putDouble(dy);
+    }
+
+    void figureRecolored(FigureShape shape) {
+        ensure(9);
+        tx.put(OP_COLOR).putInt(shape.id).putInt(shape.getArgb());
+        lastMoveAt = -1;
+    }
+
+    void sceneCleared() {
+        ensure(1);
+        tx.put(OP_CLEAR);
+        lastMoveAt = -1;
+    }
+
+    void figuresRestored(FigureShape[] shapes) {
+        ensure(5 + shapes.length * FIGURE_BYTES);
+        tx.put(OP_RESTORE).putInt(shapes.length);
+        for (FigureShape shape : shapes) {
+            putFigure(shape);
+        }
+        lastMoveAt = -1;
+    }
+
+    // Fronteiras de comando vindas do CommandManager
+
+    @Override
+    public void commandExecuted(Command command) { commit(EXECUTED, command); }
+
+    @Override
+    public void commandUndone(Command command) { commit(UNDONE, command); }
+
+    @Override
+    public void commandRedone(Command command) { commit(REDONE, command); }
+
+    // Operações de outro editor (colaboração); dentro de um lote vão com o quadro dele
+    void remoteApplied() {
+        if (!manager.isInBatch()) commit(REMOTE, null);
+    }
+
+    private void commit(byte kind, Command command) {
+        if (closed || failure != null) {
+            tx.clear();
+            lastMoveAt = -1;
+            return;
+        }
+        ensure(3);
+        tx.put(OP_COMMIT).put(kind).put(commandTag(command));
+        byte[] frame = frame(tx.array(), tx.position(), crc);
+        tx.clear();
+        lastMoveAt = -1;
+        journalBytes += frame.length;
+        queue.add(frame);
+        if (journalBytes > compactBytes && !manager.isInBatch()) {
+            compact();
+        }
+    }
+
+    // Grava a cena atual como nova base e começa um journal vazio
+    public void compact() {
+        if (closed || failure != null) return;
+        // Efeitos pendentes já estão na cena que vai para o snapshot. A versão imutável
+        // só copia os blocos alterados; a cópia contínua é montada na thread de escrita
+        tx.clear();
+        lastMoveAt = -1;
+        queue.add(new Compaction(++generation, panel.getStore().capture()));
+        journalBytes = 0;
+    }
+
+    // Espera a gravação de tudo o que já foi confirmado e encerra a thread de escrita
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        manager.removeListener(this);
+        panel.setJournal(null);
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            lock.close();
+        } finally {
+            LOCKED.remove(lockedDir);
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void putFigure(FigureShape shape) {
+        tx.putInt(shape.id).put((byte) shape.getType().ordinal())
+                .putDouble(shape.getX()).putDouble(shape.getY())
+                .putDouble(shape.getWidth()).putDouble(shape.getHeight())
+                .putInt(shape.getArgb());
+    }
+
+    private void ensure(int bytes) {
+        if (tx.remaining() >= bytes) return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(tx.capacity() * 2, tx.position() + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        tx.flip();
+        grown.put(tx);
+        tx = grown;
+    }
+
+    private static byte commandTag(Command command) {
+        if (command instanceof AddShapeCommand) return 1;
+        if (command instanceof RemoveShapeCommand) return 2;
+        if (command instanceof MoveShapeCommand) return 3;
+        if (command instanceof RecolorShapeCommand) return 4;
+        if (command instanceof ClearCommand) return 5;
+        if (command instanceof CompositeCommand) return 6;
+        if (command instanceof MoveShapesCommand) return 7;
+        if (command instanceof RemoveShapesCommand) return 8;
+        if (command instanceof RecolorShapesCommand) return 9;
+        return 0;
+    }
+
+    private static byte[] frame(byte[] payload, int length, CRC32 crc) {
+        byte[] frame = new byte[FRAME_HEADER + length];
+        crc.reset();
+        crc.update(payload, 0, length);
+        ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(length).putInt((int) crc.getValue()).put(payload, 0, length);
+        return frame;
+    }
+
+    // Thread de escrita: tudo o que chegou junto é gravado com um único fsync
+
+    private record Compaction(long generation, SceneVersion scene) {}
+
+    private void writeLoop() {
+        ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER);
+        List<Object> group = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(group);
+            try {
+                for (Object item : group) {
+                    if (failure != null) break;
+                    if (item == STOP) {
+                        stop = true;
+                    } else if (item instanceof byte[] frame) {
+                        write(out, frame);
+                    } else if (item instanceof Compaction compaction) {
+                        drain(out);
+                        channel.force(false);
+                        rollOver(compaction);
+                    }
+                }
+                if (failure == null) {
+                    drain(out);
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Journal desativado: " + e.getMessage());
+            }
+            group.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+        }
+    }
+
+    private void write(ByteBuffer out, byte[] frame) throws IOException {
+        if (out.remaining() < frame.length) {
+            drain(out);
+        }
+        if (frame.length > out.capacity()) {
+            ByteBuffer wrapped = ByteBuffer.wrap(frame);
+            while (wrapped.hasRemaining()) channel.write(wrapped);
+        } else {
+            out.put(frame);
+        }
+    }
+
+    private void drain(ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    // O journal novo (com IDS) é gravado antes de o snapshot aparecer com o nome final:
+    // até o rename, a recuperação continua usando a geração anterior, que está completa
+    private void rollOver(Compaction compaction) throws IOException {
+        long next = compaction.generation();
+        FileChannel nextChannel = FileChannel.open(journalPath(dir, next), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        int[] sceneIds = compaction.scene().ids();
+        ByteBuffer ids = ByteBuffer.allocate(5 + 4 * sceneIds.length).order(ByteOrder.LITTLE_ENDIAN);
+        ids.put(OP_IDS).putInt(sceneIds.length);
+        for (int id : sceneIds) ids.putInt(id);
+        ByteBuffer frame = ByteBuffer.wrap(frame(ids.array(), ids.position(), new CRC32()));
+        while (frame.hasRemaining()) nextChannel.write(frame);
+        nextChannel.force(false);
+
+        // save grava num temporário e troca de uma vez
+        FigureDocument.save(compaction.scene().toSnapshot(), snapshotPath(dir, next));
+
+        channel.close();
+        channel = nextChannel;
+        deleteOtherGenerations(dir, next);
+    }
+
+    // Arquivos por geração
+
+    private static Path snapshotPath(Path dir, long generation) {
+        return dir.resolve("snapshot-" + generation + ".fged");
+    }
+
+    private static Path journalPath(Path dir, long generation) {
+        return dir.resolve("journal-" + generation + ".log");
+    }
+
+    private static long latestSnapshot(Path dir) throws IOException {
+        long latest = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "snapshot-*.fged")) {
+            for (Path file : files) {
+                latest = Math.max(latest, generationOf(file.getFileName().toString()));
+            }
+        }
+        return latest;
+    }
+
+    private static void deleteOtherGenerations(Path dir, long keep) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "{snapshot,journal}-*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp") || generationOf(name) != keep) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // "journal-12.log" -> 12; nomes fora do padrão -> -1
+    private static long generationOf(String name) {
+        int start = name.indexOf('-') + 1;
+        int end = name.indexOf('.', start);
+        try {
+            return Long.parseLong(name.substring(start, end < 0 ? name.length() : end));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    // Reaplica os quadros completos do journal sobre a cena carregada do snapshot
+    private static final class Replay {
+        private final DrawingPanel panel;
+        private final FigureStore store;
+        private final Map<Integer, FigureShape> shapes = new HashMap<>();
+        private final CRC32 crc = new CRC32();
+        boolean sawIds;
+
+        Replay(DrawingPanel panel) {
+            this.panel = panel;
+            this.store = panel.getStore();
+        }
+
+        // Devolve a posição logo depois do último quadro válido
+        long run(FileChannel channel) throws IOException {
+            long size = channel.size();
+            if (size == 0) return 0;
+            // Lido para a memória (e não mapeado) porque o arquivo ainda será truncado
+            ByteBuffer log = ByteBuffer.allocate(Math.toIntExact(size)).order(ByteOrder.LITTLE_ENDIAN);
+            while (log.hasRemaining() && channel.read(log, log.position()) >= 0) {}
+
+            for (FigureShape shape : store.liveFigures()) {
+                shapes.put(shape.id, shape);
+            }
+            panel.beginUpdate();
+            try {
+                int at = 0;
+                while (at + FRAME_HEADER <= size) {
+                    int length = log.getInt(at);
+                    if (length < 0 || at + FRAME_HEADER + (long) length > size) break;
+                    ByteBuffer payload = log.slice(at + FRAME_HEADER, length).order(ByteOrder.LITTLE_ENDIAN);
+                    crc.reset();
+                    crc.update(payload.duplicate());
+                    if ((int) crc.getValue() != log.getInt(at + 4)) break;
+                    apply(payload);
+                    at += FRAME_HEADER + length;
+                }
+                // Figuras removidas não voltam mais: nenhum histórico sobreviveu à recuperação
+                for (FigureShape shape : shapes.values()) {
+                    panel.releaseShape(shape);
+                }
+                return at;
+            } finally {
+                panel.endUpdate();
+            }
+        }
+
+        private void apply(ByteBuffer frame) {
+            while (frame.hasRemaining()) {
+                byte op = frame.get();
+                switch (op) {
+                    case OP_ADD -> panel.addShapeDirectly(readFigure(frame));
+                    case OP_REMOVE -> {
+                        FigureShape shape = shapes.get(frame.getInt());
+                        if (shape != null) panel.removeShapeDirectly(shape);
+                    }
+                    case OP_MOVE -> {
+                        FigureShape shape = shapes.get(frame.getInt());
+                        double dx = frame.getDouble(), dy = frame.getDouble();
+                        if (shape != null) panel.translateShapeDirectly(shape, dx, dy);
+                    }
+                    case OP_MOVE_GROUP -> {
+                        FigureShape[] group = new FigureShape[frame.getInt()];
+                        int found = 0;
+                        for (int i = 0; i < group.length; i++) {
+                            FigureShape shape = shapes.get(frame.getInt());
+                            if (shape != null) group[found++] = shape;
+                        }
+                        double dx = frame.getDouble(), dy = frame.getDouble();
+                        panel.translateShapesDirectly(found == group.length ? group : Arrays.copyOf(group, found),
+                                dx, dy);
+                    }
+                    case OP_COLOR -> {
+                        FigureShape shape = shapes.get(frame.getInt());
+                        int argb = frame.getInt();
+                        if (shape != null) panel.recolorShapeDirectly(shape, RenderStyles.color(argb));
+                    }
+                    case OP_CLEAR -> panel.clearDirectly();
+                    case OP_RESTORE -> {
+                        FigureShape[] restored = new FigureShape[frame.getInt()];
+                        for (int i = 0; i < restored.length; i++) {
+                            restored[i] = readFigure(frame);
+                        }
+                        panel.restoreShapesDirectly(restored);
+                    }
+                    case OP_IDS -> {
+                        // Ids das figuras do snapshot, na ordem de desenho
+                        List<FigureShape> live = store.liveFigures();
+                        int count = frame.getInt();
+                        if (count != live.size()) {
+                            throw new IllegalStateException("Journal não corresponde ao snapshot");
+                        }
+                        shapes.clear();
+                        for (FigureShape shape : live) {
+                            store.setId(shape, frame.getInt());
+                            shapes.put(shape.id, shape);
+                        }
+                        sawIds = true;
+                    }
+                    case OP_COMMIT -> frame.position(frame.position() + 2);
+                    default -> throw new IllegalStateException("Registro desconhecido no journal: " + op);
+                }
+            }
+        }
+
+        // Figura conhecida pelo id, ou criada (fora da cena) a partir do registro
+        private FigureShape readFigure(ByteBuffer frame) {
+            int id = frame.getInt();
+            ShapeType type = ShapeType.fromOrdinal(frame.get());
+            double x = frame.getDouble(), y = frame.getDouble(), w = frame.getDouble(), h = frame.getDouble();
+            int argb = frame.getInt();
+            FigureShape shape = shapes.get(id);
+            if (shape == null) {
+                shape = new FigureShape(store, type, x, y, w, h, argb);
+                store.setId(shape, id);
+                shapes.put(id, shape);
+            }
+            return shape;
+        }
+    }
+}
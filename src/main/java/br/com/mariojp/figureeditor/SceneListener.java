@@ -0,0 +1,12 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.geom.Rectangle2D;
+
+// Observador das mudanças da cena do DrawingPanel, sempre chamado no EDT
+interface SceneListener {
+    // Área do mundo alterada (null = a cena inteira); chega antes da versão que a contém
+    default void sceneChanged(Rectangle2D area) {}
+
+    // Nova versão imutável publicada, com todas as mudanças avisadas até aqui
+    default void scenePublished(SceneVersion version) {}
+}
@@ -0,0 +1,133 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+// Desenho da cena sem depender de Swing: usado pelo DrawingPanel e pelo modo batch,
+// funciona com java.awt.headless=true. Não é thread-safe: uma instância por thread.
+class SceneRenderer {
+
+    // FULL: antialiasing e contorno; FAST: sem os dois, para quadros durante a interação
+    enum Quality { FULL, FAST }
+
+    private final FigurePainter painter = new FigurePainter();
+    private final Rectangle2D.Double selectionFrame = new Rectangle2D.Double();
+
+    private Quality quality = Quality.FULL;
+    // Figuras menores que isto (em pixels do dispositivo, nos dois lados) viram blocos
+    private double detailPixels = 1;
+    // Pixels do dispositivo por unidade da cena (escala da exportação ou zoom)
+    private double pixelScale = 1;
+
+    public FigurePainter getPainter() { return painter; }
+
+    public Quality getQuality() { return quality; }
+    public void setQuality(Quality quality) { this.quality = quality; }
+
+    public void setPixelScale(double pixelScale) { this.pixelScale = pixelScale; }
+
+    public double getDetailPixels() { return detailPixels; }
+    public void setDetailPixels(double detailPixels) { this.detailPixels = Math.max(1, detailPixels); }
+
+    // Fundo da área e antialiasing conforme a qualidade
+    public void begin(Graphics2D g2, Rectangle area, Color background) {
+        g2.setColor(background);
+        g2.fillRect(area.x, area.y, area.width, area.height);
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, quality == Quality.FULL
+                ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+    }
+
+    // Figuras já filtradas e na ordem de desenho; com skipOverlay, as marcadas como overlay são puladas
+    public void paintFigures(Graphics2D g2, List<FigureShape> figures, boolean skipOverlay) {
+        for (int i = 0, n = figures.size(); i < n; i++) {
+            FigureShape figure = figures.get(i);
+            if (!skipOverlay || !figure.isOverlay()) {
+                paint(g2, figure.getType(), figure.getX(), figure.getY(), figure.getWidth(), figure.getHeight(),
+                        figure.getArgb());
+            }
+        }
+    }
+
+    public void paintFigure(Graphics2D g2, FigureShape figure) {
+        paint(g2, figure.getType(), figure.getX(), figure.getY(), figure.getWidth(), figure.getHeight(),
+                figure.getArgb());
+    }
+
+    // Uma figura de uma cópia da cena, sem teste de região
+    public void paintFigure(Graphics2D g2, SceneSnapshot scene, int i) {
+        paint(g2, scene.type(i), scene.x(i), scene.y(i), scene.width(i), scene.height(i), scene.argb(i));
+    }
+
+    // Nível de detalhe: abaixo de um pixel a figura vira um ponto de um pixel, abaixo de
+    // detailPixels vira o retângulo dos limites; o resto é desenhado conforme a qualidade
+    private void paint(Graphics2D g2, ShapeType type, double x, double y, double w, double h, int argb) {
+        double pw = w * pixelScale, ph = h * pixelScale;
+        if (pw < detailPixels && ph < detailPixels) {
+            Color color = RenderStyles.color(argb);
+            if (pw < 1 && ph < 1) {
+                double pixel = 1 / pixelScale;
+                painter.paintBlock(g2, x + (w - pixel) / 2, y + (h - pixel) / 2, pixel, pixel, color);
+            } else {
+                painter.paintBlock(g2, x, y, w, h, color);
+            }
+            return;
+        }
+        painter.paint(g2, type, x, y, w, h, RenderStyles.color(argb), quality == Quality.FULL);
+    }
+
+    // Figuras de uma cópia da cena que intersectam a região (coordenadas da cena)
+    public void paintFigures(Graphics2D g2, SceneSnapshot scene, Rectangle2D region) {
+        double margin = DrawingPanel.PAINT_MARGIN;
+        double x0 = region.getMinX() - margin, y0 = region.getMinY() - margin;
+        double x1 = region.getMaxX() + margin, y1 = region.getMaxY() + margin;
+        for (int i = 0, n = scene.size(); i < n; i++) {
+            double x = scene.x(i), y = scene.y(i);
+            if (x > x1 || y > y1 || x + scene.width(i) < x0 || y + scene.height(i) < y0) continue;
+            paint(g2, scene.type(i), x, y, scene.width(i), scene.height(i), scene.argb(i));
+        }
+    }
+
+    public void paintSelection(Graphics2D g2, FigureShape selected) {
+        g2.setColor(RenderStyles.SELECTION_COLOR);
+        g2.setStroke(RenderStyles.DASHED_STROKE);
+        selectionFrame.setRect(selected.getX() - 2, selected.getY() - 2,
+                selected.getWidth() + 4, selected.getHeight() + 4);
+        g2.draw(selectionFrame);
+    }
+
+    // Retângulo da seleção por área
+    public void paintMarquee(Graphics2D g2, Rectangle2D bounds) {
+        g2.setColor(RenderStyles.SELECTION_COLOR);
+        g2.setStroke(RenderStyles.DASHED_STROKE);
+        g2.draw(bounds);
+    }
+
+    public void paintPreview(Graphics2D g2, ShapeType type, Rectangle2D bounds, Color color) {
+        g2.setColor(color);
+        g2.setStroke(RenderStyles.DASHED_STROKE);
+        g2.draw(painter.geometry(type, bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()));
+    }
+
+    // Imagem nova com a região da cena ampliada por 'scale'
+    public BufferedImage render(SceneSnapshot scene, Rectangle2D region, double scale, Color background) {
+        int width = Math.max(1, (int) Math.ceil(region.getWidth() * scale));
+        int height = Math.max(1, (int) Math.ceil(region.getHeight() * scale));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        try {
+            begin(g2, new Rectangle(0, 0, width, height), background);
+            g2.scale(scale, scale);
+            g2.translate(-region.getX(), -region.getY());
+            setPixelScale(scale);
+            paintFigures(g2, scene, region);
+        } finally {
+            g2.dispose();
+        }
+        return image;
+    }
+}
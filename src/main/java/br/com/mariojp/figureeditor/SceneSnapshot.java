@@ -0,0 +1,44 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.geom.Rectangle2D;
+
+// Cópia imutável das figuras vivas, na ordem de desenho; pode ser lida de
+// qualquer thread enquanto o EDT continua editando a cena
+final class SceneSnapshot {
+    private final double[] x, y, w, h;
+    private final int[] argb;
+    private final byte[] type;
+    private final int count;
+
+    SceneSnapshot(double[] x, double[] y, double[] w, double[] h, int[] argb, byte[] type, int count) {
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.h = h;
+        this.argb = argb;
+        this.type = type;
+        this.count = count;
+    }
+
+    public int size() { return count; }
+    public double x(int i) { return x[i]; }
+    public double y(int i) { return y[i]; }
+    public double width(int i) { return w[i]; }
+    public double height(int i) { return h[i]; }
+    public int argb(int i) { return argb[i]; }
+    public ShapeType type(int i) { return ShapeType.fromOrdinal(type[i]); }
+
+    // União dos limites de todas as figuras (vazia se não há figuras)
+    public Rectangle2D bounds() {
+        Rectangle2D.Double bounds = new Rectangle2D.Double();
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                bounds.setRect(x[i], y[i], w[i], h[i]);
+            } else {
+                bounds.add(x[i], y[i]);
+                bounds.add(x[i] + w[i], y[i] + h[i]);
+            }
+        }
+        return bounds;
+    }
+}
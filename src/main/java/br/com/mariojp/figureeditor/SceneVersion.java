@@ -0,0 +1,89 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.geom.Rectangle2D;
+
+// Versão imutável da cena, publicada pelo FigureStore a cada comando aplicado.
+// As figuras ficam em blocos de slots (Chunk) compartilhados entre versões seguidas:
+// publicar copia só os blocos alterados desde a versão anterior. Pode ser lida de
+// qualquer thread, sem trava e sem cópia, enquanto o EDT continua editando.
+final class SceneVersion {
+    static final SceneVersion EMPTY = new SceneVersion(0, new Chunk[0], 0);
+
+    // Figuras vivas de um intervalo de slots, na ordem de desenho, com os ids e a
+    // união dos limites (vazia se o bloco não tem figuras)
+    record Chunk(SceneSnapshot figures, int[] ids, double minX, double minY, double maxX, double maxY) {}
+
+    private final long number;
+    private final Chunk[] chunks;
+    private final int size;
+    // Cópia contínua, montada na primeira leitura que precisar dela (na thread do leitor)
+    private volatile SceneSnapshot flat;
+
+    SceneVersion(long number, Chunk[] chunks, int size) {
+        this.number = number;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    // Cresce a cada publicação que muda a cena
+    public long number() { return number; }
+    public int size() { return size; }
+    public int chunkCount() { return chunks.length; }
+    public Chunk chunk(int i) { return chunks[i]; }
+
+    // Todas as figuras em uma SceneSnapshot contínua; com um bloco só não há cópia
+    public SceneSnapshot toSnapshot() {
+        SceneSnapshot result = flat;
+        if (result != null) return result;
+        if (chunks.length == 1) {
+            result = chunks[0].figures();
+        } else {
+            double[] x = new double[size], y = new double[size], w = new double[size], h = new double[size];
+            int[] argb = new int[size];
+            byte[] type = new byte[size];
+            int n = 0;
+            for (Chunk chunk : chunks) {
+                SceneSnapshot figures = chunk.figures();
+                for (int i = 0, count = figures.size(); i < count; i++, n++) {
+                    x[n] = figures.x(i);
+                    y[n] = figures.y(i);
+                    w[n] = figures.width(i);
+                    h[n] = figures.height(i);
+                    argb[n] = figures.argb(i);
+                    type[n] = (byte) figures.type(i).ordinal();
+                }
+            }
+            result = new SceneSnapshot(x, y, w, h, argb, type, n);
+        }
+        flat = result;
+        return result;
+    }
+
+    // Ids das figuras, na mesma ordem de toSnapshot()
+    public int[] ids() {
+        int[] ids = new int[size];
+        int n = 0;
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.ids(), 0, ids, n, chunk.ids().length);
+            n += chunk.ids().length;
+        }
+        return ids;
+    }
+
+    // União dos limites de todas as figuras, a partir dos limites de cada bloco
+    public Rectangle2D bounds() {
+        Rectangle2D.Double bounds = new Rectangle2D.Double();
+        boolean first = true;
+        for (Chunk chunk : chunks) {
+            if (chunk.figures().size() == 0) continue;
+            if (first) {
+                bounds.setRect(chunk.minX(), chunk.minY(), chunk.maxX() - chunk.minX(), chunk.maxY() - chunk.minY());
+                first = false;
+            } else {
+                bounds.add(chunk.minX(), chunk.minY());
+                bounds.add(chunk.maxX(), chunk.maxY());
+            }
+        }
+        return bounds;
+    }
+}
@@ -1,5 +1,16 @@
 package br.com.mariojp.figureeditor;
 
 public enum ShapeType {
-    CIRCLE, RECTANGLE
-}
\ No newline at end of file
+    // Novos tipos entram no fim: o ordinal é gravado no .fged, no journal e no store.
+    // A geometria de cada um fica em FigureGeometry
+    CIRCLE, RECTANGLE, TRIANGLE, DIAMOND, HEXAGON;
+
+    private static final ShapeType[] VALUES = values();
+    // Quantidade de tipos, para conferir ordinais lidos de fora sem clonar values()
+    static final int COUNT = VALUES.length;
+
+    // Evita o clone de values() nos caminhos quentes
+    static ShapeType fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
@@ -0,0 +1,257 @@
+package br.com.mariojp.figureeditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Snap magnético em O(log n) por evento: início, centro e fim de cada figura ficam em
+// dois vetores ordenados (x e y). Para cada borda da figura arrastada, uma busca
+// binária acha a posição mais próxima a até 'distance', e vence a mais próxima delas.
+//
+// Os vetores só são atualizados em prepare(), chamado no início de um arraste. Figuras
+// alteradas desde então (changed) ficam marcadas com FLAG_SNAP_STALE: suas entradas são
+// filtradas e reinseridas em uma intercalação linear, sem reordenar tudo; muitas
+// alterações (ou invalidate) refazem os vetores do zero. Na busca, figuras selecionadas
+// (as que estão sendo arrastadas) e figuras fora da cena são ignoradas.
+class SnapEngine {
+    // Acima de 1/REBUILD_FRACTION das figuras alteradas, refazer tudo sai mais barato
+    private static final int REBUILD_FRACTION = 8;
+
+    // Melhor encaixe encontrado em um eixo
+    static final class Match {
+        boolean found;
+        // Quanto somar à posição pedida
+        double delta;
+        // Coordenada da guia (borda ou centro da figura alvo)
+        double guide;
+        FigureShape target;
+    }
+
+    private final Axis xAxis = new Axis(true);
+    private final Axis yAxis = new Axis(false);
+    private final List<FigureShape> changed = new ArrayList<>();
+    private boolean dirty = true;
+
+    // Descarta os vetores; o próximo prepare refaz tudo
+    public void invalidate() {
+        clearChanged();
+        dirty = true;
+    }
+
+    // Figura adicionada, removida ou movida desde o último prepare
+    public void changed(FigureShape shape) {
+        if (dirty || shape.slot < 0 || shape.store.hasFlag(shape.slot, FigureStore.FLAG_SNAP_STALE)) return;
+        shape.store.setFlag(shape.slot, FigureStore.FLAG_SNAP_STALE, true);
+        changed.add(shape);
+        if ((long) changed.size() * 3 * REBUILD_FRACTION > xAxis.size + 3L * REBUILD_FRACTION) {
+            invalidate();
+        }
+    }
+
+    public void prepare(FigureStore store) {
+        if (dirty) {
+            List<FigureShape> live = store.liveFigures();
+            xAxis.build(live);
+            yAxis.build(live);
+            dirty = false;
+        } else if (!changed.isEmpty()) {
+            List<FigureShape> reinserted = new ArrayList<>(changed.size());
+            for (FigureShape shape : changed) {
+                if (shape.isLive()) reinserted.add(shape);
+            }
+            xAxis.merge(reinserted);
+            yAxis.merge(reinserted);
+            clearChanged();
+        }
+    }
+
+    private void clearChanged() {
+        for (FigureShape shape : changed) {
+            if (shape.slot >= 0) shape.store.setFlag(shape.slot, FigureStore.FLAG_SNAP_STALE, false);
+        }
+        changed.clear();
+    }
+
+    // [start, end] é a extensão da figura arrastada no eixo; false se nada está perto
+    public boolean snapX(double start, double end, double distance, Match out) {
+        return xAxis.snap(start, end, distance, out);
+    }
+
+    public boolean snapY(double start, double end, double distance, Match out) {
+        return yAxis.snap(start, end, distance, out);
+    }
+
+    private static final class Axis {
+        private final boolean horizontal;
+        private double[] values = new double[0];
+        private FigureShape[] owners = new FigureShape[0];
+        private int size;
+        // Vetores da versão anterior, reaproveitados na próxima atualização
+        private double[] spareValues = new double[0];
+        private FigureShape[] spareOwners = new FigureShape[0];
+
+        Axis(boolean horizontal) {
+            this.horizontal = horizontal;
+        }
+
+        void build(List<FigureShape> live) {
+            int n = live.size() * 3;
+            int previous = size;
+            size = sorted(live, ensureValues(n), ensureOwners(n));
+            // Referências que sobraram no fim do vetor não devem segurar figuras liberadas
+            Arrays.fill(spareOwners, size, Math.max(size, Math.min(spareOwners.length, previous)), null);
+            swap();
+        }
+
+        // Filtra as entradas de figuras alteradas ou fora da cena e intercala as novas
+        void merge(List<FigureShape> reinserted) {
+            int added = reinserted.size() * 3;
+            double[] addValues = new double[added];
+            FigureShape[] addOwners = new FigureShape[added];
+            sorted(reinserted, addValues, addOwners);
+
+            double[] outValues = ensureValues(size + added);
+            FigureShape[] outOwners = ensureOwners(size + added);
+            int n = 0, j = 0;
+            for (int i = 0; i < size; i++) {
+                FigureShape owner = owners[i];
+                if (owner.slot < 0 || !owner.store.isLive(owner.slot)
+                        || owner.store.hasFlag(owner.slot, FigureStore.FLAG_SNAP_STALE)) {
+                    continue;
+                }
+                while (j < added && addValues[j] < values[i]) {
+                    outValues[n] = addValues[j];
+                    outOwners[n++] = addOwners[j++];
+                }
+                outValues[n] = values[i];
+                outOwners[n++] = owner;
+            }
+            while (j < added) {
+                outValues[n] = addValues[j];
+                outOwners[n++] = addOwners[j++];
+            }
+            Arrays.fill(outOwners, n, Math.min(outOwners.length, size + added), null);
+            size = n;
+            swap();
+        }
+
+        // Ordena pelas chaves (valor como float ordenável + entrada) com o sort primitivo,
+        // guarda o valor exato de cada entrada e acerta a ordem pelo double; devolve a
+        // quantidade
+        private int sorted(List<FigureShape> shapes, double[] outValues, FigureShape[] outOwners) {
+            int n = shapes.size() * 3;
+            long[] keys = new long[n];
+            for (int i = 0, f = 0; f < shapes.size(); f++) {
+                FigureShape shape = shapes.get(f);
+                for (int kind = 0; kind < 3; kind++, i++) {
+                    keys[i] = key(edge(shape, kind), i);
+                }
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < n; i++) {
+                int entry = (int) keys[i];
+                FigureShape shape = shapes.get(entry / 3);
+                outValues[i] = edge(shape, entry % 3);
+                outOwners[i] = shape;
+            }
+            // Arredondar para float não inverte a ordem, só junta valores próximos: fora de
+            // ordem só ficam vizinhos com o mesmo float, e a inserção os acerta sem custo
+            // quando não há empate
+            for (int i = 1; i < n; i++) {
+                double value = outValues[i];
+                if (outValues[i - 1] <= value) continue;
+                FigureShape owner = outOwners[i];
+                int j = i - 1;
+                while (j >= 0 && outValues[j] > value) {
+                    outValues[j + 1] = outValues[j];
+                    outOwners[j + 1] = outOwners[j];
+                    j--;
+                }
+                outValues[j + 1] = value;
+                outOwners[j + 1] = owner;
+            }
+            return n;
+        }
+
+        private double[] ensureValues(int capacity) {
+            if (spareValues.length < capacity) spareValues = new double[capacity + (capacity >> 3)];
+            return spareValues;
+        }
+
+        private FigureShape[] ensureOwners(int capacity) {
+            if (spareOwners.length < capacity) spareOwners = new FigureShape[capacity + (capacity >> 3)];
+            return spareOwners;
+        }
+
+        // Os vetores recém-preenchidos viram os atuais, e os atuais viram reserva
+        private void swap() {
+            double[] v = values;
+            values = spareValues;
+            spareValues = v;
+            FigureShape[] o = owners;
+            owners = spareOwners;
+            spareOwners = o;
+        }
+
+        boolean snap(double start, double end, double distance, Match out) {
+            out.found = false;
+            double best = distance;
+            for (int kind = 0; kind < 3; kind++) {
+                double probe = kind == 0 ? start : kind == 1 ? (start + end) / 2 : end;
+                // Caminha para os dois lados a partir da posição da busca binária, sempre
+                // pelo vizinho mais próximo: a primeira figura válida é a mais perto
+                int right = lowerBound(probe), left = right - 1;
+                while (true) {
+                    double dl = left >= 0 ? probe - values[left] : Double.POSITIVE_INFINITY;
+                    double dr = right < size ? values[right] - probe : Double.POSITIVE_INFINITY;
+                    int i;
+                    if (dl <= dr) {
+                        // Estritamente mais perto: em empate fica o primeiro encontrado
+                        if (dl >= best) break;
+                        i = left--;
+                    } else {
+                        if (dr >= best) break;
+                        i = right++;
+                    }
+                    FigureShape owner = owners[i];
+                    if (!owner.isLive() || owner.isSelected()) continue;
+                    best = Math.abs(values[i] - probe);
+                    out.found = true;
+                    out.delta = values[i] - probe;
+                    out.guide = values[i];
+                    out.target = owner;
+                    break;
+                }
+            }
+            return out.found;
+        }
+
+        private int lowerBound(double value) {
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // 0 = início, 1 = centro, 2 = fim
+        private double edge(FigureShape shape, int kind) {
+            double start = horizontal ? shape.getX() : shape.getY();
+            double length = horizontal ? shape.getWidth() : shape.getHeight();
+            return kind == 0 ? start : kind == 1 ? start + length / 2 : start + length;
+        }
+
+        // Bits do float com o sinal corrigido, para que a ordem dos longs seja a dos valores
+        // arredondados (a ordem exata sai da inserção em sorted)
+        private static long key(double value, int entry) {
+            int bits = Float.floatToRawIntBits((float) value);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            return ((long) bits << 32) | (entry & 0xffffffffL);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Rasterizador direto: como toda figura é convexa e inscrita numa caixa alinhada aos
+// eixos, cada linha de pixels vira um span só, calculado na mão (perfil do tipo ou
+// semiplanos do polígono) e escrito num int[] RGB (o DataBufferInt de uma imagem
+// TYPE_INT_RGB), sem o pipeline geral do Java2D.
+// Segue as regras do Java2D para ficar visualmente igual ao SceneRenderer:
+// - sem antialiasing, o retângulo tem a caixa ajustada em 1/4 de pixel (normalização
+//   do Java2D) e o pixel entra pelo centro. Nas outras figuras depende da cor: opaca,
+//   e sem ampliação, o Java2D amostra o canto de cima à esquerda do pixel; translúcida
+//   ou ampliada, ajusta cada ponto do caminho em 1/4 de pixel e amostra o centro;
+// - com antialiasing, cobertura exata na horizontal e 8 sub-linhas na vertical, e o
+//   contorno centrado no meio do pixel.
+// A área é dividida em faixas horizontais desenhadas em paralelo. Não é thread-safe
+// quanto à configuração: uma instância por thread de desenho, como o SceneRenderer.
+final class SpanRasterizer {
+    // Sub-linhas por linha de pixels no antialiasing
+    private static final int SUB = 8;
+    // Faixas menores que isto não compensam uma tarefa a mais
+    private static final int MIN_BAND_ROWS = 32;
+
+    private static final int OUTLINE_ARGB = RenderStyles.OUTLINE_COLOR.getRGB();
+    private static final double OUTLINE_HALF = RenderStyles.OUTLINE_STROKE.getLineWidth() / 2.0;
+    // Junções dos polígonos: em esquadro até este alongamento, chanfradas acima (Java2D)
+    private static final double MITER_LIMIT = RenderStyles.OUTLINE_STROKE.getMiterLimit();
+
+    private SceneRenderer.Quality quality = SceneRenderer.Quality.FULL;
+    private double detailPixels = 1;
+
+    public void setQuality(SceneRenderer.Quality quality) { this.quality = quality; }
+    public void setDetailPixels(double detailPixels) { this.detailPixels = Math.max(1, detailPixels); }
+
+    // Limpa 'area' (em pixels do buffer) com o fundo e desenha as figuras da cena
+    // (todas, ou só os índices de 'figures', na ordem de desenho). O pixel (x, y) fica em
+    // pixels[y * stride + x]; um ponto da cena vai para (x * scale + tx, y * scale + ty).
+    public void render(SceneSnapshot scene, int[] figures, int[] pixels, int stride, Rectangle area,
+                       double scale, double tx, double ty, int background, boolean parallel) {
+        if (area.isEmpty()) return;
+        Pass pass = new Pass(scene, figures, figures != null ? figures.length : scene.size(), pixels, stride,
+                area, scale, tx, ty, true, background, quality == SceneRenderer.Quality.FULL, detailPixels);
+        int bands = 1;
+        if (parallel) {
+            int workers = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+            bands = Math.max(1, Math.min(area.height / MIN_BAND_ROWS, 2 * workers));
+        }
+        if (bands == 1) {
+            pass.band(area.y, area.y + area.height);
+        } else {
+            int count = bands;
+            IntStream.range(0, bands).parallel().forEach(b -> pass.band(
+                    area.y + (int) ((long) area.height * b / count),
+                    area.y + (int) ((long) area.height * (b + 1) / count)));
+        }
+    }
+
+    // Desenha as primeiras 'count' figuras de 'figures' por cima do que já está em 'area',
+    // sem limpar e numa faixa só (ex.: várias partes da cena no mesmo bloco)
+    public void paint(SceneSnapshot scene, int[] figures, int count, int[] pixels, int stride, Rectangle area,
+                      double scale, double tx, double ty) {
+        if (area.isEmpty()) return;
+        new Pass(scene, figures, count, pixels, stride, area, scale, tx, ty, false, 0,
+                quality == SceneRenderer.Quality.FULL, detailPixels).band(area.y, area.y + area.height);
+    }
+
+    // Um desenho: parâmetros imutáveis compartilhados pelas faixas
+    private record Pass(SceneSnapshot scene, int[] figures, int count, int[] pixels, int stride, Rectangle area,
+                        double scale, double tx, double ty, boolean clear, int background, boolean antialias,
+                        double detailPixels) {
+
+        void band(int top, int bottom) {
+            int left = area.x, right = area.x + area.width;
+            if (clear) {
+                for (int y = top; y < bottom; y++) {
+                    Arrays.fill(pixels, y * stride + left, y * stride + right, background);
+                }
+            }
+            Spans spans = new Spans(pixels, stride, left, right, top, bottom, scale == 1);
+            for (int k = 0; k < count; k++) {
+                int i = figures != null ? figures[k] : k;
+                paint(spans, scene.type(i), scene.x(i), scene.y(i), scene.width(i), scene.height(i), scene.argb(i));
+            }
+        }
+
+        // Mesmo nível de detalhe do SceneRenderer: ponto de um pixel, bloco ou figura completa
+        private void paint(Spans spans, ShapeType type, double x, double y, double w, double h, int argb) {
+            double x0 = x * scale + tx, y0 = y * scale + ty;
+            double x1 = (x + w) * scale + tx, y1 = (y + h) * scale + ty;
+            double margin = antialias ? OUTLINE_HALF * scale * MITER_LIMIT + 2 : 1;
+            if (!spans.touches(x0 - margin, y0 - margin, x1 + margin, y1 + margin)) return;
+
+            double pw = w * scale, ph = h * scale;
+            if (pw < detailPixels && ph < detailPixels) {
+                if (pw < 1 && ph < 1) {
+                    double cx = (x0 + x1) / 2, cy = (y0 + y1) / 2;
+                    x0 = cx - 0.5;
+                    y0 = cy - 0.5;
+                    x1 = cx + 0.5;
+                    y1 = cy + 0.5;
+                }
+                spans.fill(ShapeType.RECTANGLE, x0, y0, x1, y1, argb, antialias);
+                return;
+            }
+            spans.fill(type, x0, y0, x1, y1, argb, antialias);
+            if (antialias) {
+                // O Java2D centra o traço no meio do pixel; o contorno é a coroa entre a
+                // figura aumentada e a reduzida em meia espessura (junção em esquadro).
+                // Retângulo e elipse têm a caixa ajustada; nos polígonos é cada vértice
+                double half = OUTLINE_HALF * scale;
+                double sx0 = Math.floor(x0) + 0.5, sy0 = Math.floor(y0) + 0.5;
+                double sx1 = Math.floor(x1) + 0.5, sy1 = Math.floor(y1) + 0.5;
+                boolean hole = sx1 - sx0 > 2 * half && sy1 - sy0 > 2 * half;
+                if (type == ShapeType.RECTANGLE || type == ShapeType.CIRCLE) {
+                    spans.ring(type, sx0, sy0, sx1, sy1, false, half, hole, half, OUTLINE_ARGB);
+                } else {
+                    spans.ring(type, x0, y0, x1, y1, true, half, hole, half, OUTLINE_ARGB);
+                }
+            }
+        }
+    }
+
+    // Quartos de elipse do Java2D (Ellipse2D) na caixa unitária: controle 1, controle 2
+    // e fim de cada cúbica, começando no meio do lado direito
+    private static final double CV = 0.5522847498307933 / 2;
+    private static final double[] ELLIPSE = {
+            1, 0.5 + CV, 0.5 + CV, 1, 0.5, 1,
+            0.5 - CV, 1, 0, 0.5 + CV, 0, 0.5,
+            0, 0.5 - CV, 0.5 - CV, 0, 0.5, 0,
+            0.5 + CV, 0, 1, 0.5 - CV, 1, 0.5};
+
+    // Escrita de spans numa faixa de linhas [top, bottom) e colunas [left, right)
+    private static final class Spans {
+        private final int[] pixels;
+        private final int stride;
+        private final int left, right, top, bottom;
+        // Intervalo [l, r) de cada sub-linha, da figura e do buraco do contorno
+        private final double[] outerL = new double[SUB], outerR = new double[SUB];
+        private final double[] holeL = new double[SUB], holeR = new double[SUB];
+        // Polígono atual como semiplanos a·x + b·y <= c + k·deslocamento (interior), com
+        // os cortes das junções chanfradas; normais das arestas para achar as junções
+        private static final int MAX_PLANES = 2 * FigureGeometry.Polygon.MAX_VERTICES;
+        private final double[] vertices = new double[2 * FigureGeometry.Polygon.MAX_VERTICES];
+        private final double[] normalX = new double[FigureGeometry.Polygon.MAX_VERTICES];
+        private final double[] normalY = new double[FigureGeometry.Polygon.MAX_VERTICES];
+        private final double[] planeA = new double[MAX_PLANES], planeB = new double[MAX_PLANES];
+        private final double[] planeC = new double[MAX_PLANES], planeK = new double[MAX_PLANES];
+        private int planes;
+        // Extensão dos vértices: limita polígonos que viraram um ponto
+        private double polygonMinX, polygonMaxX, polygonMinY, polygonMaxY;
+        // Elipse achatada: linhas em uso e extremos de cada linha
+        private int rowFrom, rowTo;
+        private double[] rowL, rowR;
+        // Sem ampliação o Java2D preenche caminhos opacos sem antialiasing sem ajustar os pontos
+        private final boolean translateOnly;
+
+        Spans(int[] pixels, int stride, int left, int right, int top, int bottom, boolean translateOnly) {
+            this.pixels = pixels;
+            this.translateOnly = translateOnly;
+            this.stride = stride;
+            this.left = left;
+            this.right = right;
+            this.top = top;
+            this.bottom = bottom;
+        }
+
+        boolean touches(double x0, double y0, double x1, double y1) {
+            return x1 > left && x0 < right && y1 > top && y0 < bottom;
+        }
+
+        void fill(ShapeType type, double x0, double y0, double x1, double y1, int argb, boolean antialias) {
+            if (antialias) {
+                ring(type, x0, y0, x1, y1, false, 0, false, 0, argb);
+            } else if (type == ShapeType.CIRCLE) {
+                fillEllipseAliased(x0, y0, x1, y1, argb);
+            } else if (type != ShapeType.RECTANGLE) {
+                fillPolygonAliased(type, x0, y0, x1, y1, argb);
+            } else {
+                int c0 = (int) Math.floor(x0 + 0.25), c1 = (int) Math.floor(x1 + 0.25);
+                int r0 = Math.max(top, (int) Math.floor(y0 + 0.25));
+                int r1 = Math.min(bottom, (int) Math.floor(y1 + 0.25));
+                for (int row = r0; row < r1; row++) {
+                    span(row, c0, c1, argb);
+                }
+            }
+        }
+
+        // Ajuste de um ponto do caminho no preenchimento sem antialiasing (translúcido ou ampliado)
+        private static double snapFill(double v) {
+            return Math.floor(v + 0.25) + 0.25;
+        }
+
+        // Elipse sem antialiasing. Sem ajuste é a elipse exata pelo canto do pixel; com ajuste
+        // é o caminho do Java2D: quatro cúbicas a partir do meio do lado direito, cada
+        // extremo em 1/4 de pixel (os pontos de controle acompanham o extremo vizinho),
+        // achatadas em segmentos e amostradas no centro
+        private void fillEllipseAliased(double x0, double y0, double x1, double y1, int argb) {
+            double w = x1 - x0, h = y1 - y0;
+            if (w <= 0 || h <= 0) return;
+            if (translateOnly && argb >>> 24 == 255) {
+                double cx = (x0 + x1) / 2;
+                int r0 = Math.max(top, (int) Math.ceil(y0));
+                int r1 = Math.min(bottom, (int) Math.ceil(y1));
+                for (int row = r0; row < r1; row++) {
+                    double t = (row - y0) / h;
+                    if (t <= 0 || t >= 1) continue;
+                    double half = w / 2 * FigureGeometry.profile(ShapeType.CIRCLE, t);
+                    span(row, (int) Math.ceil(cx - half), (int) Math.ceil(cx + half), argb);
+                }
+                return;
+            }
+            rowFrom = Math.max(top, (int) Math.floor(y0) - 1);
+            rowTo = Math.min(bottom, (int) Math.ceil(y1) + 2);
+            if (rowFrom >= rowTo) return;
+            if (rowL == null || rowL.length < bottom - top) {
+                rowL = new double[bottom - top];
+                rowR = new double[bottom - top];
+            }
+            Arrays.fill(rowL, rowFrom - top, rowTo - top, Double.POSITIVE_INFINITY);
+            Arrays.fill(rowR, rowFrom - top, rowTo - top, Double.NEGATIVE_INFINITY);
+
+            double lastX = x0 + w, lastY = y0 + h / 2;
+            double adjX = snapFill(lastX) - lastX, adjY = snapFill(lastY) - lastY;
+            lastX += adjX;
+            lastY += adjY;
+            for (int q = 0; q < 4; q++) {
+                int at = 6 * q;
+                double c1x = x0 + ELLIPSE[at] * w + adjX, c1y = y0 + ELLIPSE[at + 1] * h + adjY;
+                double c2x = x0 + ELLIPSE[at + 2] * w, c2y = y0 + ELLIPSE[at + 3] * h;
+                double ex = x0 + ELLIPSE[at + 4] * w, ey = y0 + ELLIPSE[at + 5] * h;
+                adjX = snapFill(ex) - ex;
+                adjY = snapFill(ey) - ey;
+                c2x += adjX;
+                c2y += adjY;
+                ex += adjX;
+                ey += adjY;
+                cubic(lastX, lastY, c1x, c1y, c2x, c2y, ex, ey, 0);
+                lastX = ex;
+                lastY = ey;
+            }
+            for (int row = rowFrom; row < rowTo; row++) {
+                double l = rowL[row - top], r = rowR[row - top];
+                if (l < r) span(row, (int) Math.ceil(l - 0.5), (int) Math.ceil(r - 0.5), argb);
+            }
+        }
+
+        // Divide a cúbica ao meio enquanto um ponto de controle estiver a mais de um pixel
+        // da corda, até 10 níveis (o achatamento do Java2D)
+        private void cubic(double ax, double ay, double bx, double by, double cx, double cy,
+                           double dx, double dy, int level) {
+            if (level < 10 && (Line2D.ptSegDistSq(ax, ay, dx, dy, bx, by) > 1
+                    || Line2D.ptSegDistSq(ax, ay, dx, dy, cx, cy) > 1)) {
+                double abx = (ax + bx) / 2, aby = (ay + by) / 2;
+                double bcx = (bx + cx) / 2, bcy = (by + cy) / 2;
+                double cdx = (cx + dx) / 2, cdy = (cy + dy) / 2;
+                double l2x = (abx + bcx) / 2, l2y = (aby + bcy) / 2;
+                double r1x = (bcx + cdx) / 2, r1y = (bcy + cdy) / 2;
+                double mx = (l2x + r1x) / 2, my = (l2y + r1y) / 2;
+                cubic(ax, ay, abx, aby, l2x, l2y, mx, my, level + 1);
+                cubic(mx, my, r1x, r1y, cdx, cdy, dx, dy, level + 1);
+            } else {
+                edge(ax, ay, dx, dy);
+            }
+        }
+
+        // Cruzamentos de um segmento com as linhas de amostragem; a figura é convexa, então
+        // basta o menor e o maior de cada linha
+        private void edge(double ax, double ay, double bx, double by) {
+            if (ay == by) return;
+            double low = Math.min(ay, by), high = Math.max(ay, by);
+            int from = Math.max(rowFrom, (int) Math.ceil(low - 0.5));
+            int to = Math.min(rowTo, (int) Math.ceil(high - 0.5));
+            double slope = (bx - ax) / (by - ay);
+            for (int row = from; row < to; row++) {
+                double x = ax + (row + 0.5 - ay) * slope;
+                int i = row - top;
+                if (x < rowL[i]) rowL[i] = x;
+                if (x > rowR[i]) rowR[i] = x;
+            }
+        }
+
+        // Polígono sem antialiasing: semiplanos amostrados no canto ou, com os vértices
+        // ajustados, no centro de cada pixel
+        private void fillPolygonAliased(ShapeType type, double x0, double y0, double x1, double y1, int argb) {
+            boolean exact = translateOnly && argb >>> 24 == 255;
+            double sample = exact ? 0 : 0.5;
+            planes = setPolygon(type, x0, y0, x1, y1, exact ? Snap.NONE : Snap.FILL);
+            int r0 = Math.max(top, (int) Math.ceil(polygonMinY - sample));
+            int r1 = Math.min(bottom, (int) Math.ceil(polygonMaxY - sample));
+            for (int row = r0; row < r1; row++) {
+                if (polygonAt(row + sample, 0, outerL, outerR, 0)) {
+                    span(row, (int) Math.ceil(outerL[0] - sample), (int) Math.ceil(outerR[0] - sample), argb);
+                }
+            }
+        }
+
+        // Com antialiasing: figura na caixa (x0..y1) aumentada em 'grow', menos o buraco
+        // opcional (a figura reduzida em 'shrink'). Sem buraco é um preenchimento comum.
+        // Com normalize os vértices dos polígonos vão para o meio do pixel (traço do Java2D)
+        void ring(ShapeType type, double x0, double y0, double x1, double y1, boolean normalize,
+                  double grow, boolean hole, double shrink, int argb) {
+            planes = setPolygon(type, x0, y0, x1, y1, normalize ? Snap.STROKE : Snap.NONE);
+            // A ponta de uma junção em esquadro passa da caixa em até MITER_LIMIT * grow
+            double reach = planes > 0 ? grow * MITER_LIMIT : grow;
+            int r0 = Math.max(top, (int) Math.floor(y0 - reach));
+            int r1 = Math.min(bottom, (int) Math.ceil(y1 + reach));
+            for (int row = r0; row < r1; row++) {
+                int rows = intervals(type, x0, y0, x1, y1, grow, row, outerL, outerR);
+                if (rows == 0) continue;
+                double minL = Double.MAX_VALUE, maxL = -Double.MAX_VALUE;
+                double minR = Double.MAX_VALUE, maxR = -Double.MAX_VALUE;
+                for (int s = 0; s < SUB; s++) {
+                    if (outerL[s] >= outerR[s]) continue;
+                    minL = Math.min(minL, outerL[s]);
+                    maxL = Math.max(maxL, outerL[s]);
+                    minR = Math.min(minR, outerR[s]);
+                    maxR = Math.max(maxR, outerR[s]);
+                }
+                int start = Math.max(left, (int) Math.floor(minL));
+                int end = Math.min(right, (int) Math.ceil(maxR));
+                // Trecho coberto por inteiro em todas as sub-linhas
+                int fullStart = end, fullEnd = end;
+                if (rows == SUB) {
+                    fullStart = Math.min(end, Math.max(start, (int) Math.ceil(maxL)));
+                    fullEnd = Math.max(fullStart, Math.min(end, (int) Math.floor(minR)));
+                }
+                int holeRows = hole ? intervals(type, x0, y0, x1, y1, -shrink, row, holeL, holeR) : 0;
+                if (holeRows == 0) {
+                    edges(row, start, fullStart, false, argb);
+                    span(row, fullStart, fullEnd, argb);
+                    edges(row, fullEnd, end, false, argb);
+                } else {
+                    // Só a coroa: o interior do buraco (vazio em todas as sub-linhas) é pulado
+                    int skipStart = end, skipEnd = end;
+                    if (holeRows == SUB) {
+                        double maxHoleL = -Double.MAX_VALUE, minHoleR = Double.MAX_VALUE;
+                        for (int s = 0; s < SUB; s++) {
+                            maxHoleL = Math.max(maxHoleL, holeL[s]);
+                            minHoleR = Math.min(minHoleR, holeR[s]);
+                        }
+                        skipStart = Math.min(end, Math.max(start, (int) Math.ceil(maxHoleL)));
+                        skipEnd = Math.max(skipStart, Math.min(end, (int) Math.floor(minHoleR)));
+                    }
+                    edges(row, start, skipStart, true, argb);
+                    edges(row, skipEnd, end, true, argb);
+                }
+            }
+        }
+
+        // Intervalo horizontal da figura deslocada em 'offset' (positivo = aumentada) em cada
+        // sub-linha da linha 'row' (l >= r: vazia); devolve quantas sub-linhas não são vazias
+        private int intervals(ShapeType type, double x0, double y0, double x1, double y1, double offset, int row,
+                              double[] l, double[] r) {
+            if (planes > 0) return polygonIntervals(offset, row, l, r);
+            x0 -= offset;
+            y0 -= offset;
+            x1 += offset;
+            y1 += offset;
+            double cx = (x0 + x1) / 2, rx = (x1 - x0) / 2;
+            int rows = 0;
+            for (int s = 0; s < SUB; s++) {
+                double y = row + (s + 0.5) / SUB;
+                double lo = 0, hi = 0;
+                if (y >= y0 && y < y1 && rx > 0) {
+                    if (type == ShapeType.RECTANGLE) {
+                        lo = x0;
+                        hi = x1;
+                    } else {
+                        double half = rx * FigureGeometry.profile(type, (y - y0) / (y1 - y0));
+                        lo = cx - half;
+                        hi = cx + half;
+                    }
+                }
+                l[s] = lo;
+                r[s] = hi;
+                if (lo < hi) rows++;
+            }
+            return rows;
+        }
+
+        // Polígono: cada sub-linha é a interseção dos semiplanos deslocados
+        private int polygonIntervals(double offset, int row, double[] l, double[] r) {
+            int rows = 0;
+            for (int s = 0; s < SUB; s++) {
+                if (polygonAt(row + (s + 0.5) / SUB, offset, l, r, s)) rows++;
+            }
+            return rows;
+        }
+
+        // Intervalo [l[s], r[s]) do polígono deslocado na altura y; false se vazio
+        private boolean polygonAt(double y, double offset, double[] l, double[] r, int s) {
+            double reach = Math.abs(offset) * MITER_LIMIT;
+            double lo = polygonMinX - reach, hi = polygonMaxX + reach;
+            for (int p = 0; p < planes && lo < hi; p++) {
+                double limit = planeC[p] + planeK[p] * offset - planeB[p] * y;
+                double a = planeA[p];
+                if (a > 1e-12) {
+                    hi = Math.min(hi, limit / a);
+                } else if (a < -1e-12) {
+                    lo = Math.max(lo, limit / a);
+                } else if (limit < 0) {
+                    hi = lo;
+                }
+            }
+            if (lo < hi) {
+                l[s] = lo;
+                r[s] = hi;
+                return true;
+            }
+            l[s] = 0;
+            r[s] = 0;
+            return false;
+        }
+
+        // Ajuste dos vértices: nenhum, o do preenchimento sem antialiasing ou o
+        // do traço (meio do pixel)
+        private enum Snap { NONE, FILL, STROKE }
+
+        // Monta os semiplanos do polígono na caixa; 0 se o tipo não é polígono.
+        // Deslocar c em k·d aumenta o polígono em d com junções em esquadro; onde a ponta
+        // passaria de MITER_LIMIT, um semiplano na bissetriz corta a junção (chanfro)
+        private int setPolygon(ShapeType type, double x0, double y0, double x1, double y1, Snap snap) {
+            int n = FigureGeometry.vertices(type, x0, y0, x1 - x0, y1 - y0, vertices);
+            if (n == 0) return 0;
+            for (int i = 0; snap != Snap.NONE && i < 2 * n; i++) {
+                vertices[i] = snap == Snap.FILL ? snapFill(vertices[i]) : Math.floor(vertices[i]) + 0.5;
+            }
+            polygonMinX = polygonMinY = Double.MAX_VALUE;
+            polygonMaxX = polygonMaxY = -Double.MAX_VALUE;
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                int j = (i + 1) % n;
+                double px = vertices[2 * i], py = vertices[2 * i + 1];
+                polygonMinX = Math.min(polygonMinX, px);
+                polygonMaxX = Math.max(polygonMaxX, px);
+                polygonMinY = Math.min(polygonMinY, py);
+                polygonMaxY = Math.max(polygonMaxY, py);
+                // Vértices em sentido horário na tela: (dy, -dx) aponta para fora
+                double nx = vertices[2 * j + 1] - py, ny = px - vertices[2 * j];
+                double length = Math.hypot(nx, ny);
+                // Aresta degenerada (vértices iguais depois do ajuste): semiplano 0 <= k·d
+                nx = length > 0 ? nx / length : 0;
+                ny = length > 0 ? ny / length : 0;
+                normalX[i] = nx;
+                normalY[i] = ny;
+                count = plane(count, nx, ny, nx * px + ny * py, 1);
+            }
+            for (int i = 0; i < n; i++) {
+                int previous = (i + n - 1) % n;
+                double ux = normalX[previous] + normalX[i], uy = normalY[previous] + normalY[i];
+                double length = Math.hypot(ux, uy);
+                if (length < 1e-9 || (normalX[i] == 0 && normalY[i] == 0)
+                        || (normalX[previous] == 0 && normalY[previous] == 0)) {
+                    continue;
+                }
+                ux /= length;
+                uy /= length;
+                double cosHalf = ux * normalX[i] + uy * normalY[i];
+                if (cosHalf * MITER_LIMIT < 1) {
+                    count = plane(count, ux, uy, ux * vertices[2 * i] + uy * vertices[2 * i + 1], cosHalf);
+                }
+            }
+            return count;
+        }
+
+        private int plane(int index, double a, double b, double c, double k) {
+            planeA[index] = a;
+            planeB[index] = b;
+            planeC[index] = c;
+            planeK[index] = k;
+            return index + 1;
+        }
+
+        // Pixels [from, to) com cobertura parcial, somada sub-linha a sub-linha
+        private void edges(int row, int from, int to, boolean hole, int argb) {
+            int base = row * stride;
+            for (int x = from; x < to; x++) {
+                double coverage = 0;
+                for (int s = 0; s < SUB; s++) {
+                    coverage += overlap(outerL[s], outerR[s], x);
+                    if (hole) coverage -= overlap(holeL[s], holeR[s], x);
+                }
+                int alpha = (int) ((argb >>> 24) * coverage / SUB + 0.5);
+                if (alpha > 0) pixels[base + x] = blend(pixels[base + x], argb, alpha);
+            }
+        }
+
+        private static double overlap(double l, double r, int x) {
+            return Math.max(0, Math.min(r, x + 1) - Math.max(l, x));
+        }
+
+        // Span de cobertura total: cópia direta se a cor é opaca, senão mistura com alfa constante
+        private void span(int row, int from, int to, int argb) {
+            from = Math.max(from, left);
+            to = Math.min(to, right);
+            if (from >= to) return;
+            int base = row * stride;
+            int alpha = argb >>> 24;
+            if (alpha == 255) {
+                Arrays.fill(pixels, base + from, base + to, argb);
+            } else if (alpha > 0) {
+                for (int i = base + from, end = base + to; i < end; i++) {
+                    pixels[i] = blend(pixels[i], argb, alpha);
+                }
+            }
+        }
+
+        // SrcOver de uma cor com alfa 'alpha' sobre um pixel opaco
+        private static int blend(int dst, int src, int alpha) {
+            int inverse = 255 - alpha;
+            int r = (((src >> 16) & 0xFF) * alpha + ((dst >> 16) & 0xFF) * inverse + 127) / 255;
+            int g = (((src >> 8) & 0xFF) * alpha + ((dst >> 8) & 0xFF) * inverse + 127) / 255;
+            int b = ((src & 0xFF) * alpha + (dst & 0xFF) * inverse + 127) / 255;
+            return 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+// Grade uniforme sobre os limites das figuras para hit-test e snap.
+// As células ficam limitadas a ±CELL_LIMIT (coordenadas enormes caem na última célula,
+// e os laços não chegam a Integer.MAX_VALUE). Uma figura que ocuparia mais de
+// MAX_CELLS células, ou com limites não finitos, vai para a lista 'oversize', percorrida
+// em toda busca, em vez de entrar em milhões de células.
+class SpatialIndex {
+    static final int CELL_SIZE = 128;
+    static final int CELL_LIMIT = 1 << 30;
+    static final int MAX_CELLS = 1024;
+
+    // Tabela de endereçamento aberto (chave da célula -> figuras), sem boxing
+    private long[] keys = new long[256];
+    private List<FigureShape>[] buckets = newBuckets(256);
+    private int used;
+    private final List<FigureShape> oversize = new ArrayList<>();
+
+    public void insert(FigureShape shape) {
+        double x0 = shape.getX(), y0 = shape.getY(), x1 = shape.getMaxX(), y1 = shape.getMaxY();
+        if (isOversize(x0, y0, x1, y1)) {
+            oversize.add(shape);
+            return;
+        }
+        int minX = cell(x0), maxX = cell(x1);
+        int minY = cell(y0), maxY = cell(y1);
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                bucket(key(cx, cy), true).add(shape);
+            }
+        }
+    }
+
+    public void remove(FigureShape shape) {
+        remove(shape, shape.getX(), shape.getY(), shape.getMaxX(), shape.getMaxY());
+    }
+
+    // Remove usando os limites com que a figura foi indexada
+    public void remove(FigureShape shape, Rectangle2D indexedBounds) {
+        remove(shape, indexedBounds.getMinX(), indexedBounds.getMinY(),
+                indexedBounds.getMaxX(), indexedBounds.getMaxY());
+    }
+
+    private void remove(FigureShape shape, double x0, double y0, double x1, double y1) {
+        if (isOversize(x0, y0, x1, y1)) {
+            oversize.remove(shape);
+            return;
+        }
+        int minX = cell(x0), maxX = cell(x1);
+        int minY = cell(y0), maxY = cell(y1);
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                List<FigureShape> list = bucket(key(cx, cy), false);
+                if (list != null) {
+                    list.remove(shape);
+                }
+            }
+        }
+    }
+
+    // Reindexa depois de a figura ter sido movida
+    public void update(FigureShape shape, Rectangle2D oldBounds) {
+        remove(shape, oldBounds);
+        insert(shape);
+    }
+
+    public void clear() {
+        keys = new long[256];
+        buckets = newBuckets(256);
+        used = 0;
+        oversize.clear();
+    }
+
+    // Figura mais ao topo (maior ordem) que contém o ponto do mundo, sem arredondar
+    public FigureShape topmostAt(Point2D point) {
+        double x = point.getX(), y = point.getY();
+        FigureShape top = topmostIn(oversize, x, y, null);
+        List<FigureShape> list = bucket(key(cell(x), cell(y)), false);
+        return list == null ? top : topmostIn(list, x, y, top);
+    }
+
+    private static FigureShape topmostIn(List<FigureShape> list, double x, double y, FigureShape top) {
+        for (int i = 0, n = list.size(); i < n; i++) {
+            FigureShape shape = list.get(i);
+            if ((top == null || shape.getOrder() > top.getOrder()) && shape.contains(x, y)) {
+                top = shape;
+            }
+        }
+        return top;
+    }
+
+    public List<FigureShape> query(Rectangle2D area) {
+        List<FigureShape> result = new ArrayList<>();
+        query(area, result);
+        return result;
+    }
+
+    // Preenche 'out' com as figuras cujos limites intersectam a área, sem repetição
+    public void query(Rectangle2D area, List<FigureShape> out) {
+        out.clear();
+        double ax0 = area.getMinX(), ay0 = area.getMinY(), ax1 = area.getMaxX(), ay1 = area.getMaxY();
+        for (int i = 0, n = oversize.size(); i < n; i++) {
+            FigureShape shape = oversize.get(i);
+            if (shape.getX() < ax1 && shape.getY() < ay1 && shape.getMaxX() > ax0 && shape.getMaxY() > ay0) {
+                out.add(shape);
+            }
+        }
+        int minX = cell(ax0), maxX = cell(ax1);
+        int minY = cell(ay0), maxY = cell(ay1);
+        // Área maior que a tabela (seleção por área ou vista muito afastada): percorrer
+        // as células ocupadas em vez de todas as células da área
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > keys.length) {
+            for (int slot = 0; slot < keys.length; slot++) {
+                List<FigureShape> list = buckets[slot];
+                if (list == null) continue;
+                int cx = (int) (keys[slot] >> 32), cy = (int) keys[slot];
+                if (cx < minX || cx > maxX || cy < minY || cy > maxY) continue;
+                collect(list, cx, cy, minX, minY, ax0, ay0, ax1, ay1, out);
+            }
+            return;
+        }
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                List<FigureShape> list = bucket(key(cx, cy), false);
+                if (list != null) {
+                    collect(list, cx, cy, minX, minY, ax0, ay0, ax1, ay1, out);
+                }
+            }
+        }
+    }
+
+    private static void collect(List<FigureShape> list, int cx, int cy, int minX, int minY,
+                                double ax0, double ay0, double ax1, double ay1, List<FigureShape> out) {
+        for (int i = 0, n = list.size(); i < n; i++) {
+            FigureShape shape = list.get(i);
+            double x = shape.getX(), y = shape.getY();
+            // Reportar só na primeira célula comum à figura e à área
+            if (cx != Math.max(minX, cell(x)) || cy != Math.max(minY, cell(y))) {
+                continue;
+            }
+            if (x < ax1 && y < ay1 && shape.getMaxX() > ax0 && shape.getMaxY() > ay0) {
+                out.add(shape);
+            }
+        }
+    }
+
+    // Ordena pela ordem de desenho sem alocar (heapsort in-place)
+    static void sortByOrder(List<FigureShape> list) {
+        int n = list.size();
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(list, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            FigureShape top = list.get(0);
+            list.set(0, list.get(end));
+            list.set(end, top);
+            siftDown(list, 0, end);
+        }
+    }
+
+    private static void siftDown(List<FigureShape> list, int i, int n) {
+        FigureShape value = list.get(i);
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) break;
+            if (child + 1 < n && list.get(child + 1).getOrder() > list.get(child).getOrder()) {
+                child++;
+            }
+            if (list.get(child).getOrder() <= value.getOrder()) break;
+            list.set(i, list.get(child));
+            i = child;
+        }
+        list.set(i, value);
+    }
+
+    private List<FigureShape> bucket(long key, boolean create) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (buckets[slot] != null) {
+            if (keys[slot] == key) {
+                return buckets[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) return null;
+
+        if (2 * (used + 1) > keys.length) {
+            grow();
+            return bucket(key, true);
+        }
+        keys[slot] = key;
+        buckets[slot] = new ArrayList<>(4);
+        used++;
+        return buckets[slot];
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        List<FigureShape>[] oldBuckets = buckets;
+        keys = new long[oldKeys.length * 2];
+        buckets = newBuckets(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldBuckets[i] == null) continue;
+            // Células vazias são descartadas no rehash
+            if (oldBuckets[i].isEmpty()) {
+                used--;
+                continue;
+            }
+            int slot = hash(oldKeys[i]) & mask;
+            while (buckets[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            buckets[slot] = oldBuckets[i];
+        }
+    }
+
+    // Java não cria array de tipo genérico; o array é privado e só recebe ArrayList<FigureShape>
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<FigureShape>[] newBuckets(int size) {
+        return new List[size];
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    // NaN vira a célula 0; quem tem limite não finito nem chega à grade (isOversize)
+    private static int cell(double coord) {
+        return (int) Math.max(-CELL_LIMIT, Math.min(CELL_LIMIT, Math.floor(coord / CELL_SIZE)));
+    }
+
+    // Mesmo critério ao inserir e ao remover, pelos limites indexados
+    private static boolean isOversize(double x0, double y0, double x1, double y1) {
+        if (!Double.isFinite(x0) || !Double.isFinite(y0) || !Double.isFinite(x1) || !Double.isFinite(y1)) {
+            return true;
+        }
+        return (long) (cell(x1) - cell(x0) + 1) * (cell(y1) - cell(y0) + 1) > MAX_CELLS;
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
@@ -0,0 +1,137 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+// Camada raster com as figuras que não mudam durante uma interação.
+// O dano é guardado em coordenadas do mundo e convertido para pixels pela vista;
+// uma mudança de vista (zoom/pan) redesenha a camada inteira.
+class StaticLayerCache {
+
+    // Desenha as figuras que intersectam a região (em pixels da camada), ignorando as
+    // marcadas como overlay
+    interface LayerPainter {
+        void paintFigures(Graphics2D g2, Rectangle region);
+    }
+
+    private static final FigureShape[] NONE = new FigureShape[0];
+
+    private BufferedImage image;
+    private int viewportVersion;
+    private FigureShape[] excluded = NONE;
+    private final Rectangle2D.Double grown = new Rectangle2D.Double();
+    private final Rectangle region = new Rectangle();
+    private final Rectangle imageBounds = new Rectangle();
+
+    // Dano registrado pelas operações diretas, ainda não confirmado por um comando
+    private final Rectangle2D.Double pending = new Rectangle2D.Double();
+    private boolean hasPending;
+    private boolean pendingAll;
+    // Região da imagem que precisa ser redesenhada
+    private final Rectangle2D.Double dirty = new Rectangle2D.Double();
+    private boolean hasDirty;
+
+    public FigureShape[] getExcluded() { return excluded; }
+
+    // As figuras excluídas (a seleção arrastada) são desenhadas por cima como overlay;
+    // null volta a desenhar todas na camada
+    public void setExcluded(FigureShape[] shapes) {
+        if (shapes == null) shapes = NONE;
+        if (shapes == excluded) return;
+        for (FigureShape shape : excluded) {
+            if (shape.slot < 0) continue;
+            shape.setOverlay(false);
+            if (shape.isLive()) invalidate(shape);
+        }
+        for (FigureShape shape : shapes) {
+            shape.setOverlay(true);
+            invalidate(shape);
+        }
+        excluded = shapes;
+    }
+
+    public void markDamaged(FigureShape shape, Rectangle2D area) {
+        if (shape != null && shape.isOverlay()) return;
+        if (hasPending) {
+            pending.add(area);
+        } else {
+            pending.setRect(area);
+            hasPending = true;
+        }
+    }
+
+    public void markAllDamaged() {
+        pendingAll = true;
+    }
+
+    // Chamado quando o CommandManager aplica ou desfaz um comando
+    public void commitDamage() {
+        if (pendingAll) {
+            invalidateAll();
+            pendingAll = false;
+            hasPending = false;
+        } else if (hasPending) {
+            invalidate(pending);
+            hasPending = false;
+        }
+    }
+
+    public void invalidate(Rectangle2D area) {
+        if (hasDirty) {
+            dirty.add(area);
+        } else {
+            dirty.setRect(area);
+            hasDirty = true;
+        }
+    }
+
+    private void invalidate(FigureShape shape) {
+        grown.setRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+        invalidate(grown);
+    }
+
+    public void invalidateAll() {
+        image = null;
+    }
+
+    // Atualiza apenas a região suja e devolve a camada pronta para compor
+    public BufferedImage prepare(GraphicsConfiguration gc, int width, int height, Viewport viewport,
+                                 LayerPainter painter) {
+        boolean full = false;
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = gc != null
+                    ? gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            full = true;
+        } else if (viewportVersion != viewport.getVersion()) {
+            full = true;
+        }
+        viewportVersion = viewport.getVersion();
+
+        if (full || hasDirty) {
+            if (full) {
+                region.setBounds(0, 0, width, height);
+            } else {
+                double margin = DrawingPanel.PAINT_MARGIN;
+                grown.setRect(dirty.x - margin, dirty.y - margin, dirty.width + 2 * margin, dirty.height + 2 * margin);
+                viewport.toScreen(grown, region);
+                region.grow(1, 1);
+                imageBounds.setBounds(0, 0, width, height);
+                Rectangle2D.intersect(region, imageBounds, region);
+            }
+            hasDirty = false;
+            if (!region.isEmpty()) {
+                Graphics2D g2 = image.createGraphics();
+                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2.setClip(region);
+                g2.setComposite(AlphaComposite.Clear);
+                g2.fillRect(region.x, region.y, region.width, region.height);
+                g2.setComposite(AlphaComposite.SrcOver);
+                painter.paintFigures(g2, region);
+                g2.dispose();
+            }
+        }
+        return image;
+    }
+}
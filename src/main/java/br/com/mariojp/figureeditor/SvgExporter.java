@@ -0,0 +1,145 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Escreve a cena como SVG direto no stream, elemento por elemento, sem montar
+// DOM nem Strings intermediárias: a memória usada é só o buffer de saída.
+class SvgExporter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Maior elemento possível cabe com folga antes de esvaziar o buffer
+    private static final int MAX_ELEMENT = 512;
+    // A partir daqui os centésimos não são exatos num double (2^53): o número vai
+    // como Double.toString, com expoente (o SVG aceita "1.0E15")
+    private static final double PLAIN_LIMIT = 1e13;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+    private OutputStream out;
+    // Vértices dos polígonos, reaproveitados entre figuras
+    private final double[] vertices = new double[2 * FigureGeometry.Polygon.MAX_VERTICES];
+
+    // A região (em coordenadas da cena) vira o viewBox do documento
+    public void export(SceneSnapshot scene, Rectangle2D region, Color background, OutputStream out)
+            throws IOException {
+        this.out = out;
+        length = 0;
+        try {
+            append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+            append(region.getWidth()).append("\" height=\"").append(region.getHeight());
+            append("\" viewBox=\"").append(region.getX()).append(" ").append(region.getY());
+            append(" ").append(region.getWidth()).append(" ").append(region.getHeight()).append("\">\n");
+            append("<rect x=\"").append(region.getX()).append("\" y=\"").append(region.getY());
+            append("\" width=\"").append(region.getWidth()).append("\" height=\"").append(region.getHeight());
+            append("\" fill=\"").appendHex(background.getRGB()).append("\"/>\n");
+
+            // Borda comum a todas as figuras (RenderStyles.OUTLINE_*)
+            Color outline = RenderStyles.OUTLINE_COLOR;
+            append("<g stroke=\"").appendHex(outline.getRGB());
+            append("\" stroke-opacity=\"").append(outline.getAlpha() / 255.0);
+            append("\" stroke-width=\"").append(RenderStyles.OUTLINE_STROKE.getLineWidth()).append("\">\n");
+            for (int i = 0, n = scene.size(); i < n; i++) {
+                writeFigure(scene, i);
+            }
+            append("</g>\n</svg>\n");
+            flush();
+        } finally {
+            this.out = null;
+        }
+    }
+
+    private void writeFigure(SceneSnapshot scene, int i) throws IOException {
+        if (length > BUFFER_SIZE - MAX_ELEMENT) {
+            flush();
+        }
+        double x = scene.x(i), y = scene.y(i), w = scene.width(i), h = scene.height(i);
+        switch (scene.type(i)) {
+            case CIRCLE -> {
+                if (w == h) {
+                    append("<circle cx=\"").append(x + w / 2).append("\" cy=\"").append(y + h / 2);
+                    append("\" r=\"").append(w / 2);
+                } else {
+                    append("<ellipse cx=\"").append(x + w / 2).append("\" cy=\"").append(y + h / 2);
+                    append("\" rx=\"").append(w / 2).append("\" ry=\"").append(h / 2);
+                }
+            }
+            case RECTANGLE -> {
+                append("<rect x=\"").append(x).append("\" y=\"").append(y);
+                append("\" width=\"").append(w).append("\" height=\"").append(h);
+            }
+            case TRIANGLE, DIAMOND, HEXAGON -> {
+                int n = FigureGeometry.vertices(scene.type(i), x, y, w, h, vertices);
+                append("<polygon points=\"");
+                for (int v = 0; v < n; v++) {
+                    if (v > 0) append(" ");
+                    append(vertices[2 * v]).append(",").append(vertices[2 * v + 1]);
+                }
+            }
+        }
+        int argb = scene.argb(i);
+        append("\" fill=\"").appendHex(argb);
+        int alpha = argb >>> 24;
+        if (alpha != 255) {
+            append("\" fill-opacity=\"").append(alpha / 255.0);
+        }
+        append("\"/>\n");
+    }
+
+    // Texto ASCII sem conversão de charset
+    private SvgExporter append(String text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+
+    // Número com até duas casas decimais, sem zeros à direita. NaN e infinito não têm
+    // representação no SVG: a exportação falha em vez de gravar um número errado
+    private SvgExporter append(double value) throws IOException {
+        if (!Double.isFinite(value)) {
+            throw new IOException("Coordenada não finita na exportação SVG: " + value);
+        }
+        if (Math.abs(value) >= PLAIN_LIMIT) {
+            return append(Double.toString(value));
+        }
+        long hundredths = Math.round(value * 100);
+        if (hundredths < 0) {
+            buffer[length++] = '-';
+            hundredths = -hundredths;
+        }
+        appendDigits(hundredths / 100);
+        int fraction = (int) (hundredths % 100);
+        if (fraction != 0) {
+            buffer[length++] = '.';
+            buffer[length++] = (byte) ('0' + fraction / 10);
+            if (fraction % 10 != 0) {
+                buffer[length++] = (byte) ('0' + fraction % 10);
+            }
+        }
+        return this;
+    }
+
+    private void appendDigits(long value) {
+        if (value >= 10) {
+            appendDigits(value / 10);
+        }
+        buffer[length++] = (byte) ('0' + value % 10);
+    }
+
+    // Cor #rrggbb (o alfa vai em fill-opacity)
+    private SvgExporter appendHex(int argb) {
+        buffer[length++] = '#';
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            buffer[length++] = (byte) Character.forDigit((argb >> shift) & 0xF, 16);
+        }
+        return this;
+    }
+
+    private void flush() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+}
@@ -0,0 +1,284 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Pirâmide de blocos (TILE x TILE px) da cena inteira para o minimapa. No nível L cada
+// pixel cobre leafUnits * 2^L unidades do mundo; só o nível 0 é desenhado a partir das
+// figuras, os outros são médias 2x2 do nível de baixo. O EDT só anota as áreas alteradas
+// (sceneChanged) e entrega a versão publicada; uma thread própria refaz apenas os blocos
+// tocados, sobre a SceneVersion imutável. Cada bloco refeito é uma imagem nova, trocada
+// no mapa quando pronta: quem lê (o minimapa, no EDT) nunca vê um bloco pela metade.
+class TilePyramid implements SceneListener {
+    static final int TILE = 128;
+    static final int LEVELS = 4;
+    // O nível 0 cobre a cena com no máximo LEAF_PIXELS px no lado maior
+    static final int LEAF_PIXELS = 1024;
+    private static final int BACKGROUND = 0xFFFFFFFF;
+    // Acima disso as áreas anotadas viram uma só (a união)
+    private static final int MAX_PENDING_AREAS = 256;
+
+    record Key(int level, int x, int y) {}
+
+    // Blocos de uma escala do nível 0; recriado inteiro quando a cena muda muito de tamanho
+    record Layout(double leafUnits, Rectangle2D bounds, Map<Key, BufferedImage> tiles) {
+        double units(int level) { return leafUnits * (1 << level); }
+    }
+
+    // Chamado na thread da pirâmide quando blocos novos ficam prontos (ex.: repaint)
+    private final Runnable listener;
+    private final SpanRasterizer rasterizer = new SpanRasterizer();
+    private final Thread thread;
+
+    private final Object lock = new Object();
+    private SceneVersion pendingVersion;
+    private final List<Rectangle2D> pendingAreas = new ArrayList<>();
+    private boolean pendingAll = true;
+    private boolean stopped;
+    // Última área anotada, para não repetir a mesma em eventos seguidos
+    private final Rectangle2D.Double lastArea = new Rectangle2D.Double();
+
+    private volatile Layout layout = new Layout(1, new Rectangle2D.Double(), new ConcurrentHashMap<>());
+
+    TilePyramid(Runnable listener) {
+        this.listener = listener;
+        rasterizer.setQuality(SceneRenderer.Quality.FULL);
+        this.thread = new Thread(this::updateLoop, "minimap-tiles");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Layout layout() {
+        return layout;
+    }
+
+    @Override
+    public void sceneChanged(Rectangle2D area) {
+        synchronized (lock) {
+            if (area == null) {
+                pendingAll = true;
+                pendingAreas.clear();
+            } else if (!pendingAll && !area.equals(lastArea)) {
+                if (pendingAreas.size() == MAX_PENDING_AREAS) {
+                    Rectangle2D union = pendingAreas.get(0);
+                    for (Rectangle2D pending : pendingAreas) union.add(pending);
+                    pendingAreas.clear();
+                    pendingAreas.add(union);
+                }
+                pendingAreas.add(new Rectangle2D.Double(area.getX(), area.getY(), area.getWidth(), area.getHeight()));
+                lastArea.setRect(area);
+            }
+        }
+    }
+
+    @Override
+    public void scenePublished(SceneVersion version) {
+        synchronized (lock) {
+            pendingVersion = version;
+            lastArea.setRect(0, 0, -1, -1);
+            lock.notifyAll();
+        }
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void updateLoop() {
+        while (true) {
+            SceneVersion version;
+            boolean all;
+            Rectangle2D[] areas;
+            synchronized (lock) {
+                while (pendingVersion == null && !stopped) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) return;
+                version = pendingVersion;
+                all = pendingAll;
+                areas = pendingAreas.toArray(new Rectangle2D[0]);
+                pendingVersion = null;
+                pendingAll = false;
+                pendingAreas.clear();
+            }
+            update(version, all, areas);
+            listener.run();
+        }
+    }
+
+    private void update(SceneVersion version, boolean all, Rectangle2D[] areas) {
+        Rectangle2D bounds = version.bounds();
+        Layout current = layout;
+        double units = leafUnits(bounds);
+        // Cena 2x maior ou 4x menor que a escala atual: nível 0 novo, pirâmide refeita
+        if (all || units > current.leafUnits() * 2 || units * 4 < current.leafUnits()) {
+            Layout rebuilt = new Layout(units, bounds, new ConcurrentHashMap<>());
+            if (!bounds.isEmpty()) {
+                render(version, rebuilt, leafTiles(rebuilt, new Rectangle2D[] { bounds }));
+            }
+            layout = rebuilt;
+            return;
+        }
+        Layout next = new Layout(current.leafUnits(), bounds, current.tiles());
+        render(version, next, leafTiles(next, areas));
+        layout = next;
+    }
+
+    // Menor potência de 2 que faz a cena caber em LEAF_PIXELS
+    static double leafUnits(Rectangle2D bounds) {
+        double side = Math.max(bounds.getWidth(), bounds.getHeight()) / LEAF_PIXELS;
+        return side <= 1 ? 1 : Math.pow(2, Math.ceil(Math.log(side) / Math.log(2)));
+    }
+
+    // Blocos do nível 0 que tocam as áreas, com um pixel de folga para o contorno
+    private static Set<Key> leafTiles(Layout layout, Rectangle2D[] areas) {
+        Set<Key> keys = new HashSet<>();
+        double span = TILE * layout.leafUnits();
+        double margin = layout.leafUnits() + DrawingPanel.PAINT_MARGIN;
+        for (Rectangle2D area : areas) {
+            if (area.isEmpty()) continue;
+            int x0 = (int) Math.floor((area.getMinX() - margin) / span);
+            int y0 = (int) Math.floor((area.getMinY() - margin) / span);
+            int x1 = (int) Math.floor((area.getMaxX() + margin) / span);
+            int y1 = (int) Math.floor((area.getMaxY() + margin) / span);
+            for (int ty = y0; ty <= y1; ty++) {
+                for (int tx = x0; tx <= x1; tx++) {
+                    keys.add(new Key(0, tx, ty));
+                }
+            }
+        }
+        return keys;
+    }
+
+    // Redesenha os blocos do nível 0 e depois os pais, nível a nível
+    private void render(SceneVersion version, Layout layout, Set<Key> dirty) {
+        if (dirty.isEmpty()) return;
+        Map<Key, Bin> bins = new HashMap<>();
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        double span = TILE * layout.leafUnits();
+        for (Key key : dirty) {
+            bins.put(key, new Bin(key));
+            minX = Math.min(minX, key.x() * span);
+            minY = Math.min(minY, key.y() * span);
+            maxX = Math.max(maxX, (key.x() + 1) * span);
+            maxY = Math.max(maxY, (key.y() + 1) * span);
+        }
+
+        // Uma passada pelos blocos da versão, na ordem de desenho; as figuras de cada bloco
+        // são separadas por bloco da pirâmide e desenhadas antes de passar ao próximo
+        double margin = layout.leafUnits();
+        double scale = 1 / layout.leafUnits();
+        Rectangle area = new Rectangle(0, 0, TILE, TILE);
+        for (int c = 0; c < version.chunkCount(); c++) {
+            SceneVersion.Chunk chunk = version.chunk(c);
+            SceneSnapshot figures = chunk.figures();
+            if (figures.size() == 0 || chunk.maxX() + margin < minX || chunk.minX() - margin > maxX
+                    || chunk.maxY() + margin < minY || chunk.minY() - margin > maxY) {
+                continue;
+            }
+            for (int i = 0, n = figures.size(); i < n; i++) {
+                double x = figures.x(i), y = figures.y(i);
+                if (x - margin > maxX || y - margin > maxY
+                        || x + figures.width(i) + margin < minX || y + figures.height(i) + margin < minY) {
+                    continue;
+                }
+                int x0 = (int) Math.floor((x - margin) / span);
+                int y0 = (int) Math.floor((y - margin) / span);
+                int x1 = (int) Math.floor((x + figures.width(i) + margin) / span);
+                int y1 = (int) Math.floor((y + figures.height(i) + margin) / span);
+                for (int ty = y0; ty <= y1; ty++) {
+                    for (int tx = x0; tx <= x1; tx++) {
+                        Bin bin = bins.get(new Key(0, tx, ty));
+                        if (bin != null) bin.add(i);
+                    }
+                }
+            }
+            for (Bin bin : bins.values()) {
+                if (bin.count == 0) continue;
+                rasterizer.paint(figures, bin.figures, bin.count, bin.pixels, TILE, area,
+                        scale, -bin.key.x() * (double) TILE, -bin.key.y() * (double) TILE);
+                bin.count = 0;
+            }
+        }
+        for (Bin bin : bins.values()) {
+            layout.tiles().put(bin.key, bin.image);
+        }
+
+        Set<Key> level = dirty;
+        for (int l = 1; l < LEVELS; l++) {
+            Set<Key> parents = new HashSet<>();
+            for (Key key : level) {
+                parents.add(new Key(l, Math.floorDiv(key.x(), 2), Math.floorDiv(key.y(), 2)));
+            }
+            for (Key parent : parents) {
+                layout.tiles().put(parent, downsample(layout.tiles(), parent));
+            }
+            level = parents;
+        }
+    }
+
+    // Média 2x2 dos quatro filhos; filho ausente é fundo
+    private static BufferedImage downsample(Map<Key, BufferedImage> tiles, Key parent) {
+        BufferedImage image = blank();
+        int[] out = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int half = TILE / 2;
+        for (int q = 0; q < 4; q++) {
+            BufferedImage child = tiles.get(new Key(parent.level() - 1, parent.x() * 2 + (q & 1), parent.y() * 2 + (q >> 1)));
+            if (child == null) continue;
+            int[] in = ((DataBufferInt) child.getRaster().getDataBuffer()).getData();
+            int offset = (q >> 1) * half * TILE + (q & 1) * half;
+            for (int y = 0; y < half; y++) {
+                for (int x = 0; x < half; x++) {
+                    int i = 2 * y * TILE + 2 * x;
+                    int a = in[i], b = in[i + 1], c = in[i + TILE], d = in[i + TILE + 1];
+                    int r = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+                    int g = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+                    int bl = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                    out[offset + y * TILE + x] = 0xFF000000 | (r << 16) | (g << 8) | bl;
+                }
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage blank() {
+        BufferedImage image = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_RGB);
+        Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), BACKGROUND);
+        return image;
+    }
+
+    // Bloco do nível 0 em desenho e as figuras do bloco da versão atual que o tocam
+    private static final class Bin {
+        final Key key;
+        final BufferedImage image = blank();
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] figures = new int[64];
+        int count;
+
+        Bin(Key key) {
+            this.key = key;
+        }
+
+        void add(int figure) {
+            if (count == figures.length) figures = Arrays.copyOf(figures, count * 2);
+            figures[count++] = figure;
+        }
+    }
+}
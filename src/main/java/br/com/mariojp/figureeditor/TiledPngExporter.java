@@ -0,0 +1,214 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+// Exporta uma cena para PNG em qualquer escala, desenhando blocos (tiles) em
+// paralelo e entregando as linhas ao codificador faixa por faixa. A memória
+// usada depende da largura da imagem, não da altura.
+class TiledPngExporter {
+    static final int DEFAULT_TILE_SIZE = 256;
+    // Faixas desenhadas à frente da que está sendo codificada
+    private static final int BANDS_AHEAD = 2;
+
+    private final int tileSize;
+    private final int threads;
+    // Blocos escritos pelo SpanRasterizer em vez do Java2D
+    private final boolean direct;
+    // Pool de quem chama, dividido entre várias exportações (null = um pool por exportação)
+    private final ExecutorService sharedPool;
+
+    public TiledPngExporter() {
+        this(DEFAULT_TILE_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public TiledPngExporter(int tileSize, int threads) {
+        this(tileSize, threads, false);
+    }
+
+    public TiledPngExporter(int tileSize, int threads, boolean direct) {
+        if (tileSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("Tamanho do bloco e número de threads devem ser positivos");
+        }
+        this.tileSize = tileSize;
+        this.threads = threads;
+        this.direct = direct;
+        this.sharedPool = null;
+    }
+
+    // Blocos desenhados no pool dado, que não é encerrado aqui: várias exportações
+    // simultâneas (ex.: BatchRender) dividem as mesmas threads
+    public TiledPngExporter(int tileSize, ExecutorService pool) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tamanho do bloco deve ser positivo");
+        }
+        this.tileSize = tileSize;
+        this.threads = 0;
+        this.direct = false;
+        this.sharedPool = pool;
+    }
+
+    // Desenha a região (em coordenadas da cena) multiplicada por 'scale';
+    // 'progress' recebe a porcentagem concluída e pode ser null
+    public void export(SceneSnapshot scene, Rectangle2D region, double scale, int dpi, Color background,
+                       OutputStream out, IntConsumer progress) throws IOException {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Escala inválida: " + scale);
+        }
+        int width = (int) Math.ceil(region.getWidth() * scale);
+        int height = (int) Math.ceil(region.getHeight() * scale);
+        int bandCount = (height + tileSize - 1) / tileSize;
+        int[][] bandFigures = figuresPerBand(scene, region, scale, bandCount);
+
+        ExecutorService pool = sharedPool != null ? sharedPool : Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "png-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<int[]>[]> inFlight = new ArrayDeque<>();
+        try {
+            PngStreamWriter writer = new PngStreamWriter(out, width, height, dpi);
+            int[] row = new int[width];
+            int submitted = 0;
+            for (int band = 0; band < bandCount; band++) {
+                while (submitted < bandCount && submitted <= band + BANDS_AHEAD) {
+                    inFlight.addLast(submitBand(pool, scene, region, scale, background,
+                            bandFigures[submitted], submitted, width, height));
+                    submitted++;
+                }
+                Future<int[]>[] tiles = inFlight.removeFirst();
+                int top = band * tileSize;
+                int bandHeight = Math.min(tileSize, height - top);
+                int[][] pixels = new int[tiles.length][];
+                for (int t = 0; t < tiles.length; t++) {
+                    pixels[t] = await(tiles[t]);
+                }
+                for (int r = 0; r < bandHeight; r++) {
+                    for (int t = 0; t < tiles.length; t++) {
+                        int left = t * tileSize;
+                        int tileWidth = Math.min(tileSize, width - left);
+                        System.arraycopy(pixels[t], r * tileWidth, row, left, tileWidth);
+                    }
+                    writer.writeRow(row, 0);
+                }
+                if (progress != null) {
+                    progress.accept((int) ((band + 1) * 100L / bandCount));
+                }
+            }
+            writer.close();
+        } finally {
+            for (Future<int[]>[] tiles : inFlight) {
+                for (Future<int[]> tile : tiles) {
+                    tile.cancel(true);
+                }
+            }
+            if (pool != sharedPool) pool.shutdownNow();
+        }
+    }
+
+    private Future<int[]>[] submitBand(ExecutorService pool, SceneSnapshot scene, Rectangle2D region,
+                                       double scale, Color background, int[] figures,
+                                       int band, int width, int height) {
+        int top = band * tileSize;
+        int bandHeight = Math.min(tileSize, height - top);
+        int columns = (width + tileSize - 1) / tileSize;
+        // Java não cria array de tipo genérico; só recebe os Future<int[]> do pool
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Future<int[]>[] tiles = new Future[columns];
+        for (int t = 0; t < columns; t++) {
+            int left = t * tileSize;
+            int tileWidth = Math.min(tileSize, width - left);
+            tiles[t] = pool.submit(() -> direct
+                    ? rasterizeTile(scene, region, scale, background, figures, left, top, tileWidth, bandHeight)
+                    : renderTile(scene, region, scale, background, figures, left, top, tileWidth, bandHeight));
+        }
+        return tiles;
+    }
+
+    // Desenha um bloco e devolve seus pixels (RGB, linha a linha)
+    private static int[] renderTile(SceneSnapshot scene, Rectangle2D region, double scale, Color background,
+                                    int[] figures, int left, int top, int tileWidth, int tileHeight) {
+        BufferedImage image = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        SceneRenderer renderer = new SceneRenderer();
+        renderer.begin(g2, new Rectangle(0, 0, tileWidth, tileHeight), background);
+        g2.translate(-left, -top);
+        g2.scale(scale, scale);
+        g2.translate(-region.getX(), -region.getY());
+
+        // Limites do bloco em coordenadas da cena, com folga para a borda
+        double margin = DrawingPanel.PAINT_MARGIN;
+        double x0 = region.getX() + left / scale - margin;
+        double x1 = region.getX() + (left + tileWidth) / scale + margin;
+        renderer.setPixelScale(scale);
+        for (int i : figures) {
+            double fx = scene.x(i);
+            if (fx > x1 || fx + scene.width(i) < x0) continue;
+            renderer.paintFigure(g2, scene, i);
+        }
+        g2.dispose();
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    // Mesmo bloco pelo rasterizador direto; os blocos já são paralelos, então cada um
+    // é desenhado numa faixa só
+    private static int[] rasterizeTile(SceneSnapshot scene, Rectangle2D region, double scale, Color background,
+                                       int[] figures, int left, int top, int tileWidth, int tileHeight) {
+        int[] pixels = new int[tileWidth * tileHeight];
+        new SpanRasterizer().render(scene, figures, pixels, tileWidth, new Rectangle(0, 0, tileWidth, tileHeight),
+                scale, -region.getX() * scale - left, -region.getY() * scale - top, background.getRGB(), false);
+        return pixels;
+    }
+
+    // Índices das figuras que tocam cada faixa, na ordem de desenho
+    private int[][] figuresPerBand(SceneSnapshot scene, Rectangle2D region, double scale, int bandCount) {
+        double bandWorld = tileSize / scale;
+        double margin = DrawingPanel.PAINT_MARGIN;
+        int n = scene.size();
+        int[] first = new int[n], last = new int[n];
+        int[] counts = new int[bandCount];
+        for (int i = 0; i < n; i++) {
+            // Faixas tocadas pela figura; intervalo vazio se ela está fora da região
+            double top = (scene.y(i) - margin - region.getY()) / bandWorld;
+            double bottom = (scene.y(i) + scene.height(i) + margin - region.getY()) / bandWorld;
+            first[i] = (int) Math.max(0, Math.floor(top));
+            last[i] = (int) Math.min(bandCount - 1, Math.floor(bottom));
+            for (int b = first[i]; b <= last[i]; b++) counts[b]++;
+        }
+        int[][] bands = new int[bandCount][];
+        for (int b = 0; b < bandCount; b++) {
+            bands[b] = new int[counts[b]];
+        }
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < n; i++) {
+            for (int b = first[i]; b <= last[i]; b++) bands[b][counts[b]++] = i;
+        }
+        return bands;
+    }
+
+    private static int[] await(Future<int[]> tile) throws IOException {
+        try {
+            return tile.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Exportação interrompida");
+        } catch (ExecutionException e) {
+            throw new IOException("Falha ao desenhar bloco", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package br.com.mariojp.figureeditor;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+// Transformação da vista: tela = mundo * scale + (translateX, translateY).
+// As figuras, o índice e os comandos trabalham sempre em coordenadas do mundo.
+class Viewport {
+    static final double MIN_SCALE = 1.0 / 256;
+    static final double MAX_SCALE = 64;
+
+    private double scale = 1;
+    private double translateX;
+    private double translateY;
+    // Muda a cada alteração, para quem guarda pixels da vista anterior (camada em cache)
+    private int version;
+    // Transformação do Graphics2D antes de apply, se apply mudou alguma coisa
+    private final AffineTransform saved = new AffineTransform();
+    private boolean applied;
+
+    public double getScale() { return scale; }
+    public double getTranslateX() { return translateX; }
+    public double getTranslateY() { return translateY; }
+    public int getVersion() { return version; }
+
+    public double toWorldX(double screenX) { return (screenX - translateX) / scale; }
+    public double toWorldY(double screenY) { return (screenY - translateY) / scale; }
+    public double toScreenX(double worldX) { return worldX * scale + translateX; }
+    public double toScreenY(double worldY) { return worldY * scale + translateY; }
+
+    public void toWorld(Rectangle2D screen, Rectangle2D out) {
+        out.setRect(toWorldX(screen.getX()), toWorldY(screen.getY()),
+                screen.getWidth() / scale, screen.getHeight() / scale);
+    }
+
+    // Menor retângulo de pixels inteiros que cobre a área do mundo
+    public void toScreen(Rectangle2D world, Rectangle out) {
+        int x0 = (int) Math.floor(toScreenX(world.getMinX()));
+        int y0 = (int) Math.floor(toScreenY(world.getMinY()));
+        int x1 = (int) Math.ceil(toScreenX(world.getMaxX()));
+        int y1 = (int) Math.ceil(toScreenY(world.getMaxY()));
+        out.setBounds(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    // Zoom mantendo fixo o ponto do mundo que está sob (screenX, screenY)
+    public void zoomAt(double screenX, double screenY, double factor) {
+        double worldX = toWorldX(screenX), worldY = toWorldY(screenY);
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        if (newScale == scale) return;
+        scale = newScale;
+        translateX = screenX - worldX * scale;
+        translateY = screenY - worldY * scale;
+        version++;
+    }
+
+    public void pan(double dx, double dy) {
+        if (dx == 0 && dy == 0) return;
+        translateX += dx;
+        translateY += dy;
+        version++;
+    }
+
+    public void reset() {
+        scale = 1;
+        translateX = 0;
+        translateY = 0;
+        version++;
+    }
+
+    public boolean isIdentity() {
+        return scale == 1 && translateX == 0 && translateY == 0;
+    }
+
+    // Aplica e desfaz a transformação no próprio Graphics2D. restore devolve a
+    // transformação guardada em apply, exata: desfazer com o inverso (1 / scale) deixava
+    // resíduo de arredondamento. Guardar custa a cópia de getTransform() (a única
+    // alocação do quadro); na vista sem zoom nem deslocamento nada é feito
+    public void apply(Graphics2D g2) {
+        applied = !isIdentity();
+        if (!applied) return;
+        saved.setTransform(g2.getTransform());
+        g2.translate(translateX, translateY);
+        g2.scale(scale, scale);
+    }
+
+    public void restore(Graphics2D g2) {
+        if (applied) g2.setTransform(saved);
+        applied = false;
+    }
+}
@@ -0,0 +1,44 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchRenderTest {
+    @TempDir
+    Path dir;
+
+    // Cada documento sai em faixas pelo TiledPngExporter, no pool dividido entre eles,
+    // com o tamanho da região inteira; um arquivo ruim só falha ele
+    @Test
+    void rendersDocumentsThroughTheTiledExporter() throws IOException {
+        // Mais alto que várias faixas de DEFAULT_TILE_SIZE
+        SceneSnapshot scene = new SceneSnapshot(new double[] {0, 40}, new double[] {0, 900},
+                new double[] {100, 50}, new double[] {60, 50}, new int[] {0xFFFF0000, 0xFF0000FF},
+                new byte[] {(byte) ShapeType.RECTANGLE.ordinal(), (byte) ShapeType.CIRCLE.ordinal()}, 2);
+        Path document = dir.resolve("alto.fged");
+        FigureDocument.save(scene, document);
+        Path broken = dir.resolve("ruim.fged");
+        Files.write(broken, new byte[] {1, 2, 3});
+        Path out = Files.createDirectory(dir.resolve("png"));
+
+        int failures = new BatchRender(out, 0.5, 2).run(List.of(document, broken));
+
+        assertEquals(1, failures);
+        BufferedImage image = ImageIO.read(out.resolve("alto.png").toFile());
+        double margin = DrawingPanel.PAINT_MARGIN;
+        assertEquals((int) Math.ceil((100 + 2 * margin) * 0.5), image.getWidth());
+        assertEquals((int) Math.ceil((950 + 2 * margin) * 0.5), image.getHeight());
+        // Dentro do retângulo vermelho e do círculo azul, longe das bordas
+        assertEquals(0xFF0000, image.getRGB((int) ((margin + 50) * 0.5), (int) ((margin + 30) * 0.5)) & 0xFFFFFF);
+        assertEquals(0x0000FF, image.getRGB((int) ((margin + 65) * 0.5), (int) ((margin + 925) * 0.5)) & 0xFFFFFF);
+    }
+}
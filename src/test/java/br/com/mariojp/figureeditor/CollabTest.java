@@ -0,0 +1,340 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.*;
+import java.awt.Color;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CollabTest {
+    private CollabServer relay;
+    private final List<AutoCloseable> open = new ArrayList<>();
+
+    @BeforeEach
+    void startRelay() throws IOException {
+        relay = CollabServer.start("localhost", 0);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        Collections.reverse(open);
+        for (AutoCloseable closeable : open) {
+            onEdt(() -> {
+                closeable.close();
+                return null;
+            });
+        }
+        relay.close();
+    }
+
+    static <T> T onEdt(Callable<T> task) throws Exception {
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result.set(task.call());
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        if (failure.get() != null) throw failure.get();
+        return result.get();
+    }
+
+    // Espera a condição (avaliada no EDT, depois das tarefas já agendadas)
+    static void await(BooleanSupplier condition) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!onEdt(condition::getAsBoolean)) {
+            if (System.nanoTime() > deadline) throw new AssertionError("Tempo esgotado");
+            Thread.sleep(5);
+        }
+    }
+
+    CollabClient connect(DrawingPanel panel) throws Exception {
+        return connect(panel, null);
+    }
+
+    CollabClient connect(DrawingPanel panel, Path identityFile) throws Exception {
+        CollabClient client = onEdt(() -> CollabClient.open("localhost", relay.getPort(), panel, identityFile));
+        open.add(client);
+        return client;
+    }
+
+    static void add(DrawingPanel panel, double x, double y) throws Exception {
+        onEdt(() -> {
+            panel.executeCommand(new AddShapeCommand(panel,
+                    new FigureShape(panel.getStore(), ShapeType.HEXAGON, x, y, 40, 30, Color.GREEN)));
+            return null;
+        });
+    }
+
+    // Cena em ordem canônica (os ids locais diferem entre editores)
+    static List<String> scene(DrawingPanel panel) throws Exception {
+        return onEdt(() -> {
+            List<String> figures = new ArrayList<>();
+            for (FigureShape shape : panel.getShapes()) {
+                figures.add(shape.getType() + " " + shape.getX() + " " + shape.getY() + " "
+                        + shape.getWidth() + " " + shape.getHeight() + " " + Integer.toHexString(shape.getArgb()));
+            }
+            Collections.sort(figures);
+            return figures;
+        });
+    }
+
+    @Test
+    void malformedFramesOnlyDropTheirSender() throws Exception {
+        DrawingPanel a = new DrawingPanel(), b = new DrawingPanel();
+        connect(a);
+        connect(b);
+
+        try (SocketChannel bad = SocketChannel.open(new InetSocketAddress("localhost", relay.getPort()))) {
+            ByteBuffer frames = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+            frames.putInt(0);                                // quadro vazio, sem carimbo
+            frames.putInt(9).putLong(1L << 16).put((byte) 99); // registro desconhecido
+            bad.write(frames.flip());
+            // O relay fecha a conexão de quem mandou o lixo
+            ByteBuffer sink = ByteBuffer.allocate(64 * 1024);
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            int read;
+            while ((read = bad.read(sink.clear())) >= 0) {
+                assertTrue(System.nanoTime() < deadline, "relay não derrubou o cliente inválido");
+            }
+            assertEquals(-1, read);
+        }
+
+        add(a, 10, 20);
+        await(() -> b.getShapes().size() == 1);
+        assertEquals(scene(a), scene(b));
+    }
+
+    // O id de quem sai volta para quem entra (são só 16 bits), e quem o herda escreve
+    // com carimbos mais novos que os do dono anterior
+    @Test
+    void clientIdsAreRecycled() throws Exception {
+        DrawingPanel a = new DrawingPanel(), b = new DrawingPanel(), c = new DrawingPanel();
+        connect(a);
+        CollabClient clientB = connect(b);
+        int recycled = clientB.getClientId();
+        add(a, 0, 0);
+        await(() -> b.getShapes().size() == 1);
+        onEdt(() -> {
+            b.executeCommand(new MoveShapeCommand(b, b.getShapes().get(0), 50, 0));
+            return null;
+        });
+        await(() -> a.getShapes().get(0).getX() == 50);
+        open.remove(clientB);
+        onEdt(() -> {
+            clientB.close();
+            return null;
+        });
+
+        // O relay libera o id quando percebe a saída; até lá quem entra recebe outro
+        CollabClient clientC = connect(c);
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (clientC.getClientId() != recycled) {
+            assertTrue(System.nanoTime() < deadline, "id " + recycled + " não foi reaproveitado");
+            open.remove(clientC);
+            CollabClient other = clientC;
+            onEdt(() -> {
+                other.close();
+                return null;
+            });
+            Thread.sleep(5);
+            c = new DrawingPanel();
+            clientC = connect(c);
+        }
+
+        DrawingPanel last = c;
+        onEdt(() -> {
+            last.executeCommand(new MoveShapeCommand(last, last.getShapes().get(0), -20, 0));
+            return null;
+        });
+        await(() -> a.getShapes().get(0).getX() == 30);
+        assertEquals(scene(a), scene(last));
+    }
+
+    // Geometria não finita ou fora do alcance não passa do relay (nem de um cliente)
+    @Test
+    void checkFrameRejectsOutOfRangeGeometry() {
+        ByteBuffer frame = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        double[][] boxes = {
+                {Double.NaN, 0, 10, 10}, {0, 0, Double.POSITIVE_INFINITY, 10}, {0, 0, -1, 10},
+                {0, 2 * FigureGeometry.MAX_COORDINATE, 10, 10}, {0, 0, 10, 10}};
+        for (int i = 0; i < boxes.length; i++) {
+            double[] box = boxes[i];
+            frame.clear().putLong(1L << 16).put(CollabClient.OP_ADD).putLong(7).put((byte) 0)
+                    .putDouble(box[0]).putDouble(box[1]).putDouble(box[2]).putDouble(box[3]).putInt(0);
+            String error = CollabClient.checkFrame(frame, 0, frame.position(), false);
+            assertEquals(i == boxes.length - 1, error == null, Arrays.toString(box) + ": " + error);
+        }
+        frame.clear().putLong(1L << 16).put(CollabClient.OP_MOVE).putLong(7).putDouble(Double.NEGATIVE_INFINITY).putDouble(0);
+        assertEquals("posição inválida", CollabClient.checkFrame(frame, 0, frame.position(), false));
+    }
+
+    // Quem não lê o que o relay manda é desconectado ao passar do backlog, em vez de o
+    // buffer dele crescer sem limite
+    @Test
+    void slowPeerIsDroppedPastTheBacklog() throws Exception {
+        relay.close();
+        relay = CollabServer.start("localhost", 0, 256 * 1024);
+        try (SocketChannel sender = SocketChannel.open(new InetSocketAddress("localhost", relay.getPort()));
+             SocketChannel slow = SocketChannel.open(new InetSocketAddress("localhost", relay.getPort()))) {
+            ByteBuffer hello = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+            while (hello.position() < 4 || hello.position() < 4 + hello.getInt(0)) {
+                sender.read(hello);
+            }
+            int id = hello.getInt(4 + 8 + 1);
+
+            // 16 MB de movimentos, muito além do backlog e dos buffers do socket
+            int records = 4 * 1024;
+            ByteBuffer frame = ByteBuffer.allocate(4 + 8 + records * (1 + 8 + 16)).order(ByteOrder.LITTLE_ENDIAN);
+            long sent = 0;
+            for (int i = 1; i <= 160; i++) {
+                frame.clear().putInt(frame.capacity() - 4).putLong(((long) i << 16) | id);
+                for (int r = 0; r < records; r++) {
+                    frame.put(CollabClient.OP_MOVE).putLong(r).putDouble(0).putDouble(0);
+                }
+                frame.flip();
+                while (frame.hasRemaining()) sender.write(frame);
+                sent += frame.capacity();
+            }
+
+            ByteBuffer sink = ByteBuffer.allocate(64 * 1024);
+            long received = 0;
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            slow.configureBlocking(false);
+            int read;
+            while ((read = slow.read(sink.clear())) >= 0) {
+                received += read;
+                assertTrue(System.nanoTime() < deadline, "relay não derrubou o cliente atrasado");
+                if (read == 0) Thread.sleep(5);
+            }
+            assertTrue(received < sent, received + " de " + sent + " bytes");
+        }
+    }
+
+    // Um relay que aceita e não responde não prende quem conecta: o HELLO tem timeout
+    @Test
+    void connectTimesOutWhenTheRelayIsSilent() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            long start = System.nanoTime();
+            assertThrows(SocketTimeoutException.class,
+                    () -> CollabClient.connect("localhost", silent.getLocalPort(), 200));
+            assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        }
+    }
+
+    // O relay guarda a cena compactada: quem entra recebe um registro por figura, não as
+    // operações todas, e chega à mesma cena (inclusive sem as figuras removidas)
+    @Test
+    void lateJoinerGetsCompactedScene() throws Exception {
+        DrawingPanel a = new DrawingPanel(), b = new DrawingPanel();
+        connect(a);
+        connect(b);
+        add(a, 0, 0);
+        add(a, 100, 0);
+        onEdt(() -> {
+            FigureShape[] shapes = a.getStore().liveFigureArray();
+            for (int i = 0; i < 1000; i++) {
+                a.executeCommand(new MoveShapeCommand(a, shapes[0], 1, 0));
+            }
+            a.executeCommand(new RecolorShapeCommand(a, shapes[0], Color.RED));
+            a.executeCommand(new RemoveShapeCommand(a, shapes[1]));
+            return null;
+        });
+
+        // B já conectado: quando ele chega à cena final, o relay já registrou tudo
+        await(() -> b.getShapes().size() == 1 && b.getShapes().get(0).getX() == 1000);
+        // A cena do relay já está aplicada quando o open volta
+        DrawingPanel c = new DrawingPanel();
+        connect(c);
+        assertEquals(scene(a), scene(c));
+
+        // Um cliente cru recebe HELLO e um único quadro com os dois registros STATE
+        try (SocketChannel raw = SocketChannel.open(new InetSocketAddress("localhost", relay.getPort()))) {
+            ByteBuffer in = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            raw.configureBlocking(false);
+            long deadline = System.nanoTime() + 300_000_000L;
+            while (System.nanoTime() < deadline) {
+                raw.read(in);
+                Thread.sleep(5);
+            }
+            int hello = 4 + in.getInt(0);
+            assertEquals(in.position() - hello, in.getInt(hello - 4), "tamanho da cena anunciado no HELLO");
+            assertEquals(4 + 8 + 2 * CollabClient.STATE_BYTES, in.getInt(hello) + 4);
+            assertEquals(hello + 4 + in.getInt(hello), in.position());
+        }
+    }
+
+    // Reiniciar o editor (journal e identidade no mesmo diretório) e reconectar não
+    // duplica figuras: as próprias e as recebidas voltam com o mesmo id global, e o que
+    // mudou no relay enquanto este editor estava fora prevalece
+    @Test
+    void restartAndReconnectKeepFigureIdentity(@TempDir Path dir) throws Exception {
+        Path identity = dir.resolve("collab-ids");
+        DrawingPanel first = new DrawingPanel(), b = new DrawingPanel(), observer = new DrawingPanel();
+        SceneJournal journal = onEdt(() -> SceneJournal.open(dir, first));
+        CollabClient clientA = onEdt(() -> CollabClient.open("localhost", relay.getPort(), first, identity));
+        connect(b);
+        connect(observer);
+        add(first, 0, 0);
+        add(b, 100, 0);
+        await(() -> first.getShapes().size() == 2 && b.getShapes().size() == 2);
+
+        DrawingPanel a = first;
+        for (int restart = 1; restart <= 2; restart++) {
+            CollabClient previous = clientA;
+            SceneJournal previousJournal = journal;
+            onEdt(() -> {
+                previous.close();
+                previousJournal.close();
+                return null;
+            });
+            // Com A fora, B move a figura que A criou
+            double y = 50 * restart;
+            onEdt(() -> {
+                for (FigureShape shape : b.getShapes()) {
+                    if (shape.getX() == 0) b.executeCommand(new MoveShapeCommand(b, shape, 0, y - shape.getY()));
+                }
+                return null;
+            });
+            await(() -> observer.getShapes().stream().anyMatch(shape -> shape.getY() == y));
+
+            a = new DrawingPanel();
+            DrawingPanel restarted = a;
+            journal = onEdt(() -> SceneJournal.open(dir, restarted));
+            clientA = onEdt(() -> CollabClient.open("localhost", relay.getPort(), restarted, identity));
+            assertEquals(scene(b), scene(a));
+        }
+        open.add(journal);
+        open.add(clientA);
+
+        // O que A manda depois da reconexão é uma figura nova, e nada mais foi duplicado
+        add(a, 200, 0);
+        await(() -> observer.getShapes().size() == 3);
+        assertEquals(scene(a), scene(b));
+        assertEquals(scene(a), scene(observer));
+    }
+}
@@ -0,0 +1,67 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.geom.Point2D;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CommandManagerTest {
+    private static FigureShape add(DrawingPanel panel, double x, double y) {
+        FigureShape shape = new FigureShape(panel.getStore(), ShapeType.RECTANGLE, x, y, 20, 20, Color.RED);
+        panel.executeCommand(new AddShapeCommand(panel, shape));
+        return shape;
+    }
+
+    // Cada movimento da seleção monta um array novo; o mesmo grupo ainda vira uma entrada
+    // só, e o histórico conta os bytes dela uma vez
+    @Test
+    void consecutiveMovesOfTheSameGroupMerge() {
+        DrawingPanel panel = new DrawingPanel();
+        FigureShape a = add(panel, 0, 0);
+        FigureShape b = add(panel, 100, 50);
+        CommandManager manager = panel.getCommandManager();
+        panel.selectAll();
+        int entries = manager.getUndoSize();
+        long bytes = manager.getHistoryBytes();
+
+        panel.moveSelection(5, 0);
+        long moveBytes = manager.getHistoryBytes() - bytes;
+        panel.moveSelection(0, 7);
+        panel.moveSelection(-2, 1);
+
+        assertEquals(entries + 1, manager.getUndoSize());
+        assertEquals(bytes + moveBytes, manager.getHistoryBytes());
+        assertEquals(new MoveShapesCommand(panel, new FigureShape[] {a, b}, 0, 0).estimatedBytes(), moveBytes);
+        assertEquals(3, a.getX());
+        assertEquals(58, b.getY());
+
+        manager.undo();
+        assertEquals(0, a.getX());
+        assertEquals(0, a.getY());
+        assertEquals(100, b.getX());
+        assertEquals(50, b.getY());
+        manager.redo();
+        assertEquals(3, a.getX());
+        assertEquals(58, b.getY());
+    }
+
+    // Outro grupo (mesmas figuras a menos de uma) é outra entrada
+    @Test
+    void movesOfDifferentGroupsStaySeparate() {
+        DrawingPanel panel = new DrawingPanel();
+        add(panel, 0, 0);
+        FigureShape b = add(panel, 100, 50);
+        CommandManager manager = panel.getCommandManager();
+        panel.selectAll();
+        int entries = manager.getUndoSize();
+
+        panel.moveSelection(5, 0);
+        panel.selectShapeAt(new Point2D.Double(b.getX() + 1, b.getY() + 1));
+        panel.moveSelection(5, 0);
+
+        assertEquals(entries + 2, manager.getUndoSize());
+        assertEquals(110, b.getX());
+    }
+}
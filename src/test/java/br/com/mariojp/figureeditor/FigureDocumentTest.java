@@ -0,0 +1,138 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FigureDocumentTest {
+    @TempDir
+    Path dir;
+
+    // Mais de um bloco do índice e todos os tipos de figura
+    private static SceneSnapshot scene(int count, long seed) {
+        Random random = new Random(seed);
+        double[] x = new double[count], y = new double[count], w = new double[count], h = new double[count];
+        int[] argb = new int[count];
+        byte[] type = new byte[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = random.nextDouble() * 10_000 - 5_000;
+            y[i] = random.nextDouble() * 10_000 - 5_000;
+            w[i] = 1 + random.nextDouble() * 200;
+            h[i] = 1 + random.nextDouble() * 200;
+            argb[i] = random.nextInt();
+            type[i] = (byte) (i % ShapeType.values().length);
+        }
+        return new SceneSnapshot(x, y, w, h, argb, type, count);
+    }
+
+    private static void assertSameScene(SceneSnapshot expected, SceneSnapshot actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.x(i), actual.x(i));
+            assertEquals(expected.y(i), actual.y(i));
+            assertEquals(expected.width(i), actual.width(i));
+            assertEquals(expected.height(i), actual.height(i));
+            assertEquals(expected.argb(i), actual.argb(i));
+            assertEquals(expected.type(i), actual.type(i));
+        }
+    }
+
+    @Test
+    void roundTripKeepsRecordsAndIndex() throws IOException {
+        SceneSnapshot scene = scene(2 * FigureDocument.BLOCK_SIZE + 17, 1);
+        Path path = dir.resolve("desenho.fged");
+        FigureDocument.save(scene, path);
+
+        FigureDocument document = FigureDocument.open(path);
+        assertSameScene(scene, document.toSnapshot());
+        for (int i = 0; i < scene.size(); i += 997) {
+            assertEquals(scene.type(i), document.type(i));
+            assertEquals(scene.x(i), document.x(i));
+        }
+        assertEquals(3, document.blockCount());
+        for (int b = 0; b < document.blockCount(); b++) {
+            Rectangle2D bounds = document.blockBounds(b);
+            for (int i = b * FigureDocument.BLOCK_SIZE; i < Math.min(scene.size(), (b + 1) * FigureDocument.BLOCK_SIZE); i++) {
+                Rectangle2D figure = new Rectangle2D.Double(scene.x(i), scene.y(i), scene.width(i), scene.height(i));
+                assertEquals(bounds, bounds.createUnion(figure));
+            }
+        }
+
+        Path empty = dir.resolve("vazio.fged");
+        FigureDocument.save(scene(0, 2), empty);
+        assertEquals(0, FigureDocument.open(empty).toSnapshot().size());
+    }
+
+    // Um byte de tipo fora de ShapeType é erro de leitura, não uma exceção na pintura
+    @Test
+    void corruptTypeByteFailsAtLoad() throws IOException {
+        Path path = dir.resolve("corrompido.fged");
+        FigureDocument.save(scene(10, 3), path);
+        long typeAt = FigureDocument.HEADER_SIZE + FigureDocument.INDEX_ENTRY_SIZE
+                + 7L * FigureDocument.RECORD_SIZE + 36;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 42}), typeAt);
+        }
+
+        FigureDocument document = FigureDocument.open(path);
+        IOException error = assertThrows(IOException.class, document::toSnapshot);
+        assertTrue(error.getMessage().contains("figura 7"), error.getMessage());
+        assertThrows(IOException.class, () -> document.type(7));
+        assertEquals(ShapeType.values()[6 % ShapeType.values().length], document.type(6));
+    }
+
+    // Coordenadas que não cabem no editor (NaN, infinitas, tamanho negativo ou fora de
+    // MAX_COORDINATE) também são erro de carga, com o número da figura
+    @Test
+    void corruptGeometryFailsAtLoad() throws IOException {
+        double[] bad = {Double.NaN, Double.POSITIVE_INFINITY, -1, 2 * FigureGeometry.MAX_COORDINATE};
+        int[] field = {0, 8, 16, 24};
+        for (int k = 0; k < bad.length; k++) {
+            Path path = dir.resolve("geometria" + k + ".fged");
+            FigureDocument.save(scene(10, 6), path);
+            long at = FigureDocument.HEADER_SIZE + FigureDocument.INDEX_ENTRY_SIZE
+                    + 4L * FigureDocument.RECORD_SIZE + field[k];
+            ByteBuffer value = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(0, bad[k]);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.write(value, at);
+            }
+
+            IOException error = assertThrows(IOException.class, () -> FigureDocument.open(path).toSnapshot());
+            assertTrue(error.getMessage().startsWith("Arquivo corrompido"), error.getMessage());
+            assertTrue(error.getMessage().contains("figura 4"), error.getMessage());
+        }
+    }
+
+    // Salvar por cima troca o arquivo inteiro: um documento ainda aberto do arquivo antigo
+    // continua lendo o conteúdo antigo e não sobra temporário
+    @Test
+    void saveReplacesFileAtomically() throws IOException {
+        Path path = dir.resolve("desenho.fged");
+        SceneSnapshot before = scene(FigureDocument.BLOCK_SIZE + 1, 4);
+        FigureDocument.save(before, path);
+        FigureDocument old = FigureDocument.open(path);
+
+        SceneSnapshot after = scene(5, 5);
+        FigureDocument.save(after, path);
+
+        assertSameScene(before, old.toSnapshot());
+        assertSameScene(after, FigureDocument.open(path).toSnapshot());
+        try (var files = Files.list(dir)) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FigureImporterTest {
+    private static final int DEFAULT_ARGB = 0xFF112233;
+
+    @TempDir
+    Path dir;
+
+    // Figuras importadas como "TIPO x y w h argb", na ordem do arquivo
+    private List<String> importText(String name, String text, int threads, int chunkBytes) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+        List<String> figures = new ArrayList<>();
+        long count = new FigureImporter(threads, chunkBytes, DEFAULT_ARGB).read(file, FigureImporter.Format.of(file),
+                chunk -> {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        figures.add(chunk.type(i) + " " + chunk.x(i) + " " + chunk.y(i) + " " + chunk.width(i)
+                                + " " + chunk.height(i) + " " + Integer.toHexString(chunk.argb(i)));
+                    }
+                }, null);
+        assertEquals(figures.size(), count);
+        return figures;
+    }
+
+    private List<String> importText(String name, String text) throws IOException {
+        return importText(name, text, 2, FigureImporter.DEFAULT_CHUNK_BYTES);
+    }
+
+    private String importError(String name, String text, int chunkBytes) {
+        return assertThrows(IOException.class, () -> importText(name, text, 2, chunkBytes)).getMessage();
+    }
+
+    @Test
+    void csvWithHeaderColorsAndNumberForms() throws IOException {
+        List<String> figures = importText("figuras.csv", """
+                type,x,y,width,height,color
+                circle,10,20,30,40,#ff0000
+                Rectangle, -1.5 ,+2.25,1e2,0.125,
+                "hexagon",3,4,5,6,#80000000\r
+                diamond,0.1,123456789.123,7,8,-16711936
+
+                triangle,1,2,3,4
+                """);
+        assertEquals(List.of(
+                "CIRCLE 10.0 20.0 30.0 40.0 ffff0000",
+                "RECTANGLE -1.5 2.25 100.0 0.125 ff112233",
+                "HEXAGON 3.0 4.0 5.0 6.0 80000000",
+                "DIAMOND 0.1 1.23456789123E8 7.0 8.0 ff00ff00",
+                "TRIANGLE 1.0 2.0 3.0 4.0 ff112233"), figures);
+    }
+
+    @Test
+    void jsonLinesIgnoreUnknownKeysAndKeyOrder() throws IOException {
+        List<String> figures = importText("figuras.jsonl", """
+                {"type":"circle","x":10,"y":20,"width":30,"height":40,"color":"#ff0000"}
+                { "height" : 2 , "width":1, "note":"a, b}", "y":-3,"x":4.5,"type":"DIAMOND" }
+                """);
+        assertEquals(List.of(
+                "CIRCLE 10.0 20.0 30.0 40.0 ffff0000",
+                "DIAMOND 4.5 -3.0 1.0 2.0 ff112233"), figures);
+    }
+
+    // Só uma primeira linha começando por "type" é cabeçalho: um tipo escrito errado na
+    // primeira linha de dados é erro da linha 1, não uma figura perdida em silêncio
+    @Test
+    void misspelledFirstRowIsAnErrorNotAHeader() {
+        String message = importError("figuras.csv", "circel,1,2,3,4\ncircle,1,2,3,4\n", FigureImporter.DEFAULT_CHUNK_BYTES);
+        assertTrue(message.startsWith("Linha 1: Tipo desconhecido: circel"), message);
+    }
+
+    // Blocos pequenos cortam o arquivo em muitos pedaços: cada linha chega inteira a um
+    // bloco, a ordem se mantém e o número da linha com erro conta as dos blocos anteriores
+    @Test
+    void linesSplitAcrossChunksKeepOrderAndLineNumbers() throws IOException {
+        StringBuilder text = new StringBuilder("type,x,y,width,height\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            text.append("rectangle,").append(i).append(",").append(i * 0.5).append(",1,2\n");
+            expected.add("RECTANGLE " + (double) i + " " + i * 0.5 + " 1.0 2.0 ff112233");
+        }
+        // Blocos de 16 bytes: várias linhas não cabem e o buffer precisa crescer
+        assertEquals(expected, importText("muitas.csv", text.toString(), 3, 16));
+
+        String broken = text + "rectangle,1,2,3\n" + "rectangle,1,2,3,4\n";
+        String message = importError("quebrado.csv", broken, 16);
+        assertTrue(message.startsWith("Linha 502: "), message);
+    }
+
+    @Test
+    void outOfRangeGeometryIsRejectedWithItsLine() {
+        String[] rows = {"circle,NaN,0,1,1", "circle,0,Infinity,1,1", "circle,2e9,0,1,1",
+                "circle,0,0,0,1", "circle,0,0,1,-1", "circle,0,0,1e10,1"};
+        for (String row : rows) {
+            String message = importError("fora.csv", "circle,0,0,1,1\n" + row + "\n", FigureImporter.DEFAULT_CHUNK_BYTES);
+            assertTrue(message.startsWith("Linha 2: "), row + ": " + message);
+        }
+    }
+
+    // Arquivo sem quebras de linha: erro ao passar de MAX_LINE_BYTES, sem crescer o buffer
+    // até faltar memória; as linhas antes dela são analisadas e contadas
+    @Test
+    void overlongLineFailsInsteadOfGrowingForever() {
+        String text = "circle,0,0,1,1\ncircle,0,0,1,1\n" + "x".repeat(FigureImporter.MAX_LINE_BYTES + 10);
+        String message = importError("sem-fim.csv", text, 4096);
+        assertTrue(message.startsWith("Linha 3: mais de " + FigureImporter.MAX_LINE_BYTES + " bytes"), message);
+    }
+}
@@ -0,0 +1,159 @@
+package br.com.mariojp.figureeditor;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Alocação no quadro em regime (a conferência com o JFR descrita no README, automática).
+// Com retângulos o quadro só copia a transformação do Graphics2D; com elipses,
+// polígonos e seleção tracejada sobra o que o próprio Java2D aloca dentro de fill/draw
+// (PathIterator, cópia do tracejado), nunca o código do editor
+class PaintAllocationTest {
+    private static final int WARMUP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 2000;
+    // Cópia da transformação do Graphics2D que Viewport.apply guarda (AffineTransform)
+    private static final long TRANSFORM_COPY_BYTES = 72;
+    // Alocações isoladas que não se repetem a cada quadro (ex.: a própria medição)
+    private static final long SLACK_BYTES = 4096;
+    private static final int JFR_FRAMES = 300;
+
+    @TempDir
+    Path dir;
+
+    private static DrawingPanel scene(int count, boolean rectangles) {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(320, 240);
+        Random random = new Random(3);
+        ShapeType[] types = ShapeType.values();
+        for (int i = 0; i < count; i++) {
+            FigureShape shape = new FigureShape(panel.getStore(),
+                    rectangles ? ShapeType.RECTANGLE : types[i % types.length],
+                    random.nextDouble() * 400, random.nextDouble() * 300,
+                    5 + random.nextDouble() * 60, 5 + random.nextDouble() * 60,
+                    new Color(random.nextInt(0x1000000)));
+            panel.executeCommand(new AddShapeCommand(panel, shape));
+        }
+        panel.getViewport().zoomAt(100, 80, 1.37);
+        panel.getViewport().pan(-13.3, 7.9);
+        return panel;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    // Bytes alocados por MEASURED_FRAMES quadros, depois do aquecimento
+    private static long allocatedByFrames(DrawingPanel panel, Graphics2D g2) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            panel.paintComponent(g2);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            panel.paintComponent(g2);
+        }
+        return allocatedBytes() - before;
+    }
+
+    // Sem zoom o quadro não aloca nada; com zoom, no máximo a cópia da transformação
+    // (que a JIT costuma eliminar depois de compilar o quadro)
+    @Test
+    void rectangleFramesAllocateNothingButTheTransformCopy() {
+        DrawingPanel panel = scene(20, true);
+        BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        try {
+            long zoomed = allocatedByFrames(panel, g2);
+            assertTrue(zoomed <= MEASURED_FRAMES * TRANSFORM_COPY_BYTES + SLACK_BYTES,
+                    zoomed + " bytes em " + MEASURED_FRAMES + " quadros com zoom");
+            panel.getViewport().reset();
+            long identity = allocatedByFrames(panel, g2);
+            assertTrue(identity <= SLACK_BYTES, identity + " bytes em " + MEASURED_FRAMES + " quadros sem zoom");
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    // Cada alocação amostrada pelo JFR durante os quadros tem que acontecer dentro de
+    // uma chamada ao Java2D (sun.java2d); alocar no editor aparece com a pilha
+    @Test
+    void frameAllocationsHappenInsideJava2D() throws IOException {
+        DrawingPanel panel = scene(60, false);
+        panel.selectAll();
+        BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        Path file = dir.resolve("quadros.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.ObjectAllocationInNewTLAB").withStackTrace();
+            recording.enable("jdk.ObjectAllocationOutsideTLAB").withStackTrace();
+            for (int i = 0; i < JFR_FRAMES; i++) {
+                panel.paintComponent(g2);
+            }
+            recording.start();
+            for (int i = 0; i < JFR_FRAMES; i++) {
+                panel.paintComponent(g2);
+            }
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            g2.dispose();
+        }
+
+        int inFrame = 0;
+        List<String> editor = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getStackTrace() == null) continue;
+            List<RecordedFrame> frames = event.getStackTrace().getFrames();
+            boolean painting = false, java2d = false;
+            for (RecordedFrame frame : frames) {
+                String type = frame.getMethod().getType().getName();
+                painting |= frame.getMethod().getName().equals("paintComponent")
+                        && type.equals(DrawingPanel.class.getName());
+                java2d |= type.startsWith("sun.java2d.");
+            }
+            if (!painting) continue;
+            inFrame++;
+            if (!java2d) {
+                editor.add(event.getClass("objectClass").getName() + " em " + frames.get(0).getMethod().getType().getName()
+                        + "." + frames.get(0).getMethod().getName() + ":" + frames.get(0).getLineNumber());
+            }
+        }
+        assertTrue(inFrame > 0, "o JFR não amostrou nenhuma alocação nos quadros");
+        assertTrue(editor.isEmpty(), "alocações fora do Java2D: " + editor);
+    }
+
+    // O mesmo Graphics2D atravessa muitos quadros: a transformação tem que voltar exata
+    @Test
+    void frameLeavesGraphicsTransformExact() {
+        DrawingPanel panel = scene(20, false);
+        BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.translate(0.1, 0.3);
+            g2.scale(1.25, 1.25);
+            AffineTransform before = g2.getTransform();
+            for (int i = 0; i < 50; i++) {
+                panel.paintComponent(g2);
+            }
+            assertEquals(before, g2.getTransform());
+        } finally {
+            g2.dispose();
+        }
+    }
+}
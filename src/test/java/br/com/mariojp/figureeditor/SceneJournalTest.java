@@ -0,0 +1,143 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// "try": vários journals ficam abertos só para gravar ou recuperar a cena
+@SuppressWarnings("try")
+class SceneJournalTest {
+    @TempDir
+    Path dir;
+
+    private static FigureShape add(DrawingPanel panel, double x) {
+        FigureShape shape = new FigureShape(panel.getStore(), ShapeType.RECTANGLE, x, 10, 50, 40, Color.BLUE);
+        panel.executeCommand(new AddShapeCommand(panel, shape));
+        return shape;
+    }
+
+    private static FigureShape at(DrawingPanel panel, double x) {
+        for (FigureShape shape : panel.getShapes()) {
+            if (shape.getX() == x) return shape;
+        }
+        throw new AssertionError("Nenhuma figura em x=" + x);
+    }
+
+    private static int[] liveIds(DrawingPanel panel) {
+        return panel.getShapes().stream().mapToInt(FigureShape::getId).toArray();
+    }
+
+    // Reinício -> compactação -> edição -> reinício: os ids recuperados do quadro IDS
+    // precisam chegar às versões publicadas, senão a compactação seguinte grava ids
+    // velhos e uma remoção confirmada volta depois do próximo reinício
+    @Test
+    void removalSurvivesRestartAfterCompactionOfRecoveredScene() throws Exception {
+        DrawingPanel first = new DrawingPanel();
+        try (SceneJournal journal = SceneJournal.open(dir, first)) {
+            add(first, 0);
+            FigureShape removed = add(first, 100);
+            add(first, 200);
+            first.executeCommand(new RemoveShapeCommand(first, removed));
+            journal.compact();
+        }
+
+        DrawingPanel second = new DrawingPanel();
+        try (SceneJournal journal = SceneJournal.open(dir, second)) {
+            int[] recovered = liveIds(second);
+            int[] published = second.getStore().publish().ids();
+            assertArrayEquals(recovered, published);
+            journal.compact();
+            second.executeCommand(new RemoveShapeCommand(second, at(second, 200)));
+        }
+
+        DrawingPanel third = new DrawingPanel();
+        try (SceneJournal ignored = SceneJournal.open(dir, third)) {
+            List<FigureShape> live = third.getShapes();
+            assertEquals(1, live.size(), () -> "figuras: " + Arrays.toString(liveIds(third)));
+            assertEquals(0, live.get(0).getX());
+        }
+    }
+
+    // Sem compactação intermediária, todas as operações voltam na mesma ordem
+    @Test
+    void replayRestoresCommittedCommands() throws Exception {
+        DrawingPanel first = new DrawingPanel();
+        try (SceneJournal ignored = SceneJournal.open(dir, first)) {
+            FigureShape moved = add(first, 0);
+            add(first, 100);
+            first.executeCommand(new MoveShapeCommand(first, moved, 5, 7));
+            first.executeCommand(new RecolorShapeCommand(first, moved, Color.RED));
+        }
+
+        DrawingPanel second = new DrawingPanel();
+        try (SceneJournal ignored = SceneJournal.open(dir, second)) {
+            FigureShape moved = at(second, 5);
+            assertEquals(17, moved.getY());
+            assertEquals(Color.RED.getRGB(), moved.getArgb());
+            assertEquals(2, second.getShapes().size());
+        }
+    }
+
+    // Dois editores no mesmo diretório gravariam um por cima do outro: o segundo falha
+    // sem tocar no painel, no mesmo processo ou em outro, e o diretório volta a abrir
+    // depois que o primeiro fecha
+    @Test
+    void secondEditorCannotOpenLockedDirectory() throws Exception {
+        DrawingPanel first = new DrawingPanel();
+        try (SceneJournal ignored = SceneJournal.open(dir, first)) {
+            add(first, 0);
+            DrawingPanel second = new DrawingPanel();
+            assertThrows(IOException.class, () -> SceneJournal.open(dir, second));
+            assertTrue(second.getShapes().isEmpty());
+            second.executeCommand(new AddShapeCommand(second,
+                    new FigureShape(second.getStore(), ShapeType.CIRCLE, 1, 1, 5, 5, Color.RED)));
+        }
+
+        Process holder = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "--enable-preview", "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+                Holder.class.getName(), dir.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(holder.getInputStream()))) {
+            assertEquals("aberto", out.readLine());
+            assertThrows(IOException.class, () -> SceneJournal.open(dir, new DrawingPanel()));
+        } finally {
+            holder.getOutputStream().close();
+            assertTrue(holder.waitFor(10, TimeUnit.SECONDS));
+        }
+
+        DrawingPanel third = new DrawingPanel();
+        try (SceneJournal ignored = SceneJournal.open(dir, third)) {
+            assertEquals(1, third.getShapes().size());
+            assertNull(third.getShapes().stream().filter(shape -> shape.getX() == 1).findAny().orElse(null));
+        }
+    }
+
+    // Outro editor: abre o journal e o mantém até a entrada padrão fechar
+    static final class Holder {
+        public static void main(String[] args) throws Exception {
+            try (SceneJournal ignored = SceneJournal.open(Paths.get(args[0]), new DrawingPanel())) {
+                System.out.println("aberto");
+                System.out.flush();
+                while (System.in.read() >= 0) {
+                    // espera
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapEngineTest {
+    // Longe da origem o float tem passo 8: bordas que só o double distingue precisam
+    // continuar ordenadas, senão a busca binária perde a borda exata
+    @Test
+    void snapsToExactEdgesBeyondFloatPrecision() {
+        FigureStore store = new FigureStore();
+        Random random = new Random(7);
+        List<FigureShape> shapes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            double x = 1e8 + random.nextDouble() * 64;
+            FigureShape shape = new FigureShape(store, ShapeType.RECTANGLE, x, random.nextDouble() * 1000, 0.001, 10, Color.BLACK);
+            store.attach(shape);
+            shapes.add(shape);
+        }
+        SnapEngine engine = new SnapEngine();
+        engine.prepare(store);
+
+        SnapEngine.Match match = new SnapEngine.Match();
+        for (FigureShape shape : shapes) {
+            assertTrue(engine.snapX(shape.getX() - 1e-6, shape.getX() - 1e-6 + 50, 1e-5, match));
+            assertSame(shape, match.target);
+            assertEquals(shape.getX(), match.guide);
+        }
+
+        // Figuras movidas entram pela intercalação, que também depende da ordem exata
+        for (int i = 0; i < 10; i++) {
+            FigureShape shape = shapes.get(i);
+            shape.translate(random.nextDouble() * 16 - 8, 0);
+            engine.changed(shape);
+        }
+        engine.prepare(store);
+        for (FigureShape shape : shapes) {
+            assertTrue(engine.snapX(shape.getX() - 1e-6, shape.getX() - 1e-6 + 50, 1e-5, match));
+            assertSame(shape, match.target);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// O SpanRasterizer tem que sair visualmente igual ao Java2D (SceneRenderer) nos dois
+// lugares em que o substitui: os quadros da thread de desenho e o PNG exportado.
+// Diferenças pequenas nas bordas são esperadas (cobertura do antialiasing calculada de
+// outro jeito); o que não pode é uma figura deslocada, faltando ou com outro formato
+class SpanRasterizerTest {
+    // Diferença por canal acima disto conta como pixel diferente
+    private static final int TOLERANCE = 24;
+    // Fração máxima de pixels diferentes entre os pixels com figura
+    private static final double MAX_BAD = 0.01;
+    private static final Color BACKGROUND = Color.WHITE;
+
+    // Figuras de um tipo em tamanhos, posições fracionárias e cores (opacas e
+    // translúcidas) variadas, algumas sobrepostas e algumas abaixo do nível de detalhe
+    private static SceneSnapshot scene(ShapeType type) {
+        Random random = new Random(type.ordinal());
+        int count = 120;
+        double[] x = new double[count], y = new double[count], w = new double[count], h = new double[count];
+        int[] argb = new int[count];
+        byte[] types = new byte[count];
+        for (int i = 0; i < count; i++) {
+            double size = i % 10 == 0 ? 0.5 : 3 + random.nextDouble() * 70;
+            x[i] = random.nextDouble() * 360;
+            y[i] = random.nextDouble() * 260;
+            w[i] = size * (0.5 + random.nextDouble());
+            h[i] = size * (0.5 + random.nextDouble());
+            int alpha = i % 3 == 0 ? 0x80 : 0xFF;
+            argb[i] = alpha << 24 | random.nextInt(0x1000000);
+            types[i] = (byte) type.ordinal();
+        }
+        return new SceneSnapshot(x, y, w, h, argb, types, count);
+    }
+
+    // Quadro inteiro desenhado pela thread de desenho, como o painel pede
+    private static BufferedImage frame(SceneSnapshot scene, double scale, SceneRenderer.Quality quality,
+                                       boolean direct) throws InterruptedException {
+        Semaphore presented = new Semaphore(0);
+        RenderThread thread = new RenderThread(BACKGROUND, presented::release);
+        try {
+            int width = (int) Math.ceil(420 * scale), height = (int) Math.ceil(320 * scale);
+            thread.submit(new RenderThread.Request(scene, null, null, width, height, scale, 7.25, 5.5,
+                    quality, 1, direct));
+            assertTrue(presented.tryAcquire(10, TimeUnit.SECONDS), "quadro não ficou pronto");
+            return thread.latest(null).image;
+        } finally {
+            thread.stop();
+        }
+    }
+
+    private static BufferedImage png(SceneSnapshot scene, double scale, boolean direct) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Blocos pequenos: várias figuras atravessam a divisa entre blocos
+        new TiledPngExporter(64, 2, direct).export(scene, new Rectangle2D.Double(-10, -10, 450, 350), scale, 96,
+                BACKGROUND, out, null);
+        return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    // Pixels com figura em alguma das imagens e, entre eles, os que diferem além da tolerância
+    private static void assertSimilar(String what, BufferedImage java2d, BufferedImage direct) {
+        assertTrue(java2d.getWidth() == direct.getWidth() && java2d.getHeight() == direct.getHeight(), what);
+        int background = BACKGROUND.getRGB() & 0xFFFFFF;
+        long painted = 0, bad = 0;
+        for (int y = 0; y < java2d.getHeight(); y++) {
+            for (int x = 0; x < java2d.getWidth(); x++) {
+                int a = java2d.getRGB(x, y) & 0xFFFFFF, b = direct.getRGB(x, y) & 0xFFFFFF;
+                if (a == background && b == background) continue;
+                painted++;
+                int diff = Math.max(Math.abs((a >> 16) - (b >> 16)),
+                        Math.max(Math.abs((a >> 8 & 0xFF) - (b >> 8 & 0xFF)), Math.abs((a & 0xFF) - (b & 0xFF))));
+                if (diff > TOLERANCE) bad++;
+            }
+        }
+        assertTrue(painted > java2d.getWidth() * java2d.getHeight() / 10, what + ": imagem quase vazia");
+        double fraction = (double) bad / painted;
+        assertTrue(fraction <= MAX_BAD, String.format("%s: %.3f%% dos pixels diferem (%d de %d)",
+                what, 100 * fraction, bad, painted));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ShapeType.class)
+    void framesMatchJava2D(ShapeType type) throws InterruptedException {
+        SceneSnapshot scene = scene(type);
+        for (double scale : new double[]{1, 2.5}) {
+            for (SceneRenderer.Quality quality : SceneRenderer.Quality.values()) {
+                String what = "quadro " + type + " " + quality + " x" + scale;
+                assertSimilar(what, frame(scene, scale, quality, false), frame(scene, scale, quality, true));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ShapeType.class)
+    void pngExportMatchesJava2D(ShapeType type) throws IOException {
+        SceneSnapshot scene = scene(type);
+        for (double scale : new double[]{1, 3}) {
+            assertSimilar("PNG " + type + " x" + scale, png(scene, scale, false), png(scene, scale, true));
+        }
+    }
+}
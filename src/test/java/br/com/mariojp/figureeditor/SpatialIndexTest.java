@@ -0,0 +1,74 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpatialIndexTest {
+    private final FigureStore store = new FigureStore();
+
+    private FigureShape shape(double x, double y, double w, double h) {
+        FigureShape shape = new FigureShape(store, ShapeType.RECTANGLE, x, y, w, h, Color.BLACK);
+        store.attach(shape);
+        return shape;
+    }
+
+    // Coordenadas além do alcance do int (ou infinitas) não podem travar os laços de células
+    // nem espalhar a figura por milhões de células; ela continua achável e removível
+    @Test
+    @Timeout(value = 5, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void hugeAndInfiniteFiguresStayFindable() {
+        SpatialIndex index = new SpatialIndex();
+        FigureShape far = shape(3e11, 3e11, 10, 10);
+        FigureShape wide = shape(-1e8, -1e8, 2e8, 2e8);
+        FigureShape infinite = shape(0, 0, Double.POSITIVE_INFINITY, 10);
+        FigureShape small = shape(10, 10, 20, 20);
+        for (FigureShape shape : List.of(far, wide, infinite, small)) {
+            index.insert(shape);
+        }
+
+        assertSame(small, index.topmostAt(new Point(15, 15)));
+        assertSame(infinite, index.topmostAt(new Point(1_000_000, 5)));
+        assertSame(wide, index.topmostAt(new Point(-5_000_000, 5_000_000)));
+
+        List<FigureShape> out = new ArrayList<>();
+        index.query(new Rectangle2D.Double(2.9e11, 2.9e11, 2e10, 2e10), out);
+        assertEquals(List.of(far), out);
+        out.clear();
+        index.query(new Rectangle2D.Double(0, 0, 50, 50), out);
+        assertEquals(3, out.size());
+        assertTrue(out.containsAll(List.of(wide, infinite, small)));
+
+        index.remove(wide);
+        index.remove(infinite);
+        assertNull(index.topmostAt(new Point(1_000_000, 5)));
+        out.clear();
+        index.query(new Rectangle2D.Double(0, 0, 50, 50), out);
+        assertEquals(List.of(small), out);
+    }
+
+    // Com zoom alto o cursor cai entre inteiros do mundo: o hit-test usa o ponto exato
+    @Test
+    void hitTestUsesFractionalWorldPoint() {
+        SpatialIndex index = new SpatialIndex();
+        FigureShape left = shape(10, 10, 0.5, 10);
+        FigureShape right = shape(10.5, 10, 0.5, 10);
+        index.insert(left);
+        index.insert(right);
+
+        assertSame(left, index.topmostAt(new Point2D.Double(10.25, 15)));
+        assertSame(right, index.topmostAt(new Point2D.Double(10.75, 15)));
+        assertNull(index.topmostAt(new Point2D.Double(11.25, 15)));
+    }
+}
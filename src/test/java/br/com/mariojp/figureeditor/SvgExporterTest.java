@@ -0,0 +1,92 @@
+package br.com.mariojp.figureeditor;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SvgExporterTest {
+    private static SceneSnapshot scene(double[] box, ShapeType type, int argb) {
+        return new SceneSnapshot(new double[] {box[0]}, new double[] {box[1]}, new double[] {box[2]},
+                new double[] {box[3]}, new int[] {argb}, new byte[] {(byte) type.ordinal()}, 1);
+    }
+
+    private static String export(SceneSnapshot scene) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SvgExporter().export(scene, new Rectangle2D.Double(0, 0, 100, 100), Color.WHITE, out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void writesEachTypeWithTwoDecimals() throws IOException {
+        assertTrue(export(scene(new double[] {10, 20, 30, 30}, ShapeType.CIRCLE, 0xFF123456))
+                .contains("<circle cx=\"25\" cy=\"35\" r=\"15\" fill=\"#123456\"/>"));
+        assertTrue(export(scene(new double[] {-3.25, 0.5, 10, 4}, ShapeType.CIRCLE, 0x80FF0000))
+                .contains("<ellipse cx=\"1.75\" cy=\"2.5\" rx=\"5\" ry=\"2\" fill=\"#ff0000\" fill-opacity=\"0.5\"/>"));
+        assertTrue(export(scene(new double[] {-0.004, 1.999, 7.1, 2}, ShapeType.RECTANGLE, 0xFF000000))
+                .contains("<rect x=\"0\" y=\"2\" width=\"7.1\" height=\"2\" fill=\"#000000\"/>"));
+        assertTrue(export(scene(new double[] {0, 0, 10, 20}, ShapeType.TRIANGLE, 0xFF00FF00))
+                .contains("<polygon points=\"5,0 10,20 0,20\" fill=\"#00ff00\"/>"));
+    }
+
+    // Valores grandes demais para centésimos num long saem com expoente, não como lixo
+    @Test
+    void largeValuesFallBackToExponentNotation() throws IOException {
+        String svg = export(scene(new double[] {5e13, -2e15, 1e14, 10}, ShapeType.RECTANGLE, 0xFF000000));
+        assertTrue(svg.contains("<rect x=\"5.0E13\" y=\"-2.0E15\" width=\"1.0E14\" height=\"10\""), svg);
+    }
+
+    @Test
+    void nonFiniteValuesFailTheExport() {
+        for (double bad : new double[] {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            assertThrows(IOException.class,
+                    () -> export(scene(new double[] {0, bad, 10, 10}, ShapeType.RECTANGLE, 0xFF000000)));
+        }
+    }
+
+    // O documento é XML válido e cada número volta ao valor da cena (a menos do arredondamento)
+    @Test
+    void rectanglesRoundTripThroughAnXmlParser() throws Exception {
+        int count = 500;
+        Random random = new Random(11);
+        double[] x = new double[count], y = new double[count], w = new double[count], h = new double[count];
+        int[] argb = new int[count];
+        byte[] type = new byte[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10));
+            y[i] = (random.nextDouble() - 0.5) * 1e6;
+            w[i] = random.nextDouble() * 1000;
+            h[i] = random.nextDouble();
+            argb[i] = random.nextInt();
+            type[i] = (byte) ShapeType.RECTANGLE.ordinal();
+        }
+        String svg = export(new SceneSnapshot(x, y, w, h, argb, type, count));
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(svg.getBytes(StandardCharsets.US_ASCII)));
+        NodeList rects = document.getElementsByTagName("g").item(0).getChildNodes();
+        int i = 0;
+        for (int n = 0; n < rects.getLength(); n++) {
+            if (!(rects.item(n) instanceof Element rect)) continue;
+            assertEquals(x[i], Double.parseDouble(rect.getAttribute("x")), 0.005);
+            assertEquals(y[i], Double.parseDouble(rect.getAttribute("y")), 0.005);
+            assertEquals(w[i], Double.parseDouble(rect.getAttribute("width")), 0.005);
+            assertEquals(h[i], Double.parseDouble(rect.getAttribute("height")), 0.005);
+            i++;
+        }
+        assertEquals(count, i);
+    }
+}